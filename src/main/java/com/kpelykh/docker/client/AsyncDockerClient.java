@@ -0,0 +1,423 @@
+package com.kpelykh.docker.client;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientAsyncConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.util.UriTemplate;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.model.ChangeLog;
+import com.kpelykh.docker.client.model.Container;
+import com.kpelykh.docker.client.model.ContainerConfig;
+import com.kpelykh.docker.client.model.ContainerCreateResponse;
+import com.kpelykh.docker.client.model.ContainerInspectResponse;
+import com.kpelykh.docker.client.model.ContainerWaitResponse;
+import com.kpelykh.docker.client.model.HostConfig;
+import com.kpelykh.docker.client.model.Image;
+import com.kpelykh.docker.client.model.ImageInspectResponse;
+import com.kpelykh.docker.client.model.Info;
+import com.kpelykh.docker.client.model.SearchItem;
+import com.kpelykh.docker.client.model.Version;
+
+/**
+ * Non-blocking counterpart of {@link DockerClient}.
+ * <p>
+ * Requests are multiplexed by a small, fixed number of I/O threads, so thousands of calls can be
+ * in flight without a thread per call. Every method returns immediately with a {@link Future};
+ * the optional {@link FutureCallback} is invoked on an I/O thread and must not block.
+ * <p>
+ * Failed calls complete exceptionally with the same {@link HttpClientErrorException} and
+ * {@link HttpServerErrorException} {@link DockerClient} throws, or a {@link DockerException} for
+ * status codes Spring doesn't know. Only TCP daemon URLs are supported.
+ */
+public class AsyncDockerClient {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDockerClient.class);
+
+	public static final int DEFAULT_IO_THREAD_COUNT = 2;
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 100;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final String dockerDeamonUrl;
+
+	private final PoolingClientAsyncConnectionManager connectionManager;
+
+	private final HttpAsyncClient httpAsyncClient;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	public AsyncDockerClient() {
+		this("http://localhost:4243");
+	}
+
+	public AsyncDockerClient(String serverUrl) {
+		this(serverUrl, DEFAULT_IO_THREAD_COUNT, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param ioThreadCount number of threads doing all network I/O.
+	 * @param maxConnections to the daemon. Further calls wait for a free connection without
+	 *        occupying a thread.
+	 */
+	public AsyncDockerClient(String serverUrl, int ioThreadCount, int maxConnections) {
+		Preconditions.checkNotNull(serverUrl, "Server URL can't be null");
+		Preconditions.checkArgument(serverUrl.startsWith("http"), "Only TCP daemon URLs are supported: %s", serverUrl);
+		Preconditions.checkArgument(ioThreadCount > 0, "I/O thread count must be positive: %s", ioThreadCount);
+		Preconditions.checkArgument(maxConnections > 0, "Max connections must be positive: %s", maxConnections);
+		this.dockerDeamonUrl = serverUrl;
+
+		IOReactorConfig reactorConfig = new IOReactorConfig();
+		reactorConfig.setIoThreadCount(ioThreadCount);
+		reactorConfig.setTcpNoDelay(true);
+		try {
+			connectionManager = new PoolingClientAsyncConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+		} catch (IOReactorException e) {
+			throw new IllegalStateException("Failed to start I/O reactor", e);
+		}
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+		DefaultHttpAsyncClient client = new DefaultHttpAsyncClient(connectionManager);
+		// wait legitimately blocks for the lifetime of a container
+		HttpConnectionParams.setSoTimeout(client.getParams(), 0);
+		client.start();
+		httpAsyncClient = client;
+	}
+
+	/**
+	 * Shuts down the I/O threads and closes all connections.
+	 */
+	public void close() {
+		try {
+			httpAsyncClient.shutdown();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 ** MISC API
+	 **/
+
+	public Future<Info> info() {
+		return info(null);
+	}
+
+	public Future<Info> info(FutureCallback<Info> callback) {
+		return execute(new HttpGet(uri("/info")), Info.class, callback);
+	}
+
+	public Future<Version> version() {
+		return version(null);
+	}
+
+	public Future<Version> version(FutureCallback<Version> callback) {
+		return execute(new HttpGet(uri("/version")), Version.class, callback);
+	}
+
+	/**
+	 ** IMAGES API
+	 **/
+
+	public Future<List<SearchItem>> search(String search) {
+		return search(search, null);
+	}
+
+	public Future<List<SearchItem>> search(String search, FutureCallback<List<SearchItem>> callback) {
+		return executeForList(new HttpGet(uri("/images/search?term={search}", search)), SearchItem[].class, callback);
+	}
+
+	public Future<List<Image>> getImages(String name, boolean allImages) {
+		return getImages(name, allImages, null);
+	}
+
+	public Future<List<Image>> getImages(String name, boolean allImages, FutureCallback<List<Image>> callback) {
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("filter", name);
+		params.put("all", allImages ? "1" : "0");
+		return executeForList(new HttpGet(uri("/images/json?filter={filter}&all={all}", params)), Image[].class,
+				callback);
+	}
+
+	public Future<ImageInspectResponse> inspectImage(String imageId) {
+		return inspectImage(imageId, null);
+	}
+
+	public Future<ImageInspectResponse> inspectImage(String imageId, FutureCallback<ImageInspectResponse> callback) {
+		return execute(new HttpGet(uri("/images/{imageId}/json", imageId)), ImageInspectResponse.class, callback);
+	}
+
+	/**
+	 * Like {@link DockerClient#removeImage(String)} the removal of a non existing image succeeds.
+	 */
+	public Future<Void> removeImage(String imageId) {
+		return removeImage(imageId, null);
+	}
+
+	public Future<Void> removeImage(String imageId, FutureCallback<Void> callback) {
+		Preconditions.checkState(!StringUtils.isEmpty(imageId), "Image ID can't be empty");
+		ResponseFuture<Void> future = new ResponseFuture<Void>(Void.class, callback);
+		future.ignoreNotFound = true;
+		return execute(new HttpDelete(uri("/images/{imageId}", imageId)), future);
+	}
+
+	/**
+	 ** CONTAINERS API
+	 **/
+
+	public Future<List<Container>> listContainers(boolean listAll) {
+		return listContainers(listAll, null);
+	}
+
+	public Future<List<Container>> listContainers(boolean listAll, FutureCallback<List<Container>> callback) {
+		return executeForList(new HttpGet(uri("/containers/json?all={all}", listAll)), Container[].class, callback);
+	}
+
+	public Future<ContainerCreateResponse> createContainer(ContainerConfig containerConfig) {
+		return createContainer(containerConfig, null, null);
+	}
+
+	public Future<ContainerCreateResponse> createContainer(ContainerConfig containerConfig, String containerName,
+			FutureCallback<ContainerCreateResponse> callback) {
+		String url = containerName == null ? uri("/containers/create") : uri("/containers/create?name={name}",
+				containerName);
+		return execute(post(url, containerConfig), ContainerCreateResponse.class, callback);
+	}
+
+	public Future<Void> startContainer(String containerId) {
+		return startContainer(containerId, null, null);
+	}
+
+	public Future<Void> startContainer(String containerId, HostConfig hostConfig, FutureCallback<Void> callback) {
+		return execute(post(uri("/containers/{containerId}/start", containerId), hostConfig), Void.class, callback);
+	}
+
+	public Future<ContainerInspectResponse> inspectContainer(String containerId) {
+		return inspectContainer(containerId, null);
+	}
+
+	public Future<ContainerInspectResponse> inspectContainer(String containerId,
+			FutureCallback<ContainerInspectResponse> callback) {
+		return execute(new HttpGet(uri("/containers/{containerId}/json", containerId)),
+				ContainerInspectResponse.class, callback);
+	}
+
+	public Future<Void> removeContainer(String containerId, boolean removeVolumes) {
+		return removeContainer(containerId, removeVolumes, null);
+	}
+
+	public Future<Void> removeContainer(String containerId, boolean removeVolumes, FutureCallback<Void> callback) {
+		Preconditions.checkState(!StringUtils.isEmpty(containerId), "Container ID can't be empty");
+		return execute(new HttpDelete(uri("/containers/{containerId}?v={removeVolumes}", containerId,
+				removeVolumes ? "1" : "0")), Void.class, callback);
+	}
+
+	public Future<ContainerWaitResponse> waitContainer(String containerId) {
+		return waitContainer(containerId, null);
+	}
+
+	public Future<ContainerWaitResponse> waitContainer(String containerId, FutureCallback<ContainerWaitResponse> callback) {
+		return execute(new HttpPost(uri("/containers/{containerId}/wait", containerId)), ContainerWaitResponse.class,
+				callback);
+	}
+
+	public Future<List<ChangeLog>> containterDiff(String containerId) {
+		return containterDiff(containerId, null);
+	}
+
+	public Future<List<ChangeLog>> containterDiff(String containerId, FutureCallback<List<ChangeLog>> callback) {
+		return executeForList(new HttpGet(uri("/containers/{containerId}/changes", containerId)), ChangeLog[].class,
+				callback);
+	}
+
+	public Future<Void> stopContainer(String containerId) {
+		return stopContainer(containerId, 10, null);
+	}
+
+	public Future<Void> stopContainer(String containerId, int timeout, FutureCallback<Void> callback) {
+		return execute(new HttpPost(uri("/containers/{containerId}/stop?t={timeout}", containerId, timeout)),
+				Void.class, callback);
+	}
+
+	public Future<Void> kill(String containerId) {
+		return kill(containerId, null);
+	}
+
+	public Future<Void> kill(String containerId, FutureCallback<Void> callback) {
+		return execute(new HttpPost(uri("/containers/{containerId}/kill", containerId)), Void.class, callback);
+	}
+
+	public Future<Void> restart(String containerId, int timeout) {
+		return restart(containerId, timeout, null);
+	}
+
+	public Future<Void> restart(String containerId, int timeout, FutureCallback<Void> callback) {
+		return execute(new HttpPost(uri("/containers/{containerId}/restart?t={timeout}", containerId, timeout)),
+				Void.class, callback);
+	}
+
+	private String uri(String path, Object... uriVariables) {
+		return new UriTemplate(dockerDeamonUrl + path).expand(uriVariables).toString();
+	}
+
+	private String uri(String path, Map<String, ?> uriVariables) {
+		return new UriTemplate(dockerDeamonUrl + path).expand(uriVariables).toString();
+	}
+
+	private HttpPost post(String url, Object body) {
+		HttpPost post = new HttpPost(url);
+		if (body != null) {
+			try {
+				post.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(body), ContentType.APPLICATION_JSON));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Failed to serialize request body " + body, e);
+			}
+		}
+		return post;
+	}
+
+	private <T> Future<T> execute(HttpUriRequest request, Class<T> responseType, FutureCallback<T> callback) {
+		return execute(request, new ResponseFuture<T>(responseType, callback));
+	}
+
+	private <T> Future<List<T>> executeForList(HttpUriRequest request, Class<T[]> responseType,
+			FutureCallback<List<T>> callback) {
+		return execute(request, new ResponseFuture<List<T>>(responseType, callback) {
+			@Override
+			@SuppressWarnings("unchecked")
+			protected List<T> convert(Object body) {
+				return body == null ? null : Arrays.asList((T[]) body);
+			}
+		});
+	}
+
+	private <T> Future<T> execute(HttpUriRequest request, ResponseFuture<T> future) {
+		LOGGER.trace("Executing {}", request.getRequestLine());
+		future.exchange = httpAsyncClient.execute(request, future.exchangeCallback);
+		return future;
+	}
+
+	/**
+	 * @return the status with the code, {@code null} for codes Spring doesn't list, for which
+	 *         {@link HttpStatus#valueOf(int)} throws.
+	 */
+	private static HttpStatus statusOf(int statusCode) {
+		for (HttpStatus status : HttpStatus.values()) {
+			if (status.value() == statusCode) {
+				return status;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the raw response of one exchange to the caller's result type.
+	 */
+	private class ResponseFuture<T> extends BasicFuture<T> {
+
+		private final Class<?> responseType;
+
+		private volatile Future<HttpResponse> exchange;
+
+		private boolean ignoreNotFound;
+
+		final FutureCallback<HttpResponse> exchangeCallback = new FutureCallback<HttpResponse>() {
+
+			@Override
+			public void completed(HttpResponse response) {
+				try {
+					ResponseFuture.this.completed(convert(readResponse(response)));
+				} catch (Exception e) {
+					ResponseFuture.this.failed(e);
+				}
+			}
+
+			@Override
+			public void failed(Exception ex) {
+				ResponseFuture.this.failed(ex);
+			}
+
+			@Override
+			public void cancelled() {
+				ResponseFuture.this.cancel();
+			}
+		};
+
+		ResponseFuture(Class<?> responseType, FutureCallback<T> callback) {
+			super(callback);
+			this.responseType = responseType;
+		}
+
+		@SuppressWarnings("unchecked")
+		protected T convert(Object body) {
+			return (T) body;
+		}
+
+		private Object readResponse(HttpResponse response) throws IOException, DockerException {
+			HttpEntity entity = response.getEntity();
+			byte[] body = entity != null ? EntityUtils.toByteArray(entity) : new byte[0];
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (ignoreNotFound && statusCode == HttpStatus.NOT_FOUND.value()) {
+				return null;
+			}
+			if (statusCode >= 400) {
+				HttpStatus status = statusOf(statusCode);
+				String reason = response.getStatusLine().getReasonPhrase();
+				if (status == null) {
+					throw new DockerException("Request failed with status " + statusCode + " " + reason + ": "
+							+ new String(body, UTF_8));
+				}
+				if (statusCode < 500) {
+					throw new HttpClientErrorException(status, reason, body, UTF_8);
+				}
+				throw new HttpServerErrorException(status, reason, body, UTF_8);
+			}
+			if (responseType == Void.class || body.length == 0) {
+				return null;
+			}
+			return objectMapper.readValue(body, responseType);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			Future<HttpResponse> current = exchange;
+			if (current != null) {
+				current.cancel(mayInterruptIfRunning);
+			}
+			return super.cancel(mayInterruptIfRunning);
+		}
+	}
+
+}
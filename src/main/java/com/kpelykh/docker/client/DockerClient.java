@@ -1,23 +1,36 @@
 package com.kpelykh.docker.client;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.JsonMappingException;
@@ -29,15 +42,30 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
 import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriTemplate;
 
 import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.build.BaseImagePrefetch;
+import com.kpelykh.docker.client.build.BuildContext;
+import com.kpelykh.docker.client.build.BuildContextCache;
+import com.kpelykh.docker.client.build.BuildContextEntity;
+import com.kpelykh.docker.client.build.BuildContextPlanner;
+import com.kpelykh.docker.client.build.BuildEvent;
+import com.kpelykh.docker.client.build.BuildListener;
+import com.kpelykh.docker.client.build.BuildOutputReader;
+import com.kpelykh.docker.client.build.BuildResultCache;
+import com.kpelykh.docker.client.build.BuildWorkspace;
+import com.kpelykh.docker.client.build.DockerIgnore;
+import com.kpelykh.docker.client.image.ImageGarbageCollector;
+import com.kpelykh.docker.client.image.ImageInspectCache;
+import com.kpelykh.docker.client.image.ImageRemover;
+import com.kpelykh.docker.client.image.ImageSearchCache;
+import com.kpelykh.docker.client.image.RemovalReport;
 import com.kpelykh.docker.client.model.ChangeLog;
 import com.kpelykh.docker.client.model.CommitConfig;
 import com.kpelykh.docker.client.model.Container;
@@ -51,7 +79,13 @@ import com.kpelykh.docker.client.model.ImageInspectResponse;
 import com.kpelykh.docker.client.model.Info;
 import com.kpelykh.docker.client.model.SearchItem;
 import com.kpelykh.docker.client.model.Version;
-import com.kpelykh.docker.client.utils.CompressArchiveUtil;
+import com.kpelykh.docker.client.pull.PullListener;
+import com.kpelykh.docker.client.pull.PullOutputReader;
+import com.kpelykh.docker.client.transport.FileChannels;
+import com.kpelykh.docker.client.transport.HttpResponseInputStream;
+import com.kpelykh.docker.client.transport.PooledHttpTransport;
+import com.kpelykh.docker.client.transport.TransferListener;
+import com.kpelykh.docker.client.utils.AttachStreamDemultiplexer;
 
 /**
  * @author Konstantin Pelykh (kpelykh@gmail.com)
@@ -62,6 +96,11 @@ public class DockerClient
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DockerClient.class);
 
+    private static final String UNIX_SOCKET_URL_PREFIX = PooledHttpTransport.UNIX_SCHEME + "://";
+
+    // host and port are ignored by the Unix domain socket transport
+    private static final String UNIX_SOCKET_REQUEST_URL = UNIX_SOCKET_URL_PREFIX + "localhost";
+
     private RestTemplate restTemplate;
 
     private String dockerDeamonUrl;
@@ -69,15 +108,65 @@ public class DockerClient
     // info and version return ContentType text/plain which is ignored by the MJHMC by default.
 	private RestTemplate textRestTemplate;
 
+	private volatile PooledHttpTransport transport;
+
+	/** Whether {@link #transport} was created by this client rather than passed in. */
+	private volatile boolean ownsTransport;
+
+	private BuildContextCache buildContextCache;
+
+	private BuildResultCache buildResultCache;
+
+	private ExecutorService archiveExecutor;
+
+	private BuildWorkspace buildWorkspace;
+
+	private int buildContextCompressionLevel;
+
+	private boolean baseImagePrefetch;
+
+	private ExecutorService prefetchExecutor;
+
+	private int maxConcurrentPulls = 4;
+
+	private int maxConcurrentRemovals = 4;
+
+	private volatile ImageInspectCache imageInspectCache;
+
+	private volatile ImageGarbageCollector imageGarbageCollector;
+
+	private volatile ImageSearchCache imageSearchCache;
+
     public DockerClient() {
     	this("http://localhost:4243");
     }
 
+    /**
+     * @param serverUrl either a TCP URL like {@code http://localhost:4243} or the path of the
+     *        daemon's Unix domain socket like {@code unix:///var/run/docker.sock}.
+     */
     public DockerClient(String serverUrl) {
-        dockerDeamonUrl = serverUrl;
-        restTemplate = new RestTemplate();
+        this(serverUrl, createTransport(serverUrl), true);
+    }
+
+    /**
+     * @param transport shared by all requests of this client. Owned by the caller, so neither
+     *        {@link #close()} nor {@link #setDockerDeamonUrl(String)} shut it down.
+     */
+    public DockerClient(String serverUrl, PooledHttpTransport transport) {
+        this(serverUrl, transport, false);
+    }
+
+    private DockerClient(String serverUrl, PooledHttpTransport transport, boolean ownsTransport) {
+        Preconditions.checkNotNull(transport, "Transport can't be null");
+        dockerDeamonUrl = toRequestUrl(serverUrl);
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
 
-		textRestTemplate = new RestTemplate();
+        ClientHttpRequestFactory requestFactory = transport.createRequestFactory();
+        restTemplate = new RestTemplate(requestFactory);
+
+		textRestTemplate = new RestTemplate(requestFactory);
 		List<HttpMessageConverter<?>> messageConverters = textRestTemplate.getMessageConverters();
 		messageConverters.clear();
 		MappingJacksonHttpMessageConverter converter = new MappingJacksonHttpMessageConverter();
@@ -87,11 +176,45 @@ public class DockerClient
 		converter.setSupportedMediaTypes(supportedMediaTypes);
     }
 
+    /**
+     * Switching to or from a Unix domain socket replaces the transport by one with the same pool
+     * settings. The previous transport is shut down only if this client created it.
+     */
     public void setDockerDeamonUrl(String dockerDeamonUrl) {
     	LOGGER.info("Changing docker deamon URL to '{}'", dockerDeamonUrl);
-		this.dockerDeamonUrl = dockerDeamonUrl;
+    	if (isUnixSocketUrl(dockerDeamonUrl) || isUnixSocketUrl(this.dockerDeamonUrl)) {
+    		// the socket path is part of the transport, not of the request URL
+    		PooledHttpTransport previous = transport;
+    		boolean ownedPrevious = ownsTransport;
+    		PooledHttpTransport replacement = createTransport(dockerDeamonUrl);
+    		replacement.copySettings(previous);
+    		transport = replacement;
+    		ownsTransport = true;
+    		ClientHttpRequestFactory requestFactory = replacement.createRequestFactory();
+    		restTemplate.setRequestFactory(requestFactory);
+    		textRestTemplate.setRequestFactory(requestFactory);
+    		if (ownedPrevious) {
+    			previous.shutdown();
+    		}
+    	}
+		this.dockerDeamonUrl = toRequestUrl(dockerDeamonUrl);
 	}
 
+    private static boolean isUnixSocketUrl(String serverUrl) {
+    	return serverUrl != null && serverUrl.startsWith(UNIX_SOCKET_URL_PREFIX);
+    }
+
+    private static PooledHttpTransport createTransport(String serverUrl) {
+    	if (isUnixSocketUrl(serverUrl)) {
+    		return PooledHttpTransport.forUnixSocket(new File(serverUrl.substring(UNIX_SOCKET_URL_PREFIX.length())));
+    	}
+    	return new PooledHttpTransport();
+    }
+
+    private static String toRequestUrl(String serverUrl) {
+    	return isUnixSocketUrl(serverUrl) ? UNIX_SOCKET_REQUEST_URL : serverUrl;
+    }
+
     /**
      ** MISC API
      **/
@@ -117,13 +240,23 @@ public class DockerClient
     }
 
     public void pull(String repository, String tag, String registry) throws DockerException {
-        Preconditions.checkNotNull(repository, "Repository was not specified");
+        pull(repository, tag, registry, null);
+    }
 
-        if (StringUtils.countMatches(repository, ":") == 1) {
-            String repositoryTag[] = StringUtils.split(repository);
-            repository = repositoryTag[0];
-            tag = repositoryTag[1];
+    /**
+     * Pulls an image, reporting the progress of every layer to the listener while it runs.
+     *
+     * @param listener may be {@code null}.
+     * @throws DockerException if the daemon reports an error.
+     */
+    public void pull(String repository, String tag, String registry, PullListener listener) throws DockerException {
+        Preconditions.checkNotNull(repository, "Repository was not specified");
 
+        // a colon before the last slash separates the registry port
+        int colon = repository.lastIndexOf(':');
+        if (colon > repository.lastIndexOf('/')) {
+            tag = repository.substring(colon + 1);
+            repository = repository.substring(0, colon);
         }
 
         Map<String,String> params = new HashMap<String, String>();
@@ -131,11 +264,94 @@ public class DockerClient
         params.put("fromImage", repository);
         params.put("registry", registry);
 
-        restTemplate.exchange(dockerDeamonUrl
-				+ "/images/create?tag={tag}&fromImage={fromImage}&registry={registry}", HttpMethod.POST, null, String.class, params);
+        String image = tag != null ? repository + ":" + tag : repository;
+        HttpPost post = new HttpPost(new UriTemplate(dockerDeamonUrl
+                + "/images/create?tag={tag}&fromImage={fromImage}&registry={registry}").expand(params));
+        InputStream output = null;
+        try {
+            output = HttpResponseInputStream.open(transport.getHttpClient(), post);
+            String error = new PullOutputReader(output, image).readAll(listener);
+            if (error != null) {
+                throw new DockerException("Failed to pull " + image + ": " + error);
+            }
+        } catch (IOException e) {
+            throw new DockerException("Failed to read pull output of " + image, e);
+        } finally {
+            IOUtils.closeQuietly(output);
+            invalidateImageName(image);
+        }
+    }
+
+    /**
+     * Pulls all images, up to {@link #setMaxConcurrentPulls(int) max concurrent pulls} at a time.
+     * A failed pull doesn't stop the others.
+     *
+     * @param images names with optional tag, e.g. {@code ubuntu:12.04}.
+     * @return the images which failed to pull with the reason, empty if all were pulled.
+     */
+    public Map<String, Exception> pullAll(Collection<String> images) throws DockerException {
+        return pullAll(images, null);
+    }
+
+    /**
+     * Like {@link #pullAll(Collection)}, reporting the progress of all pulls to the listener.
+     *
+     * @param listener may be {@code null}. Called from several threads at once.
+     */
+    public Map<String, Exception> pullAll(Collection<String> images, final PullListener listener) throws DockerException {
+        Preconditions.checkNotNull(images, "Images can't be null");
+        Set<String> distinct = new LinkedHashSet<String>(images);
+        Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+        if (distinct.isEmpty()) {
+            return failures;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentPulls, distinct.size()));
+        Map<String, Future<?>> pulls = new LinkedHashMap<String, Future<?>>();
+        try {
+            for (final String image : distinct) {
+                pulls.put(image, executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws DockerException {
+                        long start = System.currentTimeMillis();
+                        pull(image, null, null, listener);
+                        LOGGER.info("Pulled {} in {} ms", image, System.currentTimeMillis() - start);
+                        return null;
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<?>> pull : pulls.entrySet()) {
+                try {
+                    pull.getValue().get();
+                } catch (ExecutionException e) {
+                    LOGGER.warn("Failed to pull " + pull.getKey(), e.getCause());
+                    failures.put(pull.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause()
+                            : new DockerException(e.getCause().toString(), e.getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DockerException("Interrupted while pulling images", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failures;
+    }
+
+    public List<SearchItem> search(final String search) throws DockerException {
+		ImageSearchCache cache = imageSearchCache;
+		if (cache == null) {
+			return searchIndex(search);
+		}
+		return cache.get(search, new Callable<List<SearchItem>>() {
+			@Override
+			public List<SearchItem> call() {
+				return searchIndex(search);
+			}
+		});
     }
 
-    public List<SearchItem> search(String search) throws DockerException {
+    private List<SearchItem> searchIndex(String search) {
 		SearchItem[] response = restTemplate.getForObject(dockerDeamonUrl + "/images/search?term={search}", SearchItem[].class, search);
 		return Arrays.asList(response);
     }
@@ -143,22 +359,132 @@ public class DockerClient
     public void removeImage(String imageId) throws DockerException {
         Preconditions.checkState(!StringUtils.isEmpty(imageId), "Image ID can't be empty");
 
+		String removed = null;
 		try {
-			restTemplate.delete(dockerDeamonUrl + "/images/{imageId}", imageId);
+			removed = restTemplate.exchange(dockerDeamonUrl + "/images/{imageId}", HttpMethod.DELETE, null,
+					String.class, imageId).getBody();
 		} catch (HttpClientErrorException e) {
 			if (e.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
 	            LOGGER.warn("Ignoring deletion of non existing image {}", imageId);
 	            return;
 			}
 			throw e;
+		} finally {
+			ImageInspectCache cache = imageInspectCache;
+			if (cache != null) {
+				cache.invalidate(imageId);
+				invalidateRemoved(cache, removed);
+			}
 		}
     }
 
-    public void removeImages(List<String> images) throws DockerException {
+    /**
+     * Drops the ids and tags the daemon reports as deleted and untagged along with an image,
+     * e.g. the untagged parents removed with it, from the inspect cache.
+     */
+    private void invalidateRemoved(ImageInspectCache cache, String removed) {
+        if (StringUtils.isBlank(removed)) {
+            return;
+        }
+        try {
+            for (JsonNode entry : new ObjectMapper().readTree(removed)) {
+                if (entry.has("Deleted")) {
+                    cache.invalidate(entry.get("Deleted").asText());
+                }
+                if (entry.has("Untagged")) {
+                    invalidateImageName(entry.get("Untagged").asText());
+                }
+            }
+        } catch (IOException e) {
+            // can't tell what went along with it
+            LOGGER.warn("Unexpected response to image removal, forgetting all tags: {}", removed);
+            cache.invalidateNames();
+        }
+    }
+
+    /**
+     * Removes the images concurrently, images built on others first.
+     *
+     * @return the outcome for every image, failed removals don't stop the others.
+     * @see ImageRemover
+     */
+    public RemovalReport removeImages(Collection<String> images) throws DockerException {
         Preconditions.checkNotNull(images, "List of images can't be null");
 
-        for (String imageId : images) {
-            removeImage(imageId);
+        return new ImageRemover(this, maxConcurrentRemovals).remove(images);
+    }
+
+    public long saveImage(String image, File file) throws DockerException {
+        return saveImage(image, file, null);
+    }
+
+    /**
+     * Exports the image with all its parent layers and tags as a tarball, streamed into a
+     * temporary file next to the given one which replaces it once complete. An existing file is
+     * left alone if saving fails.
+     *
+     * @param listener may be {@code null}.
+     * @return the size of the tarball.
+     */
+    public long saveImage(String image, File file, TransferListener listener) throws DockerException {
+        Preconditions.checkState(!StringUtils.isEmpty(image), "Image can't be empty");
+        Preconditions.checkNotNull(file, "File can't be null");
+
+        URI uri = new UriTemplate(dockerDeamonUrl + "/images/{image}/get").expand(image);
+        HttpResponseInputStream tarball = null;
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("." + file.getName() + "-", ".tmp", file.getAbsoluteFile().getParentFile());
+            tarball = HttpResponseInputStream.open(transport.getHttpClient(), new HttpGet(uri));
+            org.apache.http.HttpEntity entity = tarball.getResponse().getEntity();
+            long size = FileChannels.copy(tarball, tmp, entity != null ? entity.getContentLength() : -1, listener);
+            if (!tmp.renameTo(file)) {
+                // renaming over an existing file fails on some platforms
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Failed to move " + tmp + " to " + file);
+                }
+            }
+            return size;
+        } catch (IOException e) {
+            throw new DockerException("Failed to save image " + image + " to " + file, e);
+        } finally {
+            IOUtils.closeQuietly(tarball);
+            if (tmp != null) {
+                // gone if it was moved into place
+                tmp.delete();
+            }
+        }
+    }
+
+    public void loadImage(File file) throws DockerException {
+        loadImage(file, null);
+    }
+
+    /**
+     * Imports the images and tags in a tarball written by {@link #saveImage(String, File)},
+     * streamed straight from the file.
+     *
+     * @param listener may be {@code null}.
+     */
+    public void loadImage(File file, TransferListener listener) throws DockerException {
+        Preconditions.checkNotNull(file, "File can't be null");
+
+        HttpPost post = new HttpPost(dockerDeamonUrl + "/images/load");
+        post.setEntity(FileChannels.entity(file, "application/x-tar", listener));
+        InputStream output = null;
+        try {
+            output = HttpResponseInputStream.open(transport.getHttpClient(), post);
+            IOUtils.copy(output, new NullOutputStream());
+        } catch (IOException e) {
+            throw new DockerException("Failed to load images from " + file, e);
+        } finally {
+            IOUtils.closeQuietly(output);
+            ImageInspectCache cache = imageInspectCache;
+            if (cache != null) {
+                // the tarball may have moved any of the tags
+                cache.invalidateNames();
+            }
         }
     }
 
@@ -188,9 +514,77 @@ public class DockerClient
 		return Arrays.asList(response);
     }
 
+    /**
+     * @return the image, from the {@link #setImageInspectCache(ImageInspectCache) inspect cache}
+     *         if there is one. Cached responses must not be modified.
+     */
     public ImageInspectResponse inspectImage(String imageId) throws DockerException {
-		return restTemplate.getForObject(dockerDeamonUrl + "/images/{imageId}/json",
-				ImageInspectResponse.class, imageId);
+        return inspectImage(imageId, true);
+    }
+
+    /**
+     * @param cached {@code false} to ask the daemon even if the image is in the inspect cache,
+     *        e.g. to find out whether it still exists. The cache is updated either way.
+     */
+    public ImageInspectResponse inspectImage(String imageId, boolean cached) throws DockerException {
+		ImageInspectCache cache = imageInspectCache;
+		if (cache != null && cached) {
+			ImageInspectResponse response = cache.get(imageId);
+			if (response != null) {
+				return response;
+			}
+		}
+		ImageInspectResponse response;
+		try {
+			response = restTemplate.getForObject(dockerDeamonUrl + "/images/{imageId}/json",
+					ImageInspectResponse.class, imageId);
+		} catch (HttpClientErrorException e) {
+			if (cache != null && e.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
+				// removed behind our back
+				cache.invalidate(imageId);
+			}
+			throw e;
+		}
+		if (cache != null) {
+			cache.put(imageId, response);
+		}
+		return response;
+    }
+
+    /**
+     * Drops the image a name resolved to from the inspect cache, after the name may have moved.
+     */
+    private void invalidateImageName(String name) {
+        ImageInspectCache cache = imageInspectCache;
+        if (cache == null || name == null) {
+            return;
+        }
+        cache.invalidateName(name);
+        if (name.endsWith(":latest")) {
+            cache.invalidateName(name.substring(0, name.length() - ":latest".length()));
+        } else if (name.lastIndexOf(':') <= name.lastIndexOf('/')) {
+            cache.invalidateName(name + ":latest");
+        }
+    }
+
+    /**
+     * Tags an image into a repository.
+     *
+     * @param tag may be {@code null} for {@code latest}.
+     * @param force moves the tag if it already points to another image.
+     */
+    public void tag(String image, String repository, String tag, boolean force) throws DockerException {
+        Preconditions.checkState(!StringUtils.isEmpty(image), "Image can't be empty");
+        Preconditions.checkState(!StringUtils.isEmpty(repository), "Repository can't be empty");
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("image", image);
+        params.put("repo", repository);
+        params.put("tag", StringUtils.defaultString(tag));
+        params.put("force", force ? "1" : "0");
+
+        restTemplate.postForLocation(dockerDeamonUrl + "/images/{image}/tag?repo={repo}&tag={tag}&force={force}", null, params);
+        invalidateImageName(StringUtils.isEmpty(tag) ? repository : repository + ":" + tag);
     }
 
     /**
@@ -202,6 +596,20 @@ public class DockerClient
 		return Arrays.asList(response);
     }
 
+    /**
+     * Subscribes to what happens to the containers of the daemon, one JSON message per event as
+     * it happens. The stream doesn't end on its own, closing it unsubscribes.
+     *
+     * @see com.kpelykh.docker.client.container.ContainerEventReader
+     */
+    public InputStream events() throws DockerException {
+        try {
+            return HttpResponseInputStream.open(transport.getHttpClient(), new HttpGet(dockerDeamonUrl + "/events"));
+        } catch (IOException e) {
+            throw new DockerException("Failed to subscribe to the events of the daemon", e);
+        }
+    }
+
     public ContainerCreateResponse createContainer(ContainerConfig containerConfig) throws DockerException {
 		return createContainer(containerConfig, null);
 	}
@@ -224,6 +632,10 @@ public class DockerClient
 			e1.printStackTrace();
 		}
 
+		if (imageGarbageCollector != null) {
+			imageGarbageCollector.touch(containerConfig.getImage());
+		}
+
 		String containerParameter = "";
 		if (containerName != null) {
 			containerParameter = "?name=" + containerName;
@@ -282,24 +694,48 @@ public class DockerClient
     	return restTemplate.postForObject(dockerDeamonUrl + "/containers/{containerId}/wait", null, ContainerWaitResponse.class, containerId);
     }
 
+    /**
+     * @return the log of the container as sent by the daemon. Must be closed by the caller.
+     */
     public InputStream logContainer(String containerId) throws DockerException {
         return logContainer(containerId, false);
     }
 
+    /**
+     * @return the log of the container followed by everything it writes from now on. The stream
+     *         only ends with the container; close it to stop following.
+     */
     public InputStream logContainerStream(String containerId) throws DockerException {
         return logContainer(containerId, true);
     }
 
-    private InputStream logContainer(String containerId, boolean stream) throws DockerException {
-    	
-		ResponseExtractor<InputStream> responseExtractor = new ResponseExtractor<InputStream>() {
-			@Override
-			public InputStream extractData(ClientHttpResponse response) throws IOException {
-				String result = IOUtils.toString(response.getBody());
-				return new ByteArrayInputStream(result.getBytes());
-			}
-		};
+    /**
+     * Copies the log of the container to the given streams, separating stdout from stderr.
+     */
+    public void logContainer(String containerId, OutputStream stdout, OutputStream stderr) throws DockerException {
+        demultiplexLog(containerId, false, stdout, stderr);
+    }
+
+    /**
+     * Like {@link #logContainer(String, OutputStream, OutputStream)}, but keeps following the log
+     * until the container ends.
+     */
+    public void logContainerStream(String containerId, OutputStream stdout, OutputStream stderr) throws DockerException {
+        demultiplexLog(containerId, true, stdout, stderr);
+    }
 
+    private void demultiplexLog(String containerId, boolean stream, OutputStream stdout, OutputStream stderr) throws DockerException {
+        InputStream log = logContainer(containerId, stream);
+        try {
+            new AttachStreamDemultiplexer(log).demultiplex(stdout, stderr);
+        } catch (IOException e) {
+            throw new DockerException("Failed to read log of container " + containerId, e);
+        } finally {
+            IOUtils.closeQuietly(log);
+        }
+    }
+
+    private InputStream logContainer(String containerId, boolean stream) throws DockerException {
         Map<String,String> params = new HashMap<String, String>();
         params.put("containerId", containerId);
         params.put("logs", "1");
@@ -307,8 +743,13 @@ public class DockerClient
         params.put("stderr", "1");
         params.put("stream", stream ? "1" : "0"); // this parameter keeps stream open indefinitely
 
-        return restTemplate.execute(dockerDeamonUrl + "/containers/{containerId}/attach?logs={logs}&stdout={stdout}&stderr={stderr}&stream={stream}",
-        		HttpMethod.POST, null, responseExtractor, params);
+        URI uri = new UriTemplate(dockerDeamonUrl + "/containers/{containerId}/attach?logs={logs}&stdout={stdout}&stderr={stderr}&stream={stream}")
+        		.expand(params);
+        try {
+        	return HttpResponseInputStream.open(transport.getHttpClient(), new HttpPost(uri));
+        } catch (IOException e) {
+        	throw new DockerException("Failed to attach to container " + containerId, e);
+        }
     }
 
     public List<ChangeLog> containterDiff(String containerId) throws DockerException {
@@ -374,82 +815,370 @@ public class DockerClient
         return this.build(dockerFolder, null);
     }
 
+	/**
+	 * Streams the build context to the daemon. The context is archived on the fly from the
+	 * source files; nothing is copied to disk or buffered on the heap unless a
+	 * {@link #setBuildWorkspace(BuildWorkspace) build workspace} stages it.
+	 *
+	 * @return the live build output. Must be closed by the caller.
+	 */
 	public InputStream build(File dockerFolder, String tag) throws DockerException {
+        return upload(dockerFolder, planContext(dockerFolder), tag);
+    }
+
+	/**
+	 * Builds an image, reporting the output to the listener while the build runs.
+	 * <p>
+	 * With a {@link #setBuildResultCache(BuildResultCache) build result cache}, a context which
+	 * is identical to one built before is neither uploaded nor built as long as its image still
+	 * exists. The image is tagged again and reported by a single {@link BuildEvent.Type#IMAGE_ID}
+	 * event.
+	 *
+	 * @param listener may be {@code null}.
+	 * @return the id of the built image.
+	 * @throws DockerException if the daemon reports an error or no image was built.
+	 */
+	public String build(File dockerFolder, String tag, BuildListener listener) throws DockerException {
+		BuildContext context = planContext(dockerFolder);
+		String digest = null;
+		if (buildResultCache != null) {
+			try {
+				digest = buildResultCache.getDigest(context);
+			} catch (IOException e) {
+				throw new DockerException("Failed to hash build context of " + dockerFolder, e);
+			}
+			String imageId = findBuiltImage(digest, tag);
+			if (imageId != null) {
+				LOGGER.info("Build context of {} didn't change, reusing image {}", dockerFolder, imageId);
+				if (listener != null) {
+					listener.onEvent(new BuildEvent(BuildEvent.Type.IMAGE_ID, "Using cached image " + imageId, -1, imageId));
+				}
+				return imageId;
+			}
+		}
+
+		InputStream output = upload(dockerFolder, context, tag);
+		BuildOutputReader reader = new BuildOutputReader(output);
+		String imageId;
+		try {
+			imageId = reader.readAll(listener);
+			if (reader.getError() != null) {
+				throw new DockerException("Build of " + dockerFolder + " failed: " + reader.getError());
+			}
+			if (imageId == null) {
+				throw new DockerException("Build of " + dockerFolder + " ended without an image id");
+			}
+		} catch (IOException e) {
+			throw new DockerException("Failed to read build output of " + dockerFolder, e);
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+
+		invalidateImageName(tag);
+		if (digest != null) {
+			try {
+				buildResultCache.put(digest, imageId);
+			} catch (IOException e) {
+				LOGGER.warn("Failed to record image " + imageId + " of " + dockerFolder, e);
+			}
+		}
+		return imageId;
+	}
+
+	private BuildContext planContext(File dockerFolder) throws DockerException {
         Preconditions.checkNotNull(dockerFolder, "Folder is null");
         Preconditions.checkArgument(dockerFolder.exists(), "Folder %s doesn't exist", dockerFolder);
         Preconditions.checkState(new File(dockerFolder, "Dockerfile").exists(), "Dockerfile doesn't exist in " + dockerFolder);
 
-        // ARCHIVE TAR
-        String archiveNameWithOutExtension = UUID.randomUUID().toString();
-
-        File dockerFolderTar = null;
-        File tmpDockerContextFolder = null;
+        try {
+            BuildContextPlanner planner = new BuildContextPlanner(dockerFolder);
+            BuildContext context = planner.plan();
+            if (!planner.getIgnore().isEmpty()) {
+                LOGGER.info("{} excluded {} files and {} directories of {}", new Object[] { DockerIgnore.FILE_NAME,
+                        planner.getExcludedFiles().size(), planner.getPrunedDirectories().size(), dockerFolder });
+                if (LOGGER.isDebugEnabled()) {
+                    long excluded = planner.getExcludedLength();
+                    LOGGER.debug("Build context of {} shrunk from {} to {} bytes", new Object[] { dockerFolder,
+                            context.getContentLength() + excluded, context.getContentLength() });
+                }
+            }
+            return context;
+        } catch (IOException ex) {
+            throw new DockerException("Error occurred while preparing Docker context folder.", ex);
+        }
+    }
 
+	private InputStream upload(File dockerFolder, BuildContext context, String tag) throws DockerException {
+        BaseImagePrefetch prefetch = null;
+        if (baseImagePrefetch) {
+            try {
+                prefetch = BaseImagePrefetch.start(this, dockerFolder, getPrefetchExecutor());
+            } catch (IOException e) {
+                throw new DockerException("Failed to read the base images of " + dockerFolder, e);
+            }
+        }
+        BuildWorkspace.StagedBuildContext staged = null;
         try {
-            File dockerFile = new File(dockerFolder, "Dockerfile");
-            @SuppressWarnings("unchecked")
-            List<String> dockerFileContent = FileUtils.readLines(dockerFile);
+            org.apache.http.HttpEntity entity;
+            if (buildWorkspace == null) {
+                entity = new BuildContextEntity(context, buildContextCache, archiveExecutor, buildContextCompressionLevel);
+            } else {
+                try {
+                    staged = buildWorkspace.stage(context, buildContextCache, archiveExecutor);
+                } catch (IOException e) {
+                    throw new DockerException("Failed to stage build context of " + dockerFolder, e);
+                }
+                LOGGER.debug("Staged {} bytes of {} {}", new Object[] { staged.getLength(), dockerFolder,
+                        staged.isInMemory() ? "in memory" : "on disk" });
+                entity = staged.createEntity();
+            }
+            if (prefetch != null) {
+                entity = prefetch.awaitBeforeLastByte(entity);
+            }
 
-            if (dockerFileContent.size() <= 0) {
-                throw new DockerException(String.format("Dockerfile %s is empty", dockerFile));
+            invalidateImageName(tag);
+            LOGGER.debug("Uploading {} from {}", context, dockerFolder);
+            HttpPost post = new HttpPost(new UriTemplate(dockerDeamonUrl + "/build?t={tag}").expand(tag));
+            post.setEntity(entity);
+            // the request is sent completely before the response is read
+            return HttpResponseInputStream.open(transport.getHttpClient(), post);
+        } catch (IOException e) {
+            throw new DockerException("Failed to upload build context of " + dockerFolder, e);
+        } finally {
+            if (staged != null) {
+                staged.close();
             }
+            if (prefetch != null) {
+                prefetch.cancel();
+            }
+        }
+    }
 
-            //Create tmp docker context folder
-//            tmpDockerContextFolder = new File(FileUtils.getTempDirectoryPath(), "docker-java-build" + archiveNameWithOutExtension);
-            tmpDockerContextFolder = new File("/tmp", "docker-java-build" + archiveNameWithOutExtension);
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
 
-            FileUtils.copyFileToDirectory(dockerFile, tmpDockerContextFolder);
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "docker-prefetch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return prefetchExecutor;
+    }
 
-            for (String cmd : dockerFileContent) {
-                if (StringUtils.startsWithIgnoreCase(cmd.trim(), "ADD")) {
-                    String addArgs[] = StringUtils.split(cmd, " \t");
-                    if (addArgs.length != 3) {
-                        throw new DockerException(String.format("Wrong format on line [%s]", cmd));
-                    }
+	/**
+	 * @return the image recorded for the context digest if it still exists, tagged with
+	 *         {@code tag}.
+	 */
+	private String findBuiltImage(String digest, String tag) throws DockerException {
+		String imageId = buildResultCache.getImageId(digest);
+		if (imageId == null) {
+			return null;
+		}
+		if (tag != null) {
+			// the common case: the tag still points to the image
+			ImageInspectResponse tagged = inspectImageIfExists(tag);
+			if (tagged != null && tagged.id != null && tagged.id.startsWith(imageId)) {
+				return imageId;
+			}
+		}
+		if (inspectImageIfExists(imageId) == null) {
+			LOGGER.debug("Image {} built from context {} doesn't exist anymore", imageId, digest);
+			try {
+				buildResultCache.remove(digest);
+			} catch (IOException e) {
+				LOGGER.warn("Failed to forget image " + imageId, e);
+			}
+			return null;
+		}
+		if (tag != null) {
+			int colon = tag.lastIndexOf(':');
+			if (colon > tag.lastIndexOf('/')) {
+				tag(imageId, tag.substring(0, colon), tag.substring(colon + 1), true);
+			} else {
+				tag(imageId, tag, null, true);
+			}
+		}
+		return imageId;
+	}
 
-                    File src = new File(addArgs[1]);
-                    if (!src.isAbsolute()) {
-                        src = new File(dockerFolder, addArgs[1]).getCanonicalFile();
-                    }
+	private ImageInspectResponse inspectImageIfExists(String image) throws DockerException {
+		try {
+			// cached images may have been removed since
+			return inspectImage(image, false);
+		} catch (HttpClientErrorException e) {
+			if (e.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
+				return null;
+			}
+			throw e;
+		}
+	}
 
-                    if (!src.exists()) {
-                        throw new DockerException(String.format("Source file %s doesnt' exist", src));
-                    }
-                    if (src.isDirectory()) {
-                        FileUtils.copyDirectory(src, tmpDockerContextFolder);
-                    } else {
-                        FileUtils.copyFileToDirectory(src, tmpDockerContextFolder);
-                    }
-                }
-            }
+	public RestTemplate getRestTemplate() {
+		return restTemplate;
+	}
 
-            dockerFolderTar = CompressArchiveUtil.archiveTARFiles(tmpDockerContextFolder, archiveNameWithOutExtension);
+	public PooledHttpTransport getTransport() {
+		return transport;
+	}
 
-        } catch (IOException ex) {
-            FileUtils.deleteQuietly(dockerFolderTar);
-            FileUtils.deleteQuietly(tmpDockerContextFolder);
-            throw new DockerException("Error occurred while preparing Docker context folder.", ex);
-        }
+	public BuildContextCache getBuildContextCache() {
+		return buildContextCache;
+	}
 
-		final HttpHeaders requestHeaders = new HttpHeaders();
-		requestHeaders.set("Content-Type", "application/tar");
-		HttpEntity<byte[]> requestEntity;
-		try {
-			FileInputStream openInputStream = FileUtils.openInputStream(dockerFolderTar);
-			byte[] byteArray = IOUtils.toByteArray(openInputStream);
-			requestEntity = new HttpEntity<byte[]>(byteArray, requestHeaders);
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
-		}
+	/**
+	 * @param buildContextCache reused by {@link #build(File, String)} for files that didn't
+	 *        change since a previous build, {@code null} to archive every file anew.
+	 */
+	public void setBuildContextCache(BuildContextCache buildContextCache) {
+		this.buildContextCache = buildContextCache;
+	}
 
-        final ResponseEntity<String> response = restTemplate.exchange(dockerDeamonUrl + "/build?t={tag}", HttpMethod.POST, requestEntity, String.class,
-        		tag);
+	public BuildResultCache getBuildResultCache() {
+		return buildResultCache;
+	}
 
-        return new ByteArrayInputStream(response.getBody().getBytes());
-    }
+	/**
+	 * @param buildResultCache records the image built from each context, so
+	 *        {@link #build(File, String, BuildListener)} can skip unchanged contexts. {@code null}
+	 *        to always build.
+	 */
+	public void setBuildResultCache(BuildResultCache buildResultCache) {
+		this.buildResultCache = buildResultCache;
+	}
 
-	public RestTemplate getRestTemplate() {
-		return restTemplate;
+	public BuildWorkspace getBuildWorkspace() {
+		return buildWorkspace;
+	}
+
+	/**
+	 * @param buildWorkspace stages build contexts as complete archives before they are uploaded,
+	 *        {@code null} to stream them in chunks while they are archived. Not closed by this
+	 *        client.
+	 */
+	public void setBuildWorkspace(BuildWorkspace buildWorkspace) {
+		this.buildWorkspace = buildWorkspace;
+	}
+
+	public int getBuildContextCompressionLevel() {
+		return buildContextCompressionLevel;
+	}
+
+	/**
+	 * @param buildContextCompressionLevel to gzip streamed build contexts with, from 1 to 9, or 0 to
+	 *        upload them uncompressed. Blocks are compressed on the
+	 *        {@link #setArchiveExecutor(ExecutorService) archive executor} if there is one. Contexts
+	 *        staged in a {@link #setBuildWorkspace(BuildWorkspace) workspace} are not compressed.
+	 */
+	public void setBuildContextCompressionLevel(int buildContextCompressionLevel) {
+		Preconditions.checkArgument(buildContextCompressionLevel >= 0 && buildContextCompressionLevel <= 9,
+				"Compression level out of range: %s", buildContextCompressionLevel);
+		this.buildContextCompressionLevel = buildContextCompressionLevel;
+	}
+
+	public boolean isBaseImagePrefetch() {
+		return baseImagePrefetch;
+	}
+
+	/**
+	 * @param baseImagePrefetch whether builds pull missing {@code FROM} images while the context is
+	 *        uploaded, instead of leaving them to the daemon after the upload.
+	 */
+	public void setBaseImagePrefetch(boolean baseImagePrefetch) {
+		this.baseImagePrefetch = baseImagePrefetch;
+	}
+
+	public int getMaxConcurrentPulls() {
+		return maxConcurrentPulls;
+	}
+
+	/**
+	 * @param maxConcurrentPulls images pulled at the same time by {@link #pullAll(Collection)}.
+	 */
+	public void setMaxConcurrentPulls(int maxConcurrentPulls) {
+		Preconditions.checkArgument(maxConcurrentPulls > 0, "Max concurrent pulls must be positive: %s", maxConcurrentPulls);
+		this.maxConcurrentPulls = maxConcurrentPulls;
+	}
+
+	public int getMaxConcurrentRemovals() {
+		return maxConcurrentRemovals;
+	}
+
+	/**
+	 * @param maxConcurrentRemovals images removed at the same time by {@link #removeImages(Collection)}.
+	 */
+	public void setMaxConcurrentRemovals(int maxConcurrentRemovals) {
+		Preconditions.checkArgument(maxConcurrentRemovals > 0, "Max concurrent removals must be positive: %s",
+				maxConcurrentRemovals);
+		this.maxConcurrentRemovals = maxConcurrentRemovals;
+	}
+
+	public ImageInspectCache getImageInspectCache() {
+		return imageInspectCache;
+	}
+
+	/**
+	 * @param imageInspectCache answers {@link #inspectImage(String)} for images inspected before,
+	 *        {@code null} to always ask the daemon.
+	 */
+	public void setImageInspectCache(ImageInspectCache imageInspectCache) {
+		this.imageInspectCache = imageInspectCache;
+	}
+
+	public ImageSearchCache getImageSearchCache() {
+		return imageSearchCache;
+	}
+
+	/**
+	 * @param imageSearchCache answers {@link #search(String)} for terms searched recently,
+	 *        {@code null} to always ask the index.
+	 */
+	public void setImageSearchCache(ImageSearchCache imageSearchCache) {
+		this.imageSearchCache = imageSearchCache;
+	}
+
+	public ImageGarbageCollector getImageGarbageCollector() {
+		return imageGarbageCollector;
+	}
+
+	/**
+	 * @param imageGarbageCollector told about the image of every container created, {@code null}
+	 *        for none.
+	 */
+	public void setImageGarbageCollector(ImageGarbageCollector imageGarbageCollector) {
+		this.imageGarbageCollector = imageGarbageCollector;
+	}
+
+	public ExecutorService getArchiveExecutor() {
+		return archiveExecutor;
+	}
+
+	/**
+	 * @param archiveExecutor reads and encodes the files of uncached build contexts in parallel
+	 *        and compresses them, {@code null} to do both on the uploading thread. Not shut down by
+	 *        this client.
+	 */
+	public void setArchiveExecutor(ExecutorService archiveExecutor) {
+		this.archiveExecutor = archiveExecutor;
+	}
+
+	/**
+	 * Closes all pooled connections to the Docker daemon, unless the transport was passed in by
+	 * the caller.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (prefetchExecutor != null) {
+				prefetchExecutor.shutdownNow();
+			}
+		}
+		if (ownsTransport) {
+			transport.shutdown();
+		}
 	}
 
 }
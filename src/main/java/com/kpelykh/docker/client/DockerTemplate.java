@@ -3,10 +3,8 @@ package com.kpelykh.docker.client;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Map;
 
-import org.apache.commons.io.IOUtils;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -14,6 +12,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.client.HttpClientErrorException;
 
+import com.kpelykh.docker.client.build.BuildEvent;
+import com.kpelykh.docker.client.build.BuildListener;
+import com.kpelykh.docker.client.container.ContainerRegistry;
 import com.kpelykh.docker.client.model.ContainerConfig;
 import com.kpelykh.docker.client.model.ContainerCreateResponse;
 import com.kpelykh.docker.client.model.ContainerInspectResponse;
@@ -26,28 +27,51 @@ public class DockerTemplate implements DockerOperations {
 
 	private DockerClient dockerClient;
 
+	private volatile ContainerRegistry containerRegistry;
+
 	public DockerTemplate(DockerClient dockerClient) {
 		this.dockerClient = dockerClient;
 	}
 
+	public ContainerRegistry getContainerRegistry() {
+		return containerRegistry;
+	}
+
+	/**
+	 * @param containerRegistry answers {@link #isRunning(String)} and
+	 *        {@link #containerExists(String)} for the containers it knows without asking the
+	 *        daemon while it is in sync, {@code null} to always ask. Containers created and
+	 *        started by this template are recorded in it. Neither started nor closed by this
+	 *        template.
+	 */
+	public void setContainerRegistry(ContainerRegistry containerRegistry) {
+		this.containerRegistry = containerRegistry;
+	}
+
 	@Override
 	public String build(String tag, String dockerFolderName) {
 		LOG.info("Building new image '{}' from direcotry '{}'", tag, dockerFolderName);
 		File dockerFolder = new File(dockerFolderName);
+		final StringBuilder buildLog = new StringBuilder();
 		try {
-			InputStream buildOutput = this.dockerClient.build(dockerFolder, tag);
-			try {
-				String buildLog = IOUtils.toString(buildOutput);
-				LOG.info("New image '{}' successfully build from direcotry '{}'", tag, dockerFolderName);
-				LOG.info("Build Log:\n" + buildLog);
-				return buildLog;
-			} catch (IOException e) {
-				LOG.error("Failed to capture the build log.", e);
-			}
+			String imageId = this.dockerClient.build(dockerFolder, tag, new BuildListener() {
+				@Override
+				public void onEvent(BuildEvent event) {
+					// logged as it happens instead of in one block at the end
+					if (event.getType() == BuildEvent.Type.ERROR) {
+						LOG.error("Build: {}", event.getMessage());
+					} else {
+						LOG.info("Build: {}", event.getMessage());
+					}
+					buildLog.append(event.getMessage()).append('\n');
+				}
+			});
+			LOG.info("New image '{}' ({}) successfully build from direcotry '{}'", new Object[] { tag, imageId,
+					dockerFolderName });
+			return buildLog.toString();
 		} catch (DockerException e) {
 			throw new RuntimeException("Failed to build new image.", e);
 		}
-		return "Failed to capture the build log. Please consult the logfiles for more information.";
 	}
 
 	@Override
@@ -68,6 +92,10 @@ public class DockerTemplate implements DockerOperations {
 		try {
 			ContainerCreateResponse response = dockerClient.createContainer(containerConfig, containerName);
 			LOG.info("Create container finished with: {}", response);
+			ContainerRegistry registry = containerRegistry;
+			if (registry != null) {
+				registry.created(response.getId(), containerName, imageTag);
+			}
 			return response.getId();
 		} catch (DockerException e) {
 			throw new RuntimeException("Failed to run new container.", e);
@@ -97,8 +125,13 @@ public class DockerTemplate implements DockerOperations {
 				e1.printStackTrace();
 			}
 
+			ContainerRegistry registry = containerRegistry;
+			ContainerRegistry.Entry before = registry != null ? registry.get(containerId) : null;
 			dockerClient.startContainer(containerId, hostConfig);
 			LOG.info("Container start successfully triggered.");
+			if (before != null) {
+				registry.started(before);
+			}
 		} catch (DockerException e) {
 			throw new RuntimeException("Failed to start container '" + containerId + "'.", e);
 		}
@@ -106,6 +139,11 @@ public class DockerTemplate implements DockerOperations {
 
 	@Override
 	public boolean containerExists(String containerName) {
+		ContainerRegistry registry = containerRegistry;
+		if (registry != null && registry.isInSync() && registry.containerExists(containerName)) {
+			return true;
+		}
+		// not seen by the registry yet, e.g. created by another client a moment ago
 		try {
 			dockerClient.inspectContainer(containerName);
 			return true;
@@ -118,6 +156,13 @@ public class DockerTemplate implements DockerOperations {
 
 	@Override
 	public boolean isRunning(String containerName) {
+		ContainerRegistry registry = containerRegistry;
+		if (registry != null && registry.isInSync()) {
+			ContainerRegistry.Entry container = registry.get(containerName);
+			if (container != null) {
+				return container.isRunning();
+			}
+		}
 		ContainerInspectResponse response;
 		try {
 			response = dockerClient.inspectContainer(containerName);
@@ -0,0 +1,197 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+
+/**
+ * Pulls the {@code FROM} images of a build which are missing on the daemon while the build
+ * context is prepared and uploaded, instead of leaving it to the daemon after the upload.
+ * <p>
+ * The daemon starts building as soon as it received the whole context, so the
+ * {@link #awaitBeforeLastByte(HttpEntity) upload} holds back its last byte until the prefetch is
+ * done. A failed prefetch is only logged; the daemon then pulls or reports the image itself.
+ */
+public class BaseImagePrefetch {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BaseImagePrefetch.class);
+
+	/** Not an image, builds from nothing. */
+	private static final String SCRATCH = "scratch";
+
+	private final Future<List<String>> pulled;
+
+	private BaseImagePrefetch(Future<List<String>> pulled) {
+		this.pulled = pulled;
+	}
+
+	/**
+	 * Starts checking and pulling the base images of the Dockerfile in the folder.
+	 */
+	public static BaseImagePrefetch start(final DockerClient dockerClient, File dockerFolder, ExecutorService executor)
+			throws IOException {
+		final List<String> images = getBaseImages(Dockerfile.parse(new File(dockerFolder, BuildContextPlanner.DOCKERFILE)));
+		return new BaseImagePrefetch(executor.submit(new Callable<List<String>>() {
+			@Override
+			public List<String> call() {
+				List<String> pulled = new ArrayList<String>();
+				for (String image : images) {
+					try {
+						if (!exists(dockerClient, image)) {
+							long start = System.currentTimeMillis();
+							int colon = image.lastIndexOf(':');
+							if (colon > image.lastIndexOf('/')) {
+								dockerClient.pull(image.substring(0, colon), image.substring(colon + 1));
+							} else {
+								dockerClient.pull(image);
+							}
+							LOGGER.info("Prefetched base image {} in {} ms", image, System.currentTimeMillis() - start);
+							pulled.add(image);
+						}
+					} catch (Exception e) {
+						LOGGER.warn("Failed to prefetch base image " + image + ", leaving it to the daemon", e);
+					}
+				}
+				return pulled;
+			}
+		}));
+	}
+
+	static List<String> getBaseImages(Dockerfile dockerfile) {
+		List<String> images = new ArrayList<String>();
+		Set<String> stages = new HashSet<String>();
+		for (Dockerfile.Instruction from : dockerfile.getInstructions("FROM")) {
+			// options like --platform=linux/amd64 are not among the arguments
+			List<String> arguments = from.getArguments();
+			if (arguments.isEmpty()) {
+				continue;
+			}
+			String image = arguments.get(0);
+			// earlier stages of a multi-stage build aren't pulled
+			if (!SCRATCH.equals(image) && !stages.contains(image.toLowerCase(Locale.ENGLISH)) && !images.contains(image)) {
+				images.add(image);
+			}
+			if (arguments.size() > 2 && "AS".equalsIgnoreCase(arguments.get(1))) {
+				stages.add(arguments.get(2).toLowerCase(Locale.ENGLISH));
+			}
+		}
+		return images;
+	}
+
+	private static boolean exists(DockerClient dockerClient, String image) throws DockerException {
+		try {
+			dockerClient.inspectImage(image, false);
+			return true;
+		} catch (HttpClientErrorException e) {
+			if (e.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until the base images are present or failed to pull.
+	 *
+	 * @return the images which were pulled.
+	 */
+	public List<String> await() throws InterruptedIOException {
+		try {
+			return pulled.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while pulling base images");
+		} catch (ExecutionException e) {
+			// the task catches everything, so this is a bug
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Cancels the prefetch if it is still running.
+	 */
+	public void cancel() {
+		pulled.cancel(true);
+	}
+
+	/**
+	 * @return a request body which writes the entity, but doesn't write its last byte before the
+	 *         prefetch is done.
+	 */
+	public HttpEntity awaitBeforeLastByte(HttpEntity entity) {
+		return new HttpEntityWrapper(entity) {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				HoldLastByteOutputStream held = new HoldLastByteOutputStream(out);
+				wrappedEntity.writeTo(held);
+				await();
+				held.release();
+			}
+		};
+	}
+
+	private static class HoldLastByteOutputStream extends FilterOutputStream {
+
+		private int last = -1;
+
+		HoldLastByteOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (last != -1) {
+				out.write(last);
+			}
+			last = b & 0xff;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			if (last != -1) {
+				out.write(last);
+			}
+			out.write(b, off, len - 1);
+			last = b[off + len - 1] & 0xff;
+		}
+
+		@Override
+		public void close() throws IOException {
+			// the request body is closed by HttpClient
+			flush();
+		}
+
+		void release() throws IOException {
+			if (last != -1) {
+				out.write(last);
+				last = -1;
+			}
+			out.flush();
+		}
+	}
+
+}
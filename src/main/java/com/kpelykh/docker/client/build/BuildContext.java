@@ -0,0 +1,89 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The files sent to the daemon as build context, keyed by their path inside the context.
+ * <p>
+ * Only references to the source files are kept; their content is read when the context is
+ * archived. Entries are ordered by path, so the same sources always give the same archive.
+ */
+public class BuildContext {
+
+	private final SortedMap<String, File> entries = new TreeMap<String, File>();
+
+	/**
+	 * Adds a file, replacing any file previously added under the same name.
+	 */
+	public void addFile(String name, File source) {
+		Preconditions.checkArgument(source.isFile(), "%s is not a file", source);
+		entries.put(normalize(name), source);
+	}
+
+	/**
+	 * Adds all files below the directory, named relative to it and prefixed by {@code prefix}.
+	 */
+	public void addDirectory(String prefix, File directory) {
+		Preconditions.checkArgument(directory.isDirectory(), "%s is not a directory", directory);
+		String normalizedPrefix = normalize(prefix);
+		addChildren(normalizedPrefix.length() == 0 ? "" : normalizedPrefix + "/", directory);
+	}
+
+	private void addChildren(String prefix, File directory) {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				addChildren(prefix + child.getName() + "/", child);
+			} else if (child.isFile()) {
+				entries.put(prefix + child.getName(), child);
+			}
+		}
+	}
+
+	public SortedMap<String, File> getEntries() {
+		return Collections.unmodifiableSortedMap(entries);
+	}
+
+	public boolean contains(String name) {
+		return entries.containsKey(normalize(name));
+	}
+
+	/**
+	 * @return the total size of all files in bytes, without archive overhead.
+	 */
+	public long getContentLength() {
+		long length = 0;
+		for (File file : entries.values()) {
+			length += file.length();
+		}
+		return length;
+	}
+
+	static String normalize(String name) {
+		String normalized = name.replace('\\', '/');
+		while (normalized.startsWith("./")) {
+			normalized = normalized.substring(2);
+		}
+		while (normalized.startsWith("/")) {
+			normalized = normalized.substring(1);
+		}
+		while (normalized.endsWith("/")) {
+			normalized = normalized.substring(0, normalized.length() - 1);
+		}
+		return normalized.equals(".") ? "" : normalized;
+	}
+
+	@Override
+	public String toString() {
+		return "BuildContext{" + "entries=" + entries.size() + ", contentLength=" + getContentLength() + '}';
+	}
+
+}
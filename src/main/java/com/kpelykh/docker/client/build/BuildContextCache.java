@@ -0,0 +1,410 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.utils.CompressArchiveUtil;
+
+/**
+ * Persistent cache of tar-encoded build context entries, shared by all builds using the same
+ * directory.
+ * <p>
+ * Files are identified by path, size and modification time, which map to the SHA-1 of their
+ * content in an index. Entries whose file and name did not change are reused as encoded, so
+ * preparing a context only reads and encodes the files changed since the last build.
+ * <p>
+ * On {@link #save()} the hashes of files which no longer exist are dropped, and once the entries
+ * take more than the configured size the least recently used ones are deleted.
+ */
+public class BuildContextCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BuildContextCache.class);
+
+	private static final String INDEX_FILE = "index.properties";
+
+	private static final String BLOCKS_DIRECTORY = "entries";
+
+	/**
+	 * A file modified this close to the time it was hashed may change again without its size or
+	 * mtime changing, so its hash is not trusted.
+	 */
+	private static final long RACY_WINDOW_MILLIS = 2000;
+
+	/** Entries used this recently may still be read by a build, so they are not evicted. */
+	private static final long IN_USE_MILLIS = 10 * 60 * 1000;
+
+	public static final long DEFAULT_MAX_BLOCKS_BYTES = 1024L * 1024 * 1024;
+
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File directory;
+
+	private final File blocksDirectory;
+
+	private final long maxBlocksBytes;
+
+	private final Properties index = new Properties();
+
+	private boolean dirty;
+
+	private final AtomicLong blocksBytes = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong hashedBytes = new AtomicLong();
+
+	public BuildContextCache(File directory) throws IOException {
+		this(directory, DEFAULT_MAX_BLOCKS_BYTES);
+	}
+
+	/**
+	 * @param maxBlocksBytes the size the encoded entries are trimmed to on {@link #save()}.
+	 */
+	public BuildContextCache(File directory, long maxBlocksBytes) throws IOException {
+		Preconditions.checkNotNull(directory, "Cache directory can't be null");
+		Preconditions.checkArgument(maxBlocksBytes >= 0, "Maximum size can't be negative: %s", maxBlocksBytes);
+		this.directory = directory;
+		this.maxBlocksBytes = maxBlocksBytes;
+		this.blocksDirectory = new File(directory, BLOCKS_DIRECTORY);
+		FileUtils.forceMkdir(blocksDirectory);
+		for (File blocks : listBlocks()) {
+			blocksBytes.addAndGet(blocks.length());
+		}
+		File indexFile = new File(directory, INDEX_FILE);
+		if (indexFile.isFile()) {
+			InputStream in = new FileInputStream(indexFile);
+			try {
+				index.load(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the SHA-1 of the file's content, read from the index if the file didn't change.
+	 */
+	public String getContentHash(File source) throws IOException {
+		return getContentHash(source, source.length(), source.lastModified());
+	}
+
+	/**
+	 * @param length and {@code lastModified} as seen before hashing, so a file changed while
+	 *        being hashed is hashed again next time.
+	 */
+	private String getContentHash(File source, long length, long lastModified) throws IOException {
+		String hash = getIndexedHash(source, length, lastModified);
+		if (hash == null) {
+			long hashedAt = System.currentTimeMillis();
+			hash = hash(source);
+			putIndexedHash(source, length, lastModified, hashedAt, hash);
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the hash in the index, {@code null} if there is none for this size and mtime or it
+	 *         was taken too close to the mtime to be trusted.
+	 */
+	private String getIndexedHash(File source, long length, long lastModified) {
+		synchronized (index) {
+			String cached = index.getProperty(source.getAbsolutePath());
+			if (cached != null) {
+				String[] fields = cached.split(",");
+				if (fields.length == 4 && Long.parseLong(fields[0]) == length
+						&& Long.parseLong(fields[1]) == lastModified
+						&& Long.parseLong(fields[2]) - lastModified > RACY_WINDOW_MILLIS) {
+					return fields[3];
+				}
+			}
+			return null;
+		}
+	}
+
+	private void putIndexedHash(File source, long length, long lastModified, long hashedAt, String hash) {
+		synchronized (index) {
+			index.setProperty(source.getAbsolutePath(), length + "," + lastModified + "," + hashedAt + "," + hash);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return a file holding the encoded tar entry for the source, see
+	 *         {@link CompressArchiveUtil#writeTarEntry(String, File, OutputStream)}.
+	 */
+	public File getEntryBlocks(String name, File source) throws IOException {
+		long length = source.length();
+		long lastModified = source.lastModified();
+		String contentHash = getIndexedHash(source, length, lastModified);
+		if (contentHash != null) {
+			File blocks = getBlocksFile(name, length, lastModified, contentHash);
+			if (blocks.isFile()) {
+				hits.incrementAndGet();
+				// least recently used entries are evicted first
+				blocks.setLastModified(System.currentTimeMillis());
+				return blocks;
+			}
+		}
+
+		misses.incrementAndGet();
+		// hashed from the bytes encoded, so the entry is stored under the content it holds
+		long hashedAt = System.currentTimeMillis();
+		MessageDigest digest = newDigest();
+		File tmp = File.createTempFile("entry", ".tmp", blocksDirectory);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				CompressArchiveUtil.writeTarEntry(name, source, length, lastModified, out, digest);
+			} finally {
+				out.close();
+			}
+			hashedBytes.addAndGet(length);
+			contentHash = toHex(digest.digest());
+			File blocks = getBlocksFile(name, length, lastModified, contentHash);
+			if (tmp.renameTo(blocks)) {
+				blocksBytes.addAndGet(blocks.length());
+			} else if (!blocks.isFile()) {
+				throw new IOException("Failed to store " + blocks);
+			}
+			if (source.length() == length && source.lastModified() == lastModified) {
+				putIndexedHash(source, length, lastModified, hashedAt, contentHash);
+			} else {
+				// changed while being read, the content may be mixed up
+				LOGGER.debug("{} changed while archiving it", source);
+			}
+			return blocks;
+		} finally {
+			// left over if a concurrent build stored the same entry first
+			FileUtils.deleteQuietly(tmp);
+		}
+	}
+
+	/**
+	 * The header holds name, size and mtime, so all of them select the encoded entry.
+	 */
+	private File getBlocksFile(String name, long length, long lastModified, String contentHash) throws IOException {
+		String key = hash(name + '\0' + length + '\0' + lastModified + '\0' + contentHash);
+		return new File(blocksDirectory, key + ".tar");
+	}
+
+	/**
+	 * @return a digest over the names and content hashes of all entries of the context.
+	 */
+	public String getDigest(BuildContext context) throws IOException {
+		MessageDigest digest = newDigest();
+		for (Map.Entry<String, File> entry : context.getEntries().entrySet()) {
+			digest.update(entry.getKey().getBytes("UTF-8"));
+			digest.update((byte) 0);
+			digest.update(getContentHash(entry.getValue()).getBytes("UTF-8"));
+			digest.update((byte) '\n');
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Drops the hashes of deleted files, evicts entries over the maximum size and writes the index
+	 * if it changed. Called after every archived context.
+	 */
+	public void save() throws IOException {
+		synchronized (index) {
+			for (Iterator<Object> keys = index.keySet().iterator(); keys.hasNext();) {
+				if (!new File((String) keys.next()).isFile()) {
+					keys.remove();
+					dirty = true;
+				}
+			}
+			if (blocksBytes.get() > maxBlocksBytes) {
+				evict();
+			}
+			if (!dirty) {
+				return;
+			}
+			File tmp = File.createTempFile(INDEX_FILE, ".tmp", directory);
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				index.store(out, "Content hashes of build context files: size,mtime,hashed at,sha1");
+			} finally {
+				out.close();
+			}
+			File indexFile = new File(directory, INDEX_FILE);
+			if (!tmp.renameTo(indexFile)) {
+				// renaming over an existing file fails on some platforms
+				FileUtils.deleteQuietly(indexFile);
+				if (!tmp.renameTo(indexFile)) {
+					FileUtils.deleteQuietly(tmp);
+					throw new IOException("Failed to write " + indexFile);
+				}
+			}
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Removes all cached entries and hashes.
+	 */
+	public void clear() throws IOException {
+		synchronized (index) {
+			index.clear();
+			dirty = true;
+			FileUtils.cleanDirectory(blocksDirectory);
+			blocksBytes.set(0);
+			save();
+		}
+	}
+
+	/**
+	 * @return the number of files with a content hash in the index.
+	 */
+	public int getIndexSize() {
+		synchronized (index) {
+			return index.size();
+		}
+	}
+
+	/**
+	 * @return the size of all encoded entries, as far as this cache knows.
+	 */
+	public long getBlocksBytes() {
+		return blocksBytes.get();
+	}
+
+	/**
+	 * @return the number of entries reused since this cache was created.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of entries encoded since this cache was created.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of file bytes read for hashing since this cache was created.
+	 */
+	public long getHashedBytes() {
+		return hashedBytes.get();
+	}
+
+	/**
+	 * Deletes the least recently used entries until the rest fit, but none used recently.
+	 */
+	private void evict() {
+		List<File> blocks = listBlocks();
+		final long[] lastModified = new long[blocks.size()];
+		long total = 0;
+		for (int i = 0; i < lastModified.length; i++) {
+			File file = blocks.get(i);
+			total += file.length();
+			lastModified[i] = file.lastModified();
+		}
+		Integer[] order = new Integer[lastModified.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// mtimes read once, touching entries while sorting must not break the order
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				long x = lastModified[a];
+				long y = lastModified[b];
+				return x < y ? -1 : x == y ? 0 : 1;
+			}
+		});
+		long inUseSince = System.currentTimeMillis() - IN_USE_MILLIS;
+		int evicted = 0;
+		for (int i = 0; i < order.length && total > maxBlocksBytes && lastModified[order[i]] < inUseSince; i++) {
+			File file = blocks.get(order[i]);
+			long length = file.length();
+			if (file.delete()) {
+				total -= length;
+				evicted++;
+			}
+		}
+		blocksBytes.set(total);
+		LOGGER.debug("Evicted {} cached entries, {} bytes left", evicted, total);
+	}
+
+	private List<File> listBlocks() {
+		List<File> blocks = new ArrayList<File>();
+		File[] files = blocksDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(".tar")) {
+					blocks.add(file);
+				}
+			}
+		}
+		return blocks;
+	}
+
+	private String hash(File source) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buf = new byte[HASH_BUFFER_SIZE];
+		InputStream in = new FileInputStream(source);
+		try {
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				digest.update(buf, 0, len);
+				hashedBytes.addAndGet(len);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		LOGGER.trace("Hashed {}", source);
+		return toHex(digest.digest());
+	}
+
+	private static String hash(String value) throws IOException {
+		return toHex(newDigest().digest(value.getBytes("UTF-8")));
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.utils.CompressArchiveUtil;
+import com.kpelykh.docker.client.utils.FlushShieldOutputStream;
+import com.kpelykh.docker.client.utils.ParallelGzipOutputStream;
+
+/**
+ * Request body which tars the build context straight from its source files into the chunked
+ * request, without a temporary archive. The archive may be gzip compressed on the way, which
+ * pays off when the upload is slower than compressing on all cores.
+ */
+public class BuildContextEntity extends AbstractHttpEntity {
+
+	public static final String CONTENT_TYPE = "application/tar";
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final BuildContext context;
+
+	private final BuildContextCache cache;
+
+	private final ExecutorService executor;
+
+	private final int compressionLevel;
+
+	public BuildContextEntity(BuildContext context) {
+		this(context, null, null);
+	}
+
+	public BuildContextEntity(BuildContext context, BuildContextCache cache, ExecutorService executor) {
+		this(context, cache, executor, 0);
+	}
+
+	/**
+	 * @param cache to reuse encoded entries from, may be {@code null}.
+	 * @param executor to read and encode files not taken from the cache and to compress the
+	 *        archive in parallel, may be {@code null} to do both on the writing thread.
+	 * @param compressionLevel of the gzip compressed archive, from 1 to 9, or 0 to send it
+	 *        uncompressed.
+	 */
+	public BuildContextEntity(BuildContext context, BuildContextCache cache, ExecutorService executor,
+			int compressionLevel) {
+		Preconditions.checkArgument(compressionLevel >= 0 && compressionLevel <= Deflater.BEST_COMPRESSION,
+				"Compression level out of range: %s", compressionLevel);
+		this.context = context;
+		this.cache = cache;
+		this.executor = executor;
+		this.compressionLevel = compressionLevel;
+		setContentType(CONTENT_TYPE);
+		setChunked(true);
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	/**
+	 * @return the archive, written into a pipe by a new thread. Prefer {@link #writeTo}, which
+	 *         needs neither. A failure to archive is thrown at the end of the stream.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		final PipedInputStream in = new PipedInputStream(CHUNK_SIZE);
+		final PipedOutputStream pipe = new PipedOutputStream(in);
+		final IOException[] failure = new IOException[1];
+		Thread writer = new Thread("docker-build-context") {
+			@Override
+			public void run() {
+				try {
+					writeTo(pipe);
+				} catch (IOException e) {
+					synchronized (failure) {
+						failure[0] = e;
+					}
+				} catch (RuntimeException e) {
+					synchronized (failure) {
+						failure[0] = new IOException("Failed to archive build context", e);
+					}
+				} finally {
+					try {
+						pipe.close();
+					} catch (IOException e) {
+						// the reader went away
+					}
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+		return new FilterInputStream(in) {
+
+			@Override
+			public int read() throws IOException {
+				return checkFailure(super.read());
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return checkFailure(super.read(b, off, len));
+			}
+
+			private int checkFailure(int read) throws IOException {
+				if (read == -1) {
+					synchronized (failure) {
+						if (failure[0] != null) {
+							throw failure[0];
+						}
+					}
+				}
+				return read;
+			}
+		};
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		if (compressionLevel > 0) {
+			// the daemon detects the compression from the content
+			ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out, executor, compressionLevel);
+			// each flush would end a gzip member, only finish() ends the last one
+			archive(new FlushShieldOutputStream(gzip));
+			gzip.finish();
+			return;
+		}
+		// entries are written record by record, which HttpClient would otherwise send as many
+		// small chunks, so flushes are ignored and the buffer is flushed once at the end
+		OutputStream buffered = new BufferedOutputStream(out, CHUNK_SIZE);
+		archive(new FlushShieldOutputStream(buffered));
+		buffered.flush();
+	}
+
+	private void archive(OutputStream out) throws IOException {
+		if (cache != null) {
+			CompressArchiveUtil.archiveTAR(context, cache, out);
+		} else if (executor != null) {
+			CompressArchiveUtil.archiveTAR(context, out, executor);
+		} else {
+			CompressArchiveUtil.archiveTAR(context, out);
+		}
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerException;
+
+/**
+ * Plans the build context of a folder with a {@code Dockerfile}: the Dockerfile itself and the
+ * sources of its {@code ADD} and {@code COPY} instructions, minus everything excluded by
+ * {@code .dockerignore}.
+ * <p>
+ * Sources are paths relative to the Docker folder and may contain wildcards. They keep their
+ * path in the context, so only the referenced files are uploaded. Excluded directories are not
+ * walked unless an exception pattern may include something below them.
+ */
+public class BuildContextPlanner {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BuildContextPlanner.class);
+
+	public static final String DOCKERFILE = "Dockerfile";
+
+	private static final String ADD = "ADD";
+
+	private static final String COPY = "COPY";
+
+	private static final String WILDCARDS = "*?[";
+
+	private final File dockerFolder;
+
+	private final DockerIgnore ignore;
+
+	private final List<File> excludedFiles = new ArrayList<File>();
+
+	private final List<File> prunedDirectories = new ArrayList<File>();
+
+	public BuildContextPlanner(File dockerFolder) throws IOException {
+		this(dockerFolder, DockerIgnore.load(dockerFolder));
+	}
+
+	public BuildContextPlanner(File dockerFolder, DockerIgnore ignore) {
+		Preconditions.checkNotNull(dockerFolder, "Folder is null");
+		Preconditions.checkNotNull(ignore, "Ignore patterns can't be null");
+		this.dockerFolder = dockerFolder;
+		this.ignore = ignore;
+	}
+
+	public BuildContext plan() throws IOException, DockerException {
+		excludedFiles.clear();
+		prunedDirectories.clear();
+
+		File dockerFile = new File(dockerFolder, DOCKERFILE);
+		Dockerfile dockerfile = Dockerfile.parse(dockerFile);
+		if (dockerfile.getInstructions().isEmpty()) {
+			throw new DockerException(String.format("Dockerfile %s is empty", dockerFile));
+		}
+
+		BuildContext context = new BuildContext();
+		// always sent, the daemon can't build without it
+		context.addFile(DOCKERFILE, dockerFile);
+
+		for (Dockerfile.Instruction instruction : dockerfile.getInstructions()) {
+			if (!ADD.equals(instruction.getKeyword()) && !COPY.equals(instruction.getKeyword())) {
+				continue;
+			}
+			if (instruction.getOption("from") != null) {
+				// copied from an earlier stage or another image, not from the context
+				continue;
+			}
+			// options like --chown=user are not among the arguments
+			List<String> arguments = instruction.getArguments();
+			if (arguments.size() < 2) {
+				throw new DockerException(String.format("Wrong format on line %d [%s]", instruction.getLine(), instruction));
+			}
+			for (String source : arguments.subList(0, arguments.size() - 1)) {
+				if (ADD.equals(instruction.getKeyword()) && source.contains("://")) {
+					// fetched by the daemon
+					continue;
+				}
+				addSource(context, source);
+			}
+		}
+		return context;
+	}
+
+	private void addSource(BuildContext context, String source) throws IOException, DockerException {
+		List<File> matches = resolve(source);
+		if (matches.isEmpty()) {
+			throw new DockerException(String.format("Source file %s doesnt' exist", new File(dockerFolder, source)));
+		}
+		for (File match : matches) {
+			String path = relativePath(match);
+			if (path == null) {
+				throw new DockerException(String.format("Source file %s is outside the build context %s", match,
+						dockerFolder));
+			}
+			if (match.isDirectory()) {
+				addDirectory(context, path.length() == 0 ? "" : path + "/", match, path, new HashSet<String>());
+			} else if (ignore.isExcluded(path)) {
+				throw new DockerException(String.format("Source file %s is excluded by %s", match, DockerIgnore.FILE_NAME));
+			} else {
+				context.addFile(path, match);
+			}
+		}
+	}
+
+	/**
+	 * Expands a source path relative to the Docker folder, which may contain wildcards in any
+	 * segment.
+	 */
+	private List<File> resolve(String source) throws IOException {
+		List<File> matches = Collections.singletonList(dockerFolder);
+		for (String segment : BuildContext.normalize(source).split("/")) {
+			if (segment.length() == 0 || segment.equals(".")) {
+				continue;
+			}
+			List<File> next = new ArrayList<File>();
+			if (StringUtils.containsAny(segment, WILDCARDS)) {
+				Pattern pattern = Pattern.compile(DockerIgnore.toRegex(segment));
+				for (File parent : matches) {
+					String[] children = parent.list();
+					if (children == null) {
+						continue;
+					}
+					Arrays.sort(children);
+					for (String child : children) {
+						if (pattern.matcher(child).matches()) {
+							next.add(new File(parent, child));
+						}
+					}
+				}
+			} else {
+				for (File parent : matches) {
+					File child = new File(parent, segment);
+					if (child.exists()) {
+						next.add(child);
+					}
+				}
+			}
+			matches = next;
+		}
+		List<File> canonical = new ArrayList<File>(matches.size());
+		for (File match : matches) {
+			canonical.add(match.getCanonicalFile());
+		}
+		return canonical;
+	}
+
+	/**
+	 * @param path of the directory relative to the Docker folder.
+	 * @param ancestors canonical paths of the directories being walked, so symbolic links to one
+	 *        of them aren't followed forever.
+	 */
+	private void addDirectory(BuildContext context, String prefix, File directory, String path, Set<String> ancestors)
+			throws IOException {
+		String canonical = directory.getCanonicalPath();
+		if (!ancestors.add(canonical)) {
+			LOGGER.warn("Not following {}, it links to a directory containing it", directory);
+			return;
+		}
+		try {
+			addChildren(context, prefix, directory, path, ancestors);
+		} finally {
+			ancestors.remove(canonical);
+		}
+	}
+
+	private void addChildren(BuildContext context, String prefix, File directory, String path, Set<String> ancestors)
+			throws IOException {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			String name = prefix + child.getName();
+			String childPath = path.length() == 0 ? child.getName() : path + "/" + child.getName();
+			boolean excluded = !ignore.isEmpty() && ignore.isExcluded(childPath);
+			if (child.isDirectory()) {
+				if (excluded && ignore.canPrune(childPath)) {
+					prunedDirectories.add(child);
+				} else {
+					addDirectory(context, name + "/", child, childPath, ancestors);
+				}
+			} else if (child.isFile()) {
+				if (excluded) {
+					excludedFiles.add(child);
+				} else {
+					context.addFile(name, child);
+				}
+			}
+		}
+	}
+
+	private String relativePath(File source) throws IOException {
+		String folder = dockerFolder.getCanonicalPath();
+		String path = source.getCanonicalPath();
+		if (path.equals(folder)) {
+			return "";
+		}
+		if (path.startsWith(folder + File.separator)) {
+			return path.substring(folder.length() + 1).replace(File.separatorChar, '/');
+		}
+		return null;
+	}
+
+	public DockerIgnore getIgnore() {
+		return ignore;
+	}
+
+	/**
+	 * @return files left out of the last planned context, not counting pruned directories.
+	 */
+	public List<File> getExcludedFiles() {
+		return Collections.unmodifiableList(excludedFiles);
+	}
+
+	/**
+	 * @return excluded directories of the last planned context which were not walked.
+	 */
+	public List<File> getPrunedDirectories() {
+		return Collections.unmodifiableList(prunedDirectories);
+	}
+
+	/**
+	 * Sums up the size of everything left out of the last planned context. Walks the pruned
+	 * directories, so only call it when the number is needed.
+	 */
+	public long getExcludedLength() {
+		long length = 0;
+		for (File file : excludedFiles) {
+			length += file.length();
+		}
+		for (File directory : prunedDirectories) {
+			length += FileUtils.sizeOfDirectory(directory);
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.kpelykh.docker.client.build;
+
+/**
+ * One line of build output, classified by what it reports.
+ */
+public class BuildEvent {
+
+	public enum Type {
+		/** A Dockerfile instruction started, e.g. {@code Step 2 : ADD . /src}. */
+		STEP,
+		/** Any other output line, including the output of {@code RUN} commands. */
+		STREAM,
+		/** The build finished and produced the image in {@link BuildEvent#getImageId()}. */
+		IMAGE_ID,
+		/** The build failed. */
+		ERROR
+	}
+
+	private final Type type;
+
+	private final String message;
+
+	private final int step;
+
+	private final String imageId;
+
+	public BuildEvent(Type type, String message, int step, String imageId) {
+		this.type = type;
+		this.message = message;
+		this.step = step;
+		this.imageId = imageId;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the output line without line terminator, or the error message.
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the 1-based step number of a {@link Type#STEP} event, -1 otherwise.
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * @return the id of the built image for {@link Type#IMAGE_ID} events, {@code null} otherwise.
+	 */
+	public String getImageId() {
+		return imageId;
+	}
+
+	@Override
+	public String toString() {
+		return type + ": " + message;
+	}
+
+}
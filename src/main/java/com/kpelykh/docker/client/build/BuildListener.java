@@ -0,0 +1,10 @@
+package com.kpelykh.docker.client.build;
+
+/**
+ * Receives build output as it arrives from the daemon.
+ */
+public interface BuildListener {
+
+	void onEvent(BuildEvent event);
+
+}
@@ -0,0 +1,207 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads the output of {@code /build} incrementally and turns it into {@link BuildEvent}s.
+ * <p>
+ * Understands the JSON messages of current daemons ({@code {"stream":...}},
+ * {@code {"error":...}}) as well as the plain text of older ones. Events are produced as soon as
+ * a line is complete, so long builds can be followed while they run.
+ */
+public class BuildOutputReader implements Closeable {
+
+	private static final Pattern STEP = Pattern.compile("^Step (\\d+)(?:/\\d+)?\\s*:.*");
+
+	private static final Pattern SUCCESS = Pattern.compile("^Successfully built (\\S+)\\s*$");
+
+	private static final int DETECT_LIMIT = 1024;
+
+	private static final JsonFactory JSON_FACTORY = new ObjectMapper().getJsonFactory();
+
+	private final BufferedInputStream in;
+
+	private final LinkedList<BuildEvent> pending = new LinkedList<BuildEvent>();
+
+	/** Part of a JSON stream message not yet terminated by a newline. */
+	private final StringBuilder partialLine = new StringBuilder();
+
+	private JsonParser json;
+
+	private BufferedReader text;
+
+	private boolean formatDetected;
+
+	private boolean eof;
+
+	private String imageId;
+
+	private String error;
+
+	public BuildOutputReader(InputStream in) {
+		Preconditions.checkNotNull(in, "Build output can't be null");
+		this.in = new BufferedInputStream(in);
+	}
+
+	/**
+	 * @return the next event, or {@code null} once the output ended.
+	 */
+	public BuildEvent next() throws IOException {
+		while (pending.isEmpty() && !eof) {
+			if (!formatDetected) {
+				detectFormat();
+			}
+			if (json != null) {
+				readJson();
+			} else {
+				readText();
+			}
+		}
+		return pending.poll();
+	}
+
+	/**
+	 * Reads the remaining output, passing every event to the listener.
+	 *
+	 * @param listener may be {@code null} to just wait for the build to finish.
+	 * @return the id of the built image, {@code null} if the build failed.
+	 */
+	public String readAll(BuildListener listener) throws IOException {
+		BuildEvent event;
+		while ((event = next()) != null) {
+			if (listener != null) {
+				listener.onEvent(event);
+			}
+		}
+		return imageId;
+	}
+
+	/**
+	 * @return the id reported by {@code Successfully built}, once read.
+	 */
+	public String getImageId() {
+		return imageId;
+	}
+
+	/**
+	 * @return the first error reported by the daemon, once read.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void detectFormat() throws IOException {
+		in.mark(DETECT_LIMIT);
+		int first;
+		int skipped = 0;
+		do {
+			first = in.read();
+		} while (first != -1 && Character.isWhitespace(first) && ++skipped < DETECT_LIMIT);
+		in.reset();
+		if (first == '{') {
+			json = JSON_FACTORY.createJsonParser(in);
+		} else {
+			text = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		}
+		formatDetected = true;
+	}
+
+	private void readJson() throws IOException {
+		JsonToken token = json.nextToken();
+		if (token == null) {
+			eof = true;
+			if (partialLine.length() > 0) {
+				addLine(partialLine.toString());
+				partialLine.setLength(0);
+			}
+			return;
+		}
+		if (token != JsonToken.START_OBJECT) {
+			throw new IOException("Unexpected build output " + token);
+		}
+		JsonNode message = json.readValueAsTree();
+		if (message.has("error")) {
+			JsonNode detail = message.path("errorDetail").path("message");
+			addError(detail.isTextual() ? detail.getTextValue() : message.get("error").asText());
+		} else if (message.has("stream")) {
+			appendStream(message.get("stream").asText());
+		} else if (message.has("status")) {
+			// base image pulls report their progress during FROM
+			String status = message.get("status").asText();
+			String progress = message.path("progress").asText();
+			addLine(progress.length() > 0 ? status + " " + progress : status);
+		}
+	}
+
+	private void appendStream(String stream) {
+		int start = 0;
+		int newline;
+		while ((newline = stream.indexOf('\n', start)) != -1) {
+			partialLine.append(stream, start, newline);
+			addLine(partialLine.toString());
+			partialLine.setLength(0);
+			start = newline + 1;
+		}
+		partialLine.append(stream, start, stream.length());
+	}
+
+	private void readText() throws IOException {
+		String line = text.readLine();
+		if (line == null) {
+			eof = true;
+			return;
+		}
+		addLine(line);
+	}
+
+	private void addLine(String line) {
+		String trimmed = line.trim();
+		Matcher success = SUCCESS.matcher(trimmed);
+		if (success.matches()) {
+			imageId = success.group(1);
+			pending.add(new BuildEvent(BuildEvent.Type.IMAGE_ID, line, -1, imageId));
+			return;
+		}
+		Matcher step = STEP.matcher(trimmed);
+		if (step.matches()) {
+			pending.add(new BuildEvent(BuildEvent.Type.STEP, line, Integer.parseInt(step.group(1)), null));
+			return;
+		}
+		if (json == null && (trimmed.startsWith("Error build:") || trimmed.startsWith("Error:"))) {
+			// older daemons report failures as plain text, newer ones in error messages, so a
+			// streamed line like this is just output of a RUN step
+			addError(trimmed);
+			return;
+		}
+		pending.add(new BuildEvent(BuildEvent.Type.STREAM, line, -1, null));
+	}
+
+	private void addError(String message) {
+		if (error == null) {
+			error = message;
+		}
+		pending.add(new BuildEvent(BuildEvent.Type.ERROR, message, -1, null));
+	}
+
+}
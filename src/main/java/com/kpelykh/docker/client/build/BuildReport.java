@@ -0,0 +1,198 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome and timing of every image built by a {@link BuildScheduler}.
+ */
+public class BuildReport {
+
+	public enum Status {
+		SUCCEEDED, FAILED,
+		/** Not built because an image it is based on failed. */
+		SKIPPED
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	private final long elapsedMillis;
+
+	BuildReport(List<Entry> entries, long elapsedMillis) {
+		for (Entry entry : entries) {
+			this.entries.put(entry.getTag(), entry);
+		}
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+	}
+
+	public Entry getEntry(String tag) {
+		return entries.get(tag);
+	}
+
+	public boolean isSuccessful() {
+		for (Entry entry : entries.values()) {
+			if (entry.getStatus() != Status.SUCCEEDED) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the wall clock time of the whole run.
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @return the build time of all images added up, i.e. the time a serial run would take.
+	 */
+	public long getTotalBuildMillis() {
+		long total = 0;
+		for (Entry entry : entries.values()) {
+			total += entry.getDurationMillis();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the chain of parent images ending with the build that finished last, each of which
+	 *         had to wait for the previous one. No amount of concurrency makes a run shorter.
+	 */
+	public List<Entry> getCriticalPath() {
+		Entry last = null;
+		for (Entry entry : entries.values()) {
+			if (entry.getStatus() != Status.SKIPPED && (last == null || entry.finishedMillis > last.finishedMillis)) {
+				last = entry;
+			}
+		}
+		LinkedList<Entry> path = new LinkedList<Entry>();
+		while (last != null) {
+			path.addFirst(last);
+			Entry parent = null;
+			for (String parentTag : last.getParents()) {
+				Entry candidate = entries.get(parentTag);
+				if (parent == null || candidate.finishedMillis > parent.finishedMillis) {
+					parent = candidate;
+				}
+			}
+			last = parent;
+		}
+		return path;
+	}
+
+	public long getCriticalPathMillis() {
+		long millis = 0;
+		for (Entry entry : getCriticalPath()) {
+			millis += entry.getDurationMillis();
+		}
+		return millis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%d images in %d ms, %d ms of builds, critical path %d ms:", entries.size(),
+				elapsedMillis, getTotalBuildMillis(), getCriticalPathMillis()));
+		for (Entry entry : getCriticalPath()) {
+			report.append(' ').append(entry.getTag());
+		}
+		for (Entry entry : entries.values()) {
+			report.append(String.format("%n  %-9s %6d ms (+%d ms) %s", entry.getStatus(), entry.getDurationMillis(),
+					entry.getStartedMillis(), entry.getTag()));
+		}
+		return report.toString();
+	}
+
+	public static class Entry {
+
+		private final String tag;
+
+		private final File dockerFolder;
+
+		private final List<String> parents;
+
+		Status status;
+
+		String imageId;
+
+		Throwable error;
+
+		long startedMillis;
+
+		long finishedMillis;
+
+		Entry(String tag, File dockerFolder, List<String> parents) {
+			this.tag = tag;
+			this.dockerFolder = dockerFolder;
+			this.parents = Collections.unmodifiableList(parents);
+		}
+
+		public String getTag() {
+			return tag;
+		}
+
+		public File getDockerFolder() {
+			return dockerFolder;
+		}
+
+		/**
+		 * @return the tags of the scheduled images this one is built {@code FROM}.
+		 */
+		public List<String> getParents() {
+			return parents;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return the id of the built image, {@code null} unless it succeeded.
+		 */
+		public String getImageId() {
+			return imageId;
+		}
+
+		/**
+		 * @return why the build failed, {@code null} unless it did.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		/**
+		 * @return when the build started, relative to the start of the run.
+		 */
+		public long getStartedMillis() {
+			return startedMillis;
+		}
+
+		/**
+		 * @return when the build finished, relative to the start of the run.
+		 */
+		public long getFinishedMillis() {
+			return finishedMillis;
+		}
+
+		public long getDurationMillis() {
+			return finishedMillis - startedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return tag + ":" + status;
+		}
+	}
+
+}
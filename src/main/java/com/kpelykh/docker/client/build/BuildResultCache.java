@@ -0,0 +1,140 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Persistent index of the images built from build contexts, so a context which is identical to
+ * one built before doesn't need to be uploaded and built again.
+ * <p>
+ * Contexts are identified by the digest of their entry names and contents, which includes the
+ * Dockerfile. The content hashes come from a {@link BuildContextCache}, so only files changed
+ * since they were last hashed are read. The index lives in the directory of that cache.
+ */
+public class BuildResultCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BuildResultCache.class);
+
+	private static final String INDEX_FILE = "results.properties";
+
+	private final BuildContextCache contextCache;
+
+	private final File indexFile;
+
+	private final Properties index = new Properties();
+
+	/**
+	 * Creates a context cache of its own in the directory. Don't use this if another
+	 * {@link BuildContextCache} uses the directory, e.g. the one archiving the contexts, since
+	 * both would overwrite each other's index: pass that one to
+	 * {@link #BuildResultCache(BuildContextCache)} instead.
+	 */
+	public BuildResultCache(File directory) throws IOException {
+		this(new BuildContextCache(directory));
+	}
+
+	/**
+	 * @param contextCache hashes the context files. Should be the one archiving them as well, if
+	 *        it uses the same directory.
+	 */
+	public BuildResultCache(BuildContextCache contextCache) throws IOException {
+		Preconditions.checkNotNull(contextCache, "Context cache can't be null");
+		this.contextCache = contextCache;
+		this.indexFile = new File(contextCache.getDirectory(), INDEX_FILE);
+		if (indexFile.isFile()) {
+			InputStream in = new FileInputStream(indexFile);
+			try {
+				index.load(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	public BuildContextCache getContextCache() {
+		return contextCache;
+	}
+
+	/**
+	 * @return the digest identifying the context in this cache.
+	 */
+	public String getDigest(BuildContext context) throws IOException {
+		String digest = contextCache.getDigest(context);
+		try {
+			contextCache.save();
+		} catch (IOException e) {
+			// the hashes are only kept to spare reading the files next time
+			LOGGER.warn("Failed to save build context cache in " + contextCache.getDirectory(), e);
+		}
+		return digest;
+	}
+
+	/**
+	 * @return the id of the image last built from the context with the digest, {@code null} if
+	 *         there is none. The image may have been removed since.
+	 */
+	public String getImageId(String digest) {
+		synchronized (index) {
+			return index.getProperty(digest);
+		}
+	}
+
+	public void put(String digest, String imageId) throws IOException {
+		Preconditions.checkNotNull(imageId, "Image ID can't be null");
+		synchronized (index) {
+			index.setProperty(digest, imageId);
+			save();
+		}
+	}
+
+	/**
+	 * Forgets the image of a context, e.g. because it doesn't exist anymore.
+	 */
+	public void remove(String digest) throws IOException {
+		synchronized (index) {
+			if (index.remove(digest) != null) {
+				save();
+			}
+		}
+	}
+
+	/**
+	 * Forgets all images. The content hashes of the context cache are kept.
+	 */
+	public void clear() throws IOException {
+		synchronized (index) {
+			index.clear();
+			save();
+		}
+	}
+
+	private void save() throws IOException {
+		File tmp = File.createTempFile(INDEX_FILE, ".tmp", indexFile.getParentFile());
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			index.store(out, "Images built from build contexts: context digest=image id");
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(indexFile)) {
+			// renaming over an existing file fails on some platforms
+			FileUtils.deleteQuietly(indexFile);
+			if (!tmp.renameTo(indexFile)) {
+				FileUtils.deleteQuietly(tmp);
+				throw new IOException("Failed to write " + indexFile);
+			}
+		}
+	}
+
+}
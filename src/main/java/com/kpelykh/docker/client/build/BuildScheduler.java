@@ -0,0 +1,233 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+
+/**
+ * Builds a set of related images concurrently, each as soon as the images it is built
+ * {@code FROM} are ready.
+ * <p>
+ * The {@code FROM} lines of all Dockerfiles form a dependency graph among the scheduled tags;
+ * base images which are not scheduled are left to the daemon. At most
+ * {@code maxConcurrentBuilds} builds run at a time. When a build fails, the images based on it
+ * are skipped while unrelated ones still get built.
+ */
+public class BuildScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BuildScheduler.class);
+
+	private final DockerClient dockerClient;
+
+	private final int maxConcurrentBuilds;
+
+	private final Map<String, File> images = new LinkedHashMap<String, File>();
+
+	public BuildScheduler(DockerClient dockerClient, int maxConcurrentBuilds) {
+		Preconditions.checkNotNull(dockerClient, "Docker client can't be null");
+		Preconditions.checkArgument(maxConcurrentBuilds > 0, "Max concurrent builds must be positive: %s",
+				maxConcurrentBuilds);
+		this.dockerClient = dockerClient;
+		this.maxConcurrentBuilds = maxConcurrentBuilds;
+	}
+
+	/**
+	 * Schedules the image in the folder to be built and tagged with {@code tag}.
+	 */
+	public BuildScheduler addImage(String tag, File dockerFolder) {
+		Preconditions.checkNotNull(tag, "Tag can't be null");
+		Preconditions.checkNotNull(dockerFolder, "Folder is null");
+		images.put(tag, dockerFolder);
+		return this;
+	}
+
+	/**
+	 * Builds all scheduled images and waits for them.
+	 *
+	 * @throws DockerException if a Dockerfile can't be read or the images depend on each other in
+	 *         a cycle. Failed builds are reported in the result instead.
+	 */
+	public BuildReport run() throws DockerException {
+		List<BuildReport.Entry> entries = plan();
+		Map<BuildReport.Entry, List<BuildReport.Entry>> children = new HashMap<BuildReport.Entry, List<BuildReport.Entry>>();
+		Map<BuildReport.Entry, Integer> waitingFor = new HashMap<BuildReport.Entry, Integer>();
+		Map<String, BuildReport.Entry> byTag = new HashMap<String, BuildReport.Entry>();
+		for (BuildReport.Entry entry : entries) {
+			byTag.put(entry.getTag(), entry);
+			children.put(entry, new ArrayList<BuildReport.Entry>());
+		}
+		for (BuildReport.Entry entry : entries) {
+			for (String parent : entry.getParents()) {
+				children.get(byTag.get(parent)).add(entry);
+			}
+			waitingFor.put(entry, entry.getParents().size());
+		}
+		checkAcyclic(entries, children);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentBuilds, Math.max(1, entries.size())));
+		CompletionService<BuildReport.Entry> completion = new ExecutorCompletionService<BuildReport.Entry>(executor);
+		final long start = System.currentTimeMillis();
+		int running = 0;
+		try {
+			for (BuildReport.Entry entry : entries) {
+				if (entry.getParents().isEmpty()) {
+					completion.submit(new ImageBuild(entry, start));
+					running++;
+				}
+			}
+			while (running > 0) {
+				BuildReport.Entry done = completion.take().get();
+				running--;
+				for (BuildReport.Entry child : children.get(done)) {
+					if (done.status != BuildReport.Status.SUCCEEDED) {
+						skip(child, children);
+					} else if (waitingFor.put(child, waitingFor.get(child) - 1) == 1 && child.status == null) {
+						completion.submit(new ImageBuild(child, start));
+						running++;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerException("Interrupted while building images", e);
+		} catch (ExecutionException e) {
+			// ImageBuild catches everything, so this is a bug
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		BuildReport report = new BuildReport(entries, System.currentTimeMillis() - start);
+		LOGGER.info("{}", report);
+		return report;
+	}
+
+	private List<BuildReport.Entry> plan() throws DockerException {
+		Map<String, String> tagsByName = new HashMap<String, String>();
+		for (String tag : images.keySet()) {
+			tagsByName.put(withDefaultTag(tag), tag);
+		}
+		List<BuildReport.Entry> entries = new ArrayList<BuildReport.Entry>();
+		for (Map.Entry<String, File> image : images.entrySet()) {
+			File dockerFile = new File(image.getValue(), BuildContextPlanner.DOCKERFILE);
+			Dockerfile dockerfile;
+			try {
+				dockerfile = Dockerfile.parse(dockerFile);
+			} catch (IOException e) {
+				throw new DockerException("Failed to read " + dockerFile, e);
+			}
+			List<String> parents = new ArrayList<String>();
+			for (Dockerfile.Instruction from : dockerfile.getInstructions("FROM")) {
+				if (from.getArguments().isEmpty()) {
+					continue;
+				}
+				String parent = tagsByName.get(withDefaultTag(from.getArguments().get(0)));
+				if (parent != null && !parents.contains(parent)) {
+					parents.add(parent);
+				}
+			}
+			entries.add(new BuildReport.Entry(image.getKey(), image.getValue(), parents));
+		}
+		return entries;
+	}
+
+	private static void checkAcyclic(List<BuildReport.Entry> entries, Map<BuildReport.Entry, List<BuildReport.Entry>> children)
+			throws DockerException {
+		Map<BuildReport.Entry, Integer> waitingFor = new HashMap<BuildReport.Entry, Integer>();
+		LinkedList<BuildReport.Entry> ready = new LinkedList<BuildReport.Entry>();
+		for (BuildReport.Entry entry : entries) {
+			waitingFor.put(entry, entry.getParents().size());
+			if (entry.getParents().isEmpty()) {
+				ready.add(entry);
+			}
+		}
+		int ordered = 0;
+		while (!ready.isEmpty()) {
+			BuildReport.Entry entry = ready.removeFirst();
+			ordered++;
+			for (BuildReport.Entry child : children.get(entry)) {
+				if (waitingFor.put(child, waitingFor.get(child) - 1) == 1) {
+					ready.add(child);
+				}
+			}
+		}
+		if (ordered < entries.size()) {
+			List<String> cyclic = new ArrayList<String>();
+			for (BuildReport.Entry entry : entries) {
+				if (waitingFor.get(entry) > 0) {
+					cyclic.add(entry.getTag());
+				}
+			}
+			throw new DockerException("Images are built FROM each other in a cycle: " + cyclic);
+		}
+	}
+
+	private static void skip(BuildReport.Entry entry, Map<BuildReport.Entry, List<BuildReport.Entry>> children) {
+		if (entry.status != null) {
+			return;
+		}
+		entry.status = BuildReport.Status.SKIPPED;
+		for (BuildReport.Entry child : children.get(entry)) {
+			skip(child, children);
+		}
+	}
+
+	/**
+	 * The daemon treats {@code name} as {@code name:latest}.
+	 */
+	private static String withDefaultTag(String image) {
+		return image.lastIndexOf(':') > image.lastIndexOf('/') ? image : image + ":latest";
+	}
+
+	private class ImageBuild implements Callable<BuildReport.Entry> {
+
+		private final BuildReport.Entry entry;
+
+		private final long start;
+
+		ImageBuild(BuildReport.Entry entry, long start) {
+			this.entry = entry;
+			this.start = start;
+		}
+
+		@Override
+		public BuildReport.Entry call() {
+			entry.startedMillis = System.currentTimeMillis() - start;
+			LOGGER.info("Building image '{}' from '{}'", entry.getTag(), entry.getDockerFolder());
+			try {
+				entry.imageId = dockerClient.build(entry.getDockerFolder(), entry.getTag(), new BuildListener() {
+					@Override
+					public void onEvent(BuildEvent event) {
+						LOGGER.debug("{}: {}", entry.getTag(), event.getMessage());
+					}
+				});
+				entry.status = BuildReport.Status.SUCCEEDED;
+			} catch (Exception e) {
+				LOGGER.error("Build of image '" + entry.getTag() + "' failed", e);
+				entry.error = e;
+				entry.status = BuildReport.Status.FAILED;
+			}
+			entry.finishedMillis = System.currentTimeMillis() - start;
+			return entry;
+		}
+	}
+
+}
@@ -0,0 +1,323 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.utils.CompressArchiveUtil;
+
+/**
+ * Stages build contexts as complete archives before they are uploaded, so the daemon gets a
+ * {@code Content-Length} instead of a chunked request.
+ * <p>
+ * Archives up to {@code memoryThreshold} bytes are kept on the heap, larger ones are written to
+ * the root directory. The archives on disk of all concurrent builds share {@code diskQuota}
+ * bytes; staging waits until enough of it is released. Archives are deleted when their
+ * {@link StagedBuildContext} is closed.
+ * <p>
+ * Every workspace stages into a directory of its own under the root, locked by a file next to
+ * it, so several workspaces and processes can share a root. Directories whose lock is free were
+ * left over by a workspace which wasn't closed, and are deleted when a workspace is created.
+ */
+public class BuildWorkspace implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BuildWorkspace.class);
+
+	private static final String ARCHIVE_PREFIX = "context-";
+
+	private static final String ARCHIVE_SUFFIX = ".tar";
+
+	private static final String DIRECTORY_PREFIX = "workspace-";
+
+	private static final String LOCK_SUFFIX = ".lock";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File root;
+
+	private final File directory;
+
+	private final File lockFile;
+
+	private final RandomAccessFile lockAccess;
+
+	private final FileLock lock;
+
+	private boolean closed;
+
+	private final long memoryThreshold;
+
+	private final long diskQuota;
+
+	private long diskUsage;
+
+	public BuildWorkspace(File root, long memoryThreshold, long diskQuota) throws IOException {
+		Preconditions.checkNotNull(root, "Workspace root can't be null");
+		Preconditions.checkArgument(memoryThreshold >= 0 && memoryThreshold <= Integer.MAX_VALUE,
+				"Memory threshold out of range: %s", memoryThreshold);
+		Preconditions.checkArgument(diskQuota >= 0, "Disk quota can't be negative: %s", diskQuota);
+		this.root = root;
+		this.memoryThreshold = memoryThreshold;
+		this.diskQuota = diskQuota;
+		FileUtils.forceMkdir(root);
+		deleteLeftOvers();
+
+		File file;
+		RandomAccessFile access;
+		FileLock acquired;
+		do {
+			file = File.createTempFile(DIRECTORY_PREFIX, LOCK_SUFFIX, root);
+			access = new RandomAccessFile(file, "rw");
+			acquired = access.getChannel().lock();
+			if (!file.exists()) {
+				// taken for a left over by another workspace before it was locked
+				acquired.release();
+				access.close();
+				acquired = null;
+			}
+		} while (acquired == null);
+		this.lockFile = file;
+		this.lockAccess = access;
+		this.lock = acquired;
+		this.directory = getDirectory(file);
+		FileUtils.forceMkdir(directory);
+	}
+
+	private void deleteLeftOvers() {
+		File[] files = root.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (!file.getName().startsWith(DIRECTORY_PREFIX) || !file.getName().endsWith(LOCK_SUFFIX)) {
+				continue;
+			}
+			try {
+				RandomAccessFile access = new RandomAccessFile(file, "rw");
+				try {
+					FileLock leftOver = access.getChannel().tryLock();
+					if (leftOver != null) {
+						try {
+							LOGGER.debug("Deleting left over build contexts in {}", getDirectory(file));
+							FileUtils.deleteQuietly(getDirectory(file));
+							FileUtils.deleteQuietly(file);
+						} finally {
+							leftOver.release();
+						}
+					}
+				} catch (OverlappingFileLockException e) {
+					// a workspace of this process
+				} finally {
+					access.close();
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Failed to check workspace lock " + file, e);
+			}
+		}
+	}
+
+	private static File getDirectory(File lockFile) {
+		String name = lockFile.getName();
+		return new File(lockFile.getParentFile(), name.substring(0, name.length() - LOCK_SUFFIX.length()));
+	}
+
+	/**
+	 * Archives the context, on the heap if it is small enough, otherwise on disk once the quota
+	 * allows it.
+	 *
+	 * @param cache to reuse encoded entries from, may be {@code null}.
+	 * @param executor to encode files in parallel, may be {@code null}.
+	 * @throws IOException if the archive is larger than the whole disk quota.
+	 */
+	public StagedBuildContext stage(BuildContext context, BuildContextCache cache, ExecutorService executor)
+			throws IOException {
+		long length = CompressArchiveUtil.getArchiveLength(context);
+		if (length <= memoryThreshold) {
+			ByteArrayOutputStream archive = new ByteArrayOutputStream((int) length);
+			archive(context, cache, executor, archive);
+			return new StagedBuildContext(archive.toByteArray(), null, 0);
+		}
+
+		reserve(length);
+		File file = null;
+		try {
+			file = File.createTempFile(ARCHIVE_PREFIX, ARCHIVE_SUFFIX, directory);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+			try {
+				archive(context, cache, executor, out);
+			} finally {
+				out.close();
+			}
+			// files which changed since the length was computed
+			long actual = file.length();
+			synchronized (this) {
+				diskUsage += actual - length;
+			}
+			StagedBuildContext staged = new StagedBuildContext(null, file, actual);
+			file = null;
+			return staged;
+		} finally {
+			if (file != null) {
+				FileUtils.deleteQuietly(file);
+				release(length);
+			}
+		}
+	}
+
+	private static void archive(BuildContext context, BuildContextCache cache, ExecutorService executor,
+			OutputStream out) throws IOException {
+		if (cache != null) {
+			CompressArchiveUtil.archiveTAR(context, cache, out);
+		} else if (executor != null) {
+			CompressArchiveUtil.archiveTAR(context, out, executor);
+		} else {
+			CompressArchiveUtil.archiveTAR(context, out);
+		}
+	}
+
+	private synchronized void reserve(long length) throws IOException {
+		if (length > diskQuota) {
+			throw new IOException(String.format("Build context of %d bytes exceeds the disk quota of %d bytes", length,
+					diskQuota));
+		}
+		while (diskUsage + length > diskQuota) {
+			LOGGER.debug("Waiting for {} bytes of disk quota, {} of {} in use", new Object[] { length, diskUsage,
+					diskQuota });
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for disk quota");
+			}
+		}
+		diskUsage += length;
+	}
+
+	private synchronized void release(long length) {
+		diskUsage -= length;
+		notifyAll();
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the directory of this workspace under the root, holding its staged archives.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMemoryThreshold() {
+		return memoryThreshold;
+	}
+
+	public long getDiskQuota() {
+		return diskQuota;
+	}
+
+	/**
+	 * @return the bytes of disk quota held by staged contexts right now.
+	 */
+	public synchronized long getDiskUsage() {
+		return diskUsage;
+	}
+
+	/**
+	 * Deletes the directory of this workspace, including archives still staged, and releases its
+	 * lock. Does nothing when called again.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			FileUtils.deleteQuietly(directory);
+			FileUtils.deleteQuietly(lockFile);
+			lock.release();
+		} finally {
+			lockAccess.close();
+		}
+	}
+
+	/**
+	 * A build context archived by {@link BuildWorkspace#stage}. Must be closed once uploaded.
+	 */
+	public class StagedBuildContext {
+
+		private final byte[] archive;
+
+		private final File file;
+
+		private final long fileLength;
+
+		private boolean closed;
+
+		StagedBuildContext(byte[] archive, File file, long fileLength) {
+			this.archive = archive;
+			this.file = file;
+			this.fileLength = fileLength;
+		}
+
+		public boolean isInMemory() {
+			return archive != null;
+		}
+
+		public long getLength() {
+			return archive != null ? archive.length : fileLength;
+		}
+
+		/**
+		 * @return a repeatable request body with the archive's length.
+		 */
+		public HttpEntity createEntity() {
+			ContentType contentType = ContentType.create(BuildContextEntity.CONTENT_TYPE);
+			if (archive != null) {
+				return new ByteArrayEntity(archive, contentType);
+			}
+			return new FileEntity(file, contentType);
+		}
+
+		/**
+		 * Deletes the archive and releases its disk quota. Does nothing when called again.
+		 */
+		public void close() {
+			synchronized (BuildWorkspace.this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+			}
+			if (file != null) {
+				if (!file.delete() && file.exists()) {
+					LOGGER.warn("Failed to delete staged build context {}", file);
+				}
+				release(fileLength);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compiled patterns of a {@code .dockerignore} file.
+ * <p>
+ * Patterns use the syntax of the Docker daemon: paths relative to the context root, {@code *}
+ * and {@code ?} within one path segment, {@code [...]} classes, {@code **} across segments and
+ * {@code !} for exceptions. The last matching pattern decides, and a pattern matching a
+ * directory also matches everything below it. Without exceptions all patterns are compiled into
+ * a single expression.
+ */
+public class DockerIgnore {
+
+	public static final String FILE_NAME = ".dockerignore";
+
+	private static final DockerIgnore EMPTY = new DockerIgnore(Collections.<Rule> emptyList());
+
+	private final List<Rule> rules;
+
+	private final boolean hasExceptions;
+
+	/** All patterns in one expression, {@code null} if there are exceptions. */
+	private final Pattern combined;
+
+	private DockerIgnore(List<Rule> rules) {
+		this.rules = rules;
+		boolean exceptions = false;
+		StringBuilder alternatives = new StringBuilder();
+		for (Rule rule : rules) {
+			exceptions |= rule.exception;
+			if (alternatives.length() > 0) {
+				alternatives.append('|');
+			}
+			alternatives.append(rule.regex);
+		}
+		this.hasExceptions = exceptions;
+		this.combined = exceptions || rules.isEmpty() ? null : Pattern.compile(subtree(alternatives.toString()));
+	}
+
+	/**
+	 * @return the patterns of {@code .dockerignore} in the folder, none if it doesn't exist.
+	 */
+	@SuppressWarnings("unchecked")
+	public static DockerIgnore load(File dockerFolder) throws IOException {
+		File file = new File(dockerFolder, FILE_NAME);
+		if (!file.isFile()) {
+			return EMPTY;
+		}
+		return parse(FileUtils.readLines(file, "UTF-8"));
+	}
+
+	public static DockerIgnore parse(List<String> lines) {
+		List<Rule> rules = new ArrayList<Rule>();
+		for (String line : lines) {
+			String pattern = line.trim();
+			if (pattern.length() == 0 || pattern.startsWith("#")) {
+				continue;
+			}
+			boolean exception = pattern.startsWith("!");
+			if (exception) {
+				pattern = pattern.substring(1).trim();
+			}
+			pattern = BuildContext.normalize(pattern);
+			if (pattern.length() > 0) {
+				rules.add(new Rule(pattern, exception));
+			}
+		}
+		return new DockerIgnore(rules);
+	}
+
+	public boolean isEmpty() {
+		return rules.isEmpty();
+	}
+
+	/**
+	 * @param path relative to the context root, separated by {@code /}.
+	 */
+	public boolean isExcluded(String path) {
+		if (combined != null) {
+			return combined.matcher(path).matches();
+		}
+		boolean excluded = false;
+		for (Rule rule : rules) {
+			if (excluded == rule.exception && rule.matches(path)) {
+				excluded = !rule.exception;
+			}
+		}
+		return excluded;
+	}
+
+	/**
+	 * @return whether nothing below the excluded directory can be included again by an exception,
+	 *         so it doesn't need to be walked.
+	 */
+	public boolean canPrune(String directory) {
+		if (!hasExceptions) {
+			return true;
+		}
+		String prefix = directory + "/";
+		for (Rule rule : rules) {
+			if (rule.exception && (rule.literalPrefix.startsWith(prefix) || prefix.startsWith(rule.literalPrefix))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DockerIgnore" + rules;
+	}
+
+	private static String subtree(String regex) {
+		return "(?:" + regex + ")(?:/.*)?";
+	}
+
+	/**
+	 * Translates a pattern to a regular expression.
+	 */
+	static String toRegex(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		int length = pattern.length();
+		for (int i = 0; i < length; i++) {
+			char c = pattern.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < length && pattern.charAt(i + 1) == '*') {
+					i++;
+					if (i + 1 < length && pattern.charAt(i + 1) == '/') {
+						// "**/" also matches no directory at all
+						i++;
+						regex.append("(?:.*/)?");
+					} else {
+						regex.append(".*");
+					}
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				int end = pattern.indexOf(']', i + 2);
+				if (end < 0) {
+					regex.append("\\[");
+					break;
+				}
+				String set = pattern.substring(i + 1, end);
+				if (set.startsWith("!") || set.startsWith("^")) {
+					set = "^" + set.substring(1);
+				}
+				regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+				i = end;
+				break;
+			case '\\':
+				if (i + 1 < length) {
+					regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+				}
+				break;
+			default:
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+
+	private static class Rule {
+
+		private final String pattern;
+
+		private final boolean exception;
+
+		private final String regex;
+
+		private final Pattern compiled;
+
+		/** The pattern up to its first wildcard. */
+		private final String literalPrefix;
+
+		Rule(String pattern, boolean exception) {
+			this.pattern = pattern;
+			this.exception = exception;
+			this.regex = toRegex(pattern);
+			this.compiled = Pattern.compile(subtree(regex));
+			int wildcard = pattern.length();
+			for (char c : new char[] { '*', '?', '[', '\\' }) {
+				int index = pattern.indexOf(c);
+				if (index >= 0 && index < wildcard) {
+					wildcard = index;
+				}
+			}
+			this.literalPrefix = pattern.substring(0, wildcard);
+		}
+
+		boolean matches(String path) {
+			return compiled.matcher(path).matches();
+		}
+
+		@Override
+		public String toString() {
+			return exception ? "!" + pattern : pattern;
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package com.kpelykh.docker.client.build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * The instructions of a Dockerfile.
+ * <p>
+ * Comments and blank lines are dropped and lines ending with {@code \} are joined with the next
+ * one. Leading {@code --name=value} options are split off, then arguments in JSON array form
+ * ({@code ["a", "b"]}) are decoded and all others are split at whitespace.
+ */
+public class Dockerfile {
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	private final List<Instruction> instructions;
+
+	private Dockerfile(List<Instruction> instructions) {
+		this.instructions = Collections.unmodifiableList(instructions);
+	}
+
+	public static Dockerfile parse(File file) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			return parse(reader);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	public static Dockerfile parse(Reader reader) throws IOException {
+		BufferedReader lines = new BufferedReader(reader);
+		List<Instruction> instructions = new ArrayList<Instruction>();
+		StringBuilder instruction = new StringBuilder();
+		int startLine = 0;
+		int lineNumber = 0;
+		String line;
+		while ((line = lines.readLine()) != null) {
+			lineNumber++;
+			String trimmed = line.trim();
+			if (trimmed.startsWith("#") || trimmed.length() == 0) {
+				// also skipped between continuation lines
+				continue;
+			}
+			if (instruction.length() == 0) {
+				startLine = lineNumber;
+			}
+			String content = StringUtils.stripEnd(line, null);
+			if (content.endsWith("\\")) {
+				instruction.append(content, 0, content.length() - 1);
+				continue;
+			}
+			instruction.append(content);
+			instructions.add(Instruction.parse(instruction.toString().trim(), startLine));
+			instruction.setLength(0);
+		}
+		if (instruction.toString().trim().length() > 0) {
+			instructions.add(Instruction.parse(instruction.toString().trim(), startLine));
+		}
+		return new Dockerfile(instructions);
+	}
+
+	public List<Instruction> getInstructions() {
+		return instructions;
+	}
+
+	/**
+	 * @return all instructions with the given keyword, e.g. {@code FROM}.
+	 */
+	public List<Instruction> getInstructions(String keyword) {
+		List<Instruction> matching = new ArrayList<Instruction>();
+		for (Instruction instruction : instructions) {
+			if (instruction.getKeyword().equalsIgnoreCase(keyword)) {
+				matching.add(instruction);
+			}
+		}
+		return matching;
+	}
+
+	@Override
+	public String toString() {
+		return "Dockerfile" + instructions;
+	}
+
+	public static class Instruction {
+
+		private final String keyword;
+
+		private final String value;
+
+		private final List<String> options;
+
+		private final List<String> arguments;
+
+		private final boolean jsonForm;
+
+		private final int line;
+
+		private Instruction(String keyword, String value, List<String> options, List<String> arguments,
+				boolean jsonForm, int line) {
+			this.keyword = keyword;
+			this.value = value;
+			this.options = Collections.unmodifiableList(options);
+			this.arguments = Collections.unmodifiableList(arguments);
+			this.jsonForm = jsonForm;
+			this.line = line;
+		}
+
+		static Instruction parse(String text, int line) {
+			String[] parts = text.split("\\s+", 2);
+			String keyword = parts[0].toUpperCase(Locale.ENGLISH);
+			String value = parts.length > 1 ? parts[1].trim() : "";
+			List<String> options = new ArrayList<String>();
+			String rest = value;
+			while (rest.startsWith("--")) {
+				String[] option = rest.split("\\s+", 2);
+				options.add(option[0]);
+				rest = option.length > 1 ? option[1].trim() : "";
+			}
+			if (rest.startsWith("[")) {
+				try {
+					return new Instruction(keyword, value, options, Arrays.asList(JSON.readValue(rest, String[].class)),
+							true, line);
+				} catch (JsonProcessingException e) {
+					// not valid JSON, the daemon treats it as shell form as well
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			List<String> arguments = rest.length() == 0 ? Collections.<String> emptyList() : Arrays.asList(rest.split("\\s+"));
+			return new Instruction(keyword, value, options, arguments, false, line);
+		}
+
+		/**
+		 * @return the instruction in upper case, e.g. {@code ADD}.
+		 */
+		public String getKeyword() {
+			return keyword;
+		}
+
+		/**
+		 * @return everything after the keyword, as written.
+		 */
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return the arguments after the options.
+		 */
+		public List<String> getArguments() {
+			return arguments;
+		}
+
+		/**
+		 * @return the options in front of the arguments as written, e.g. {@code --chown=a:b}.
+		 */
+		public List<String> getOptions() {
+			return options;
+		}
+
+		/**
+		 * @return the value of a {@code --name=value} option in front of the arguments, e.g.
+		 *         {@code builder} for {@code from} of {@code COPY --from=builder /app /app},
+		 *         {@code null} if not given.
+		 */
+		public String getOption(String name) {
+			String prefix = "--" + name.toLowerCase(Locale.ENGLISH) + "=";
+			for (String option : options) {
+				if (option.toLowerCase(Locale.ENGLISH).startsWith(prefix)) {
+					return option.substring(prefix.length());
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return whether the arguments were given as JSON array.
+		 */
+		public boolean isJsonForm() {
+			return jsonForm;
+		}
+
+		/**
+		 * @return the line the instruction starts on, counting from 1.
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		@Override
+		public String toString() {
+			return keyword + " " + value;
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.kpelykh.docker.client.container;
+
+/**
+ * One message of the {@code /events} stream of the daemon, about a single container.
+ */
+public class ContainerEvent {
+
+	private final String status;
+
+	private final String id;
+
+	private final String from;
+
+	private final long time;
+
+	public ContainerEvent(String status, String id, String from, long time) {
+		this.status = status;
+		this.id = id;
+		this.from = from;
+		this.time = time;
+	}
+
+	/**
+	 * @return what happened, e.g. {@code create}, {@code start}, {@code die} or {@code destroy}.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the id of the container.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the image of the container, {@code null} if not reported.
+	 */
+	public String getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return when it happened, in seconds since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return "ContainerEvent{status='" + status + '\'' + ", id='" + id + '\'' + ", from='" + from + '\'' + ", time="
+				+ time + '}';
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.kpelykh.docker.client.container;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads the JSON messages of {@code /events} incrementally, as the daemon sends them, and turns
+ * them into {@link ContainerEvent}s.
+ */
+public class ContainerEventReader implements Closeable {
+
+	private static final JsonFactory JSON_FACTORY = new ObjectMapper().getJsonFactory();
+
+	private final InputStream in;
+
+	private JsonParser json;
+
+	public ContainerEventReader(InputStream in) {
+		Preconditions.checkNotNull(in, "Event stream can't be null");
+		this.in = in;
+	}
+
+	/**
+	 * Blocks until the daemon sends the next event.
+	 *
+	 * @return the next event, or {@code null} once the stream ended.
+	 */
+	public ContainerEvent next() throws IOException {
+		if (json == null) {
+			json = JSON_FACTORY.createJsonParser(in);
+		}
+		while (true) {
+			JsonToken token = json.nextToken();
+			if (token == null) {
+				return null;
+			}
+			if (token != JsonToken.START_OBJECT) {
+				throw new IOException("Unexpected event " + token);
+			}
+			JsonNode message = json.readValueAsTree();
+			if (message.has("status") && message.has("id")) {
+				JsonNode from = message.get("from");
+				return new ContainerEvent(message.get("status").asText(), message.get("id").asText(),
+						from == null || from.isNull() ? null : from.asText(), message.path("time").asLong());
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
@@ -0,0 +1,418 @@
+package com.kpelykh.docker.client.container;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.model.Container;
+import com.kpelykh.docker.client.model.ContainerInspectResponse;
+
+/**
+ * The containers of a daemon and whether they are running, kept up to date from its
+ * {@code /events} stream so they can be looked up without asking the daemon.
+ * <p>
+ * A background thread subscribes to the events, lists all containers and then applies every
+ * event as it arrives. Whenever the stream drops, the registry is out of sync until the thread
+ * subscribed again and listed the containers anew. Containers the events name but the registry
+ * doesn't know yet are inspected once, to learn their names. Lookups by id or name take
+ * constant time, by short id they go through all containers.
+ */
+public class ContainerRegistry implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContainerRegistry.class);
+
+	private final DockerClient dockerClient;
+
+	private final long retryMillis;
+
+	private final ConcurrentMap<String, Entry> containers = new ConcurrentHashMap<String, Entry>();
+
+	private final ConcurrentMap<String, String> idsByName = new ConcurrentHashMap<String, String>();
+
+	private final AtomicLong resyncs = new AtomicLong();
+
+	private final AtomicLong appliedEvents = new AtomicLong();
+
+	private final Object syncLock = new Object();
+
+	private volatile boolean inSync;
+
+	private volatile boolean closed;
+
+	private volatile ContainerEventReader events;
+
+	private Thread thread;
+
+	public ContainerRegistry(DockerClient dockerClient) {
+		this(dockerClient, 1000);
+	}
+
+	/**
+	 * @param retryMillis to wait before subscribing again after the stream dropped.
+	 */
+	public ContainerRegistry(DockerClient dockerClient, long retryMillis) {
+		Preconditions.checkNotNull(dockerClient, "Docker client can't be null");
+		Preconditions.checkArgument(retryMillis >= 0, "Retry interval can't be negative: %s", retryMillis);
+		this.dockerClient = dockerClient;
+		this.retryMillis = retryMillis;
+	}
+
+	/**
+	 * Starts following the events of the daemon on a daemon thread.
+	 */
+	public synchronized ContainerRegistry start() {
+		Preconditions.checkState(thread == null, "Container registry already started");
+		Preconditions.checkState(!closed, "Container registry already closed");
+		thread = new Thread("docker-events") {
+			@Override
+			public void run() {
+				follow();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * @return whether the registry follows the events of the daemon right now. Answers given out
+	 *         of sync may be stale.
+	 */
+	public boolean isInSync() {
+		return inSync;
+	}
+
+	/**
+	 * @return whether the registry got in sync within the timeout.
+	 */
+	public boolean awaitInSync(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (syncLock) {
+			while (!inSync) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				syncLock.wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @param container id, short id or name, with or without the leading {@code /}.
+	 * @return the container, {@code null} if the daemon has none of that id or name.
+	 */
+	public Entry get(String container) {
+		Preconditions.checkNotNull(container, "Container can't be null");
+		String key = container.startsWith("/") ? container.substring(1) : container;
+		if (key.length() == 0) {
+			return null;
+		}
+		Entry entry = containers.get(key);
+		if (entry != null) {
+			return entry;
+		}
+		String id = idsByName.get(key);
+		if (id != null && (entry = containers.get(id)) != null) {
+			return entry;
+		}
+		Entry match = null;
+		for (Entry candidate : containers.values()) {
+			if (candidate.getId().startsWith(key)) {
+				if (match != null) {
+					return null;
+				}
+				match = candidate;
+			}
+		}
+		return match;
+	}
+
+	public boolean containerExists(String container) {
+		return get(container) != null;
+	}
+
+	/**
+	 * @return {@code false} for containers which don't exist, too.
+	 */
+	public boolean isRunning(String container) {
+		Entry entry = get(container);
+		return entry != null && entry.isRunning();
+	}
+
+	public Collection<Entry> getContainers() {
+		return new ArrayList<Entry>(containers.values());
+	}
+
+	public int size() {
+		return containers.size();
+	}
+
+	/**
+	 * @return how often the containers were listed, once per subscription to the events.
+	 */
+	public long getResyncs() {
+		return resyncs.get();
+	}
+
+	/**
+	 * @return the number of events applied.
+	 */
+	public long getAppliedEvents() {
+		return appliedEvents.get();
+	}
+
+	/**
+	 * Records a container created by this process, so it is known before its {@code create}
+	 * event arrives.
+	 *
+	 * @param name may be {@code null}.
+	 */
+	public void created(String id, String name, String image) {
+		Preconditions.checkNotNull(id, "Container id can't be null");
+		String key = name != null && name.startsWith("/") ? name.substring(1) : name;
+		if (containers.putIfAbsent(id, new Entry(id, key, image, false)) == null && key != null) {
+			idsByName.put(key, id);
+		}
+	}
+
+	/**
+	 * Records that this process started a container, so it is running before its {@code start}
+	 * event arrives. Does nothing if events or a listing changed the container since it was
+	 * looked up, they are at least as recent.
+	 *
+	 * @param before the container, as looked up before starting it.
+	 */
+	public void started(Entry before) {
+		Preconditions.checkNotNull(before, "Container can't be null");
+		containers.replace(before.getId(), before,
+				new Entry(before.getId(), before.getName(), before.getImage(), true));
+	}
+
+	/**
+	 * Stops following the events. The registry keeps its last state, but is out of sync.
+	 */
+	@Override
+	public void close() {
+		Thread following;
+		synchronized (this) {
+			closed = true;
+			following = thread;
+		}
+		closeQuietly(events);
+		if (following != null) {
+			following.interrupt();
+		}
+	}
+
+	private void follow() {
+		while (!closed) {
+			ContainerEventReader reader = null;
+			try {
+				// subscribe before listing, so nothing happening in between is missed
+				reader = new ContainerEventReader(dockerClient.events());
+				events = reader;
+				if (closed) {
+					break;
+				}
+				resynchronize();
+				setInSync(true);
+				ContainerEvent event;
+				while ((event = reader.next()) != null) {
+					apply(event);
+				}
+				LOGGER.warn("Event stream of the Docker daemon ended, resynchronizing in {} ms", retryMillis);
+			} catch (Exception e) {
+				if (!closed) {
+					LOGGER.warn("Event stream of the Docker daemon failed, resynchronizing in " + retryMillis + " ms", e);
+				}
+			} finally {
+				setInSync(false);
+				closeQuietly(reader);
+			}
+			if (!closed) {
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void setInSync(boolean inSync) {
+		synchronized (syncLock) {
+			this.inSync = inSync;
+			syncLock.notifyAll();
+		}
+	}
+
+	private void resynchronize() {
+		List<Container> listed = dockerClient.listContainers(true);
+		Set<String> ids = new HashSet<String>();
+		for (Container container : listed) {
+			put(new Entry(container.id, name(container.names), container.image, container.status != null
+					&& container.status.startsWith("Up")));
+			ids.add(container.id);
+		}
+		for (String id : new ArrayList<String>(containers.keySet())) {
+			if (!ids.contains(id)) {
+				remove(id);
+			}
+		}
+		resyncs.incrementAndGet();
+		LOGGER.debug("Listed {} containers", listed.size());
+	}
+
+	private void apply(ContainerEvent event) throws DockerException {
+		String status = event.getStatus();
+		boolean running;
+		if ("destroy".equals(status)) {
+			Entry entry = get(event.getId());
+			if (entry != null) {
+				remove(entry.getId());
+			}
+			appliedEvents.incrementAndGet();
+			return;
+		} else if ("start".equals(status) || "restart".equals(status) || "unpause".equals(status)) {
+			running = true;
+		} else if ("create".equals(status)) {
+			Entry entry = get(event.getId());
+			if (entry == null) {
+				register(event);
+			}
+			// else recorded by whoever created it, maybe started already
+			appliedEvents.incrementAndGet();
+			return;
+		} else if ("die".equals(status) || "stop".equals(status) || "kill".equals(status)) {
+			running = false;
+		} else {
+			// image events and the like
+			return;
+		}
+		Entry entry = get(event.getId());
+		if (entry != null) {
+			put(new Entry(entry.getId(), entry.getName(), entry.getImage(), running));
+		} else {
+			register(event);
+		}
+		appliedEvents.incrementAndGet();
+	}
+
+	private void register(ContainerEvent event) throws DockerException {
+		try {
+			ContainerInspectResponse inspected = dockerClient.inspectContainer(event.getId());
+			String name = inspected.name != null && inspected.name.startsWith("/") ? inspected.name.substring(1)
+					: inspected.name;
+			String image = event.getFrom() != null ? event.getFrom() : inspected.image;
+			put(new Entry(inspected.id, name, image, inspected.state != null && inspected.state.running));
+		} catch (HttpClientErrorException e) {
+			// destroyed in the meantime, its destroy event follows
+			LOGGER.debug("Container {} of event {} is gone", event.getId(), event.getStatus());
+		}
+	}
+
+	private void put(Entry entry) {
+		Entry previous = containers.put(entry.getId(), entry);
+		if (previous != null && previous.getName() != null && !previous.getName().equals(entry.getName())) {
+			idsByName.remove(previous.getName(), previous.getId());
+		}
+		if (entry.getName() != null) {
+			idsByName.put(entry.getName(), entry.getId());
+		}
+	}
+
+	private void remove(String id) {
+		Entry entry = containers.remove(id);
+		if (entry != null && entry.getName() != null) {
+			idsByName.remove(entry.getName(), id);
+		}
+	}
+
+	private static void closeQuietly(ContainerEventReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// dropped anyway
+			}
+		}
+	}
+
+	/**
+	 * @return the name of the container itself, not one of the names it is linked under.
+	 */
+	private static String name(String[] names) {
+		if (names != null) {
+			for (String name : names) {
+				if (name != null && name.lastIndexOf('/') <= 0) {
+					return name.startsWith("/") ? name.substring(1) : name;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * State of one container, as of the last event about it.
+	 */
+	public static class Entry {
+
+		private final String id;
+
+		private final String name;
+
+		private final String image;
+
+		private final boolean running;
+
+		Entry(String id, String name, String image, boolean running) {
+			this.id = id;
+			this.name = name;
+			this.image = image;
+			this.running = running;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return the name without the leading {@code /}, {@code null} if unknown.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public String getImage() {
+			return image;
+		}
+
+		public boolean isRunning() {
+			return running;
+		}
+
+		@Override
+		public String toString() {
+			return "Entry{id='" + id + '\'' + ", name='" + name + '\'' + ", image='" + image + '\'' + ", running="
+					+ running + '}';
+		}
+	}
+
+}
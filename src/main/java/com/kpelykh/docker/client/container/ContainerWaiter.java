@@ -0,0 +1,247 @@
+package com.kpelykh.docker.client.container;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.model.ContainerInspectResponse;
+import com.kpelykh.docker.client.model.ContainerWaitResponse;
+
+/**
+ * Waits for any number of containers to stop, like {@link DockerClient#waitContainer(String)}
+ * but on a single {@code /events} stream instead of a blocked thread and connection per
+ * container.
+ * <p>
+ * When a container dies it is inspected once for its exit code. Whenever the stream drops, the
+ * containers still waited for are inspected again after subscribing anew, so no exit is missed.
+ * Containers removed before their exit code was read fail with a {@link DockerException}.
+ */
+public class ContainerWaiter implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContainerWaiter.class);
+
+	private static final int SHORT_ID_LENGTH = 12;
+
+	/** Reported if the daemon didn't tell the exit code of a stopped container. */
+	public static final int UNKNOWN_EXIT_CODE = -1;
+
+	private final DockerClient dockerClient;
+
+	private final long retryMillis;
+
+	/** By short id, which is what events of older daemons carry. */
+	private final ConcurrentMap<String, Waiting> waiting = new ConcurrentHashMap<String, Waiting>();
+
+	private volatile boolean closed;
+
+	private volatile ContainerEventReader events;
+
+	private volatile Thread thread;
+
+	public ContainerWaiter(DockerClient dockerClient) {
+		this(dockerClient, 1000);
+	}
+
+	/**
+	 * @param retryMillis to wait before subscribing again after the stream dropped.
+	 */
+	public ContainerWaiter(DockerClient dockerClient, long retryMillis) {
+		Preconditions.checkNotNull(dockerClient, "Docker client can't be null");
+		Preconditions.checkArgument(retryMillis >= 0, "Retry interval can't be negative: %s", retryMillis);
+		this.dockerClient = dockerClient;
+		this.retryMillis = retryMillis;
+	}
+
+	/**
+	 * Starts following the events of the daemon on a daemon thread.
+	 */
+	public synchronized ContainerWaiter start() {
+		Preconditions.checkState(thread == null, "Container waiter already started");
+		Preconditions.checkState(!closed, "Container waiter already closed");
+		thread = new Thread("docker-wait") {
+			@Override
+			public void run() {
+				follow();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Inspects the container, and completes right away if it isn't running.
+	 *
+	 * @param container id, short id or name.
+	 * @return completes with the exit code once the container stopped, {@link #UNKNOWN_EXIT_CODE}
+	 *         if the daemon didn't report it. Cancelling it stops waiting. Shared by all callers waiting for the same container.
+	 * @throws HttpClientErrorException if there is no such container.
+	 */
+	public Future<ContainerWaitResponse> waitFor(String container) throws DockerException {
+		Preconditions.checkNotNull(container, "Container can't be null");
+		Preconditions.checkState(thread != null, "Container waiter not started");
+		Preconditions.checkState(!closed, "Container waiter already closed");
+		ContainerInspectResponse inspected = dockerClient.inspectContainer(container);
+		if (!isRunning(inspected)) {
+			Waiting exited = new Waiting(inspected.id);
+			exited.exit(inspected);
+			return exited;
+		}
+		Waiting added = new Waiting(inspected.id);
+		Waiting existing = waiting.putIfAbsent(shortId(inspected.id), added);
+		if (existing != null) {
+			return existing;
+		}
+		if (closed) {
+			added.fail(new DockerException("Stopped waiting for container " + inspected.id));
+			return added;
+		}
+		// it may have died before it was waited for, with the event already gone by
+		check(added);
+		return added;
+	}
+
+	/**
+	 * @return the number of containers waited for.
+	 */
+	public int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * Stops following the events. Containers still waited for fail with a
+	 * {@link DockerException}.
+	 */
+	@Override
+	public void close() {
+		Thread following;
+		synchronized (this) {
+			closed = true;
+			following = thread;
+		}
+		closeQuietly(events);
+		if (following != null) {
+			following.interrupt();
+		}
+		for (Waiting pending : new ArrayList<Waiting>(waiting.values())) {
+			pending.fail(new DockerException("Stopped waiting for container " + pending.id));
+		}
+	}
+
+	private void follow() {
+		while (!closed) {
+			ContainerEventReader reader = null;
+			try {
+				reader = new ContainerEventReader(dockerClient.events());
+				events = reader;
+				if (closed) {
+					break;
+				}
+				// exits while the stream was down went unnoticed
+				for (Waiting pending : new ArrayList<Waiting>(waiting.values())) {
+					check(pending);
+				}
+				ContainerEvent event;
+				while ((event = reader.next()) != null) {
+					if ("die".equals(event.getStatus()) || "destroy".equals(event.getStatus())) {
+						Waiting pending = waiting.get(shortId(event.getId()));
+						if (pending != null) {
+							check(pending);
+						}
+					}
+				}
+				LOGGER.warn("Event stream of the Docker daemon ended, subscribing again in {} ms", retryMillis);
+			} catch (Exception e) {
+				if (!closed) {
+					LOGGER.warn("Event stream of the Docker daemon failed, subscribing again in " + retryMillis + " ms", e);
+				}
+			} finally {
+				closeQuietly(reader);
+			}
+			if (!closed) {
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Completes the future if the container stopped.
+	 */
+	private void check(Waiting pending) {
+		try {
+			ContainerInspectResponse inspected = dockerClient.inspectContainer(pending.id);
+			if (!isRunning(inspected)) {
+				pending.exit(inspected);
+			}
+		} catch (HttpClientErrorException e) {
+			pending.fail(new DockerException("Container " + pending.id + " was removed before it was seen to stop", e));
+		} catch (Exception e) {
+			// checked again after subscribing anew
+			LOGGER.warn("Failed to inspect container " + pending.id, e);
+		}
+	}
+
+	private static boolean isRunning(ContainerInspectResponse inspected) {
+		return inspected.state != null && inspected.state.running;
+	}
+
+	private static String shortId(String id) {
+		return id.length() > SHORT_ID_LENGTH ? id.substring(0, SHORT_ID_LENGTH) : id;
+	}
+
+	private static void closeQuietly(ContainerEventReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// dropped anyway
+			}
+		}
+	}
+
+	private class Waiting extends BasicFuture<ContainerWaitResponse> {
+
+		final String id;
+
+		Waiting(String id) {
+			super(null);
+			this.id = id;
+		}
+
+		void exit(ContainerInspectResponse inspected) {
+			ContainerWaitResponse response = new ContainerWaitResponse();
+			response.setStatusCode(inspected.state != null ? inspected.state.exitCode : UNKNOWN_EXIT_CODE);
+			// no longer waited for by the time the callers see the result
+			waiting.remove(shortId(id), this);
+			completed(response);
+		}
+
+		void fail(Exception e) {
+			waiting.remove(shortId(id), this);
+			failed(e);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			waiting.remove(shortId(id), this);
+			return super.cancel(mayInterruptIfRunning);
+		}
+	}
+
+}
@@ -0,0 +1,314 @@
+package com.kpelykh.docker.client.image;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.model.Container;
+import com.kpelykh.docker.client.model.Image;
+
+/**
+ * Keeps the images of a daemon within a disk budget by removing the least recently used ones.
+ * <p>
+ * Images are used when a container is created from them, which the {@link DockerClient}
+ * reports with {@link #touch(String)}, and when a container of them is listed; images never
+ * used count from their creation. A {@link #collect()} pass only refreshes the
+ * {@link ImageGraph} while the images fit the budget. Otherwise it removes images no container
+ * is based on, least recently used leaves first, until they fit again.
+ * <p>
+ * Disk usage is the sum of the {@code Size} of all images: the {@code VirtualSize} of images
+ * counts the layers they share once for each image.
+ */
+public class ImageGarbageCollector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageGarbageCollector.class);
+
+	private static final String UNTAGGED = "<none>:<none>";
+
+	private final DockerClient dockerClient;
+
+	private final ImageGraph graph;
+
+	private final long diskBudget;
+
+	/** Last use by full id or tag, as reported. */
+	private final Map<String, Long> lastUses = new ConcurrentHashMap<String, Long>();
+
+	public ImageGarbageCollector(DockerClient dockerClient, long diskBudget) {
+		this(dockerClient, new ImageGraph(dockerClient), diskBudget);
+	}
+
+	/**
+	 * @param graph refreshed with every pass, may be shared with other users.
+	 * @param diskBudget bytes all images may take up.
+	 */
+	public ImageGarbageCollector(DockerClient dockerClient, ImageGraph graph, long diskBudget) {
+		Preconditions.checkNotNull(dockerClient, "Docker client can't be null");
+		Preconditions.checkNotNull(graph, "Image graph can't be null");
+		Preconditions.checkArgument(diskBudget >= 0, "Disk budget can't be negative: %s", diskBudget);
+		this.dockerClient = dockerClient;
+		this.graph = graph;
+		this.diskBudget = diskBudget;
+	}
+
+	/**
+	 * Records that the image is used now.
+	 *
+	 * @param image full id or tag.
+	 */
+	public void touch(String image) {
+		if (image != null) {
+			lastUses.put(image.lastIndexOf(':') > image.lastIndexOf('/') || ImageInspectCache.isFullId(image) ? image
+					: image + ":latest", System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * @return when the image was used last, or created if it never was.
+	 */
+	private long getLastUse(Image image) {
+		long lastUse = image.created * 1000;
+		Long byId = lastUses.get(image.id);
+		if (byId != null) {
+			lastUse = Math.max(lastUse, byId);
+		}
+		if (image.repoTags != null) {
+			for (String repoTag : image.repoTags) {
+				Long byTag = lastUses.get(repoTag);
+				if (byTag != null) {
+					lastUse = Math.max(lastUse, byTag);
+				}
+			}
+		}
+		return lastUse;
+	}
+
+	/**
+	 * Removes least recently used images until all of them fit the budget.
+	 *
+	 * @throws DockerException if images or containers can't be listed. Failed removals are
+	 *         reported in the result instead.
+	 */
+	public synchronized Result collect() throws DockerException {
+		long start = System.currentTimeMillis();
+		graph.refresh();
+		Result result = new Result(diskBudget);
+		for (Image root : graph.getRoots()) {
+			result.diskUsage += graph.getSubtreeSize(root.id);
+		}
+		if (result.diskUsage <= diskBudget) {
+			result.elapsedMillis = System.currentTimeMillis() - start;
+			LOGGER.debug("{}", result);
+			return result;
+		}
+
+		Set<String> used = new HashSet<String>();
+		for (Container container : dockerClient.listContainers(true)) {
+			String id = resolve(container.image);
+			if (id != null && used.add(id)) {
+				lastUses.put(id, start);
+				for (Image ancestor : graph.getAncestors(id)) {
+					used.add(ancestor.id);
+				}
+			}
+		}
+
+		final Map<String, Long> lastUseById = new HashMap<String, Long>();
+		PriorityQueue<Image> leastRecentlyUsed = new PriorityQueue<Image>(16, new Comparator<Image>() {
+			@Override
+			public int compare(Image a, Image b) {
+				long lastUseA = lastUseById.get(a.id);
+				long lastUseB = lastUseById.get(b.id);
+				return lastUseA < lastUseB ? -1 : lastUseA == lastUseB ? 0 : 1;
+			}
+		});
+		for (Image leaf : graph.getLeaves()) {
+			if (!used.contains(leaf.id)) {
+				lastUseById.put(leaf.id, getLastUse(leaf));
+				leastRecentlyUsed.add(leaf);
+			}
+		}
+		Map<String, Integer> remainingChildren = new HashMap<String, Integer>();
+		while (result.diskUsage > diskBudget && !leastRecentlyUsed.isEmpty()) {
+			Image image = leastRecentlyUsed.poll();
+			try {
+				remove(image);
+			} catch (Exception e) {
+				LOGGER.warn("Failed to remove image " + image.id, e);
+				result.failures.put(image.id, e);
+				continue;
+			}
+			forget(image);
+			result.evicted.add(image.id);
+			long freed = image.size;
+			// the daemon also removes the untagged parents nothing else is built on
+			Image parent = graph.getParent(image.id);
+			while (parent != null) {
+				Integer children = remainingChildren.get(parent.id);
+				children = (children != null ? children : graph.getChildren(parent.id).size()) - 1;
+				remainingChildren.put(parent.id, children);
+				if (children > 0) {
+					break;
+				}
+				if (!isUntagged(parent)) {
+					if (!used.contains(parent.id)) {
+						lastUseById.put(parent.id, getLastUse(parent));
+						leastRecentlyUsed.add(parent);
+					}
+					break;
+				}
+				forget(parent);
+				freed += parent.size;
+				parent = graph.getParent(parent.id);
+			}
+			result.freedBytes += freed;
+			result.diskUsage -= freed;
+		}
+		if (!result.evicted.isEmpty()) {
+			graph.refresh();
+		}
+		result.elapsedMillis = System.currentTimeMillis() - start;
+		LOGGER.info("{}", result);
+		return result;
+	}
+
+	/**
+	 * @return the full id of an image given by full id, short id or tag, {@code null} if it
+	 *         isn't in the graph.
+	 */
+	private String resolve(String image) {
+		if (image == null || graph.contains(image)) {
+			return image;
+		}
+		String name = image.lastIndexOf(':') > image.lastIndexOf('/') ? image : image + ":latest";
+		for (Image candidate : graph.getImages()) {
+			if (candidate.id.startsWith(image)) {
+				return candidate.id;
+			}
+			if (candidate.repoTags != null) {
+				for (String repoTag : candidate.repoTags) {
+					if (name.equals(repoTag)) {
+						return candidate.id;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Untags the image until the daemon removes it with its last tag, as removing a tagged image
+	 * by id fails when it has more than one.
+	 */
+	private void remove(Image image) throws DockerException {
+		if (isUntagged(image)) {
+			dockerClient.removeImage(image.id);
+			return;
+		}
+		for (String repoTag : image.repoTags) {
+			dockerClient.removeImage(repoTag);
+		}
+	}
+
+	private void forget(Image image) {
+		lastUses.remove(image.id);
+		if (image.repoTags != null) {
+			for (String repoTag : image.repoTags) {
+				lastUses.remove(repoTag);
+			}
+		}
+	}
+
+	private static boolean isUntagged(Image image) {
+		if (image.repoTags == null) {
+			return true;
+		}
+		for (String repoTag : image.repoTags) {
+			if (!UNTAGGED.equals(repoTag)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long getDiskBudget() {
+		return diskBudget;
+	}
+
+	/**
+	 * What a {@link ImageGarbageCollector#collect()} pass did.
+	 */
+	public static class Result {
+
+		private final long diskBudget;
+
+		private long diskUsage;
+
+		private long freedBytes;
+
+		private final List<String> evicted = new ArrayList<String>();
+
+		private final Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+
+		private long elapsedMillis;
+
+		Result(long diskBudget) {
+			this.diskBudget = diskBudget;
+		}
+
+		/**
+		 * @return bytes taken up by the images after the pass.
+		 */
+		public long getDiskUsage() {
+			return diskUsage;
+		}
+
+		public long getFreedBytes() {
+			return freedBytes;
+		}
+
+		/**
+		 * @return ids of the removed images, least recently used first, without the untagged
+		 *         parents the daemon removed along with them.
+		 */
+		public List<String> getEvicted() {
+			return Collections.unmodifiableList(evicted);
+		}
+
+		/**
+		 * @return why images could not be removed, by id.
+		 */
+		public Map<String, Exception> getFailures() {
+			return Collections.unmodifiableMap(failures);
+		}
+
+		public boolean isWithinBudget() {
+			return diskUsage <= diskBudget;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d of %d bytes used after evicting %d images (%d bytes) in %d ms, %d failed",
+					diskUsage, diskBudget, evicted.size(), freedBytes, elapsedMillis, failures.size());
+		}
+	}
+
+}
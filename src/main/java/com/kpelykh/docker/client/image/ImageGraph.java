@@ -0,0 +1,316 @@
+package com.kpelykh.docker.client.image;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.model.Image;
+
+/**
+ * Index of all images of a daemon by their parent relation.
+ * <p>
+ * Parent and children of an image are looked up in constant time, and the total {@code Size}
+ * of every subtree is kept up to date, so it is the space freed by removing an image with all
+ * its descendants. {@link #refresh()} applies only the differences to the previous
+ * {@code getImages(true)} snapshot.
+ */
+public class ImageGraph {
+
+	private final DockerClient dockerClient;
+
+	private final Map<String, Node> nodes = new HashMap<String, Node>();
+
+	/** Also holds the children of images not in the graph (yet). */
+	private final Map<String, Set<String>> childrenByParent = new HashMap<String, Set<String>>();
+
+	public ImageGraph() {
+		this(null);
+	}
+
+	/**
+	 * @param dockerClient to {@link #refresh()} the graph from, may be {@code null} if it is only
+	 *        {@link #update(Collection) updated} with snapshots.
+	 */
+	public ImageGraph(DockerClient dockerClient) {
+		this.dockerClient = dockerClient;
+	}
+
+	/**
+	 * Lists all images, including intermediate ones, and applies the differences.
+	 */
+	public Changes refresh() throws DockerException {
+		Preconditions.checkState(dockerClient != null, "No Docker client to refresh from");
+		return update(dockerClient.getImages(true));
+	}
+
+	/**
+	 * Makes the graph match a complete snapshot of the daemon's images.
+	 */
+	public synchronized Changes update(Collection<Image> snapshot) {
+		Map<String, Image> current = new HashMap<String, Image>();
+		for (Image image : snapshot) {
+			current.put(image.id, image);
+		}
+		Changes changes = new Changes();
+		for (String id : new ArrayList<String>(nodes.keySet())) {
+			if (!current.containsKey(id)) {
+				remove(id);
+				changes.removed.add(id);
+			}
+		}
+		for (Image image : current.values()) {
+			Node node = nodes.get(image.id);
+			if (node == null) {
+				add(image);
+				changes.added.add(image.id);
+			} else if (!sameStructure(node.image, image)) {
+				remove(image.id);
+				add(image);
+				changes.updated.add(image.id);
+			} else if (!sameTags(node.image, image)) {
+				node.image = image;
+				changes.updated.add(image.id);
+			}
+		}
+		return changes;
+	}
+
+	private void add(Image image) {
+		Node node = new Node(image);
+		nodes.put(image.id, node);
+		node.subtreeSize = image.size;
+		for (String child : children(image.id)) {
+			node.subtreeSize += nodes.get(child).subtreeSize;
+		}
+		if (!StringUtils.isEmpty(image.parentId)) {
+			Set<String> siblings = childrenByParent.get(image.parentId);
+			if (siblings == null) {
+				siblings = new LinkedHashSet<String>();
+				childrenByParent.put(image.parentId, siblings);
+			}
+			siblings.add(image.id);
+		}
+		addToAncestors(node, node.subtreeSize);
+	}
+
+	private void remove(String id) {
+		Node node = nodes.remove(id);
+		addToAncestors(node, -node.subtreeSize);
+		String parentId = node.image.parentId;
+		if (!StringUtils.isEmpty(parentId)) {
+			Set<String> siblings = childrenByParent.get(parentId);
+			siblings.remove(id);
+			if (siblings.isEmpty()) {
+				childrenByParent.remove(parentId);
+			}
+		}
+	}
+
+	private void addToAncestors(Node node, long size) {
+		Node ancestor = parent(node);
+		while (ancestor != null) {
+			ancestor.subtreeSize += size;
+			ancestor = parent(ancestor);
+		}
+	}
+
+	private Node parent(Node node) {
+		return StringUtils.isEmpty(node.image.parentId) ? null : nodes.get(node.image.parentId);
+	}
+
+	private Set<String> children(String id) {
+		Set<String> children = childrenByParent.get(id);
+		return children != null ? children : Collections.<String> emptySet();
+	}
+
+	private static boolean sameStructure(Image a, Image b) {
+		return a.size == b.size && a.virtualSize == b.virtualSize && ObjectUtils.equals(a.parentId, b.parentId);
+	}
+
+	private static boolean sameTags(Image a, Image b) {
+		return Arrays.equals(a.repoTags, b.repoTags) && ObjectUtils.equals(a.repository, b.repository)
+				&& ObjectUtils.equals(a.tag, b.tag);
+	}
+
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	public synchronized boolean contains(String id) {
+		return nodes.containsKey(id);
+	}
+
+	/**
+	 * @return the image with the full id, {@code null} if it is not in the graph.
+	 */
+	public synchronized Image getImage(String id) {
+		Node node = nodes.get(id);
+		return node != null ? node.image : null;
+	}
+
+	public synchronized List<Image> getImages() {
+		List<Image> images = new ArrayList<Image>(nodes.size());
+		for (Node node : nodes.values()) {
+			images.add(node.image);
+		}
+		return images;
+	}
+
+	/**
+	 * @return the parent image, {@code null} for base images and unknown images.
+	 */
+	public synchronized Image getParent(String id) {
+		Node node = nodes.get(id);
+		Node parent = node != null ? parent(node) : null;
+		return parent != null ? parent.image : null;
+	}
+
+	public synchronized List<Image> getChildren(String id) {
+		List<Image> children = new ArrayList<Image>();
+		for (String child : children(id)) {
+			children.add(nodes.get(child).image);
+		}
+		return children;
+	}
+
+	/**
+	 * @return all images built on the image, breadth first.
+	 */
+	public synchronized List<Image> getDescendants(String id) {
+		List<Image> descendants = new ArrayList<Image>();
+		LinkedList<String> queue = new LinkedList<String>(children(id));
+		while (!queue.isEmpty()) {
+			String descendant = queue.removeFirst();
+			descendants.add(nodes.get(descendant).image);
+			queue.addAll(children(descendant));
+		}
+		return descendants;
+	}
+
+	/**
+	 * @return the image's parent, its parent's parent and so on, nearest first.
+	 */
+	public synchronized List<Image> getAncestors(String id) {
+		List<Image> ancestors = new ArrayList<Image>();
+		Node node = nodes.get(id);
+		while (node != null && (node = parent(node)) != null) {
+			ancestors.add(node.image);
+		}
+		return ancestors;
+	}
+
+	/**
+	 * @return images without a parent in the graph.
+	 */
+	public synchronized List<Image> getRoots() {
+		List<Image> roots = new ArrayList<Image>();
+		for (Node node : nodes.values()) {
+			if (parent(node) == null) {
+				roots.add(node.image);
+			}
+		}
+		return roots;
+	}
+
+	/**
+	 * @return images no other image is built on.
+	 */
+	public synchronized List<Image> getLeaves() {
+		List<Image> leaves = new ArrayList<Image>();
+		for (Node node : nodes.values()) {
+			if (children(node.image.id).isEmpty()) {
+				leaves.add(node.image);
+			}
+		}
+		return leaves;
+	}
+
+	/**
+	 * @return the {@code Size} of the image and all its descendants, i.e. the space freed by
+	 *         removing them. 0 for unknown images.
+	 */
+	public synchronized long getSubtreeSize(String id) {
+		Node node = nodes.get(id);
+		return node != null ? node.subtreeSize : 0;
+	}
+
+	/**
+	 * @return the {@code VirtualSize} of the image, or the sizes of it and its ancestors added up
+	 *         for daemons which don't report it.
+	 */
+	public synchronized long getVirtualSize(String id) {
+		Node node = nodes.get(id);
+		if (node == null) {
+			return 0;
+		}
+		if (node.image.virtualSize > 0) {
+			return node.image.virtualSize;
+		}
+		long size = node.image.size;
+		for (Image ancestor : getAncestors(id)) {
+			size += ancestor.size;
+		}
+		return size;
+	}
+
+	private static class Node {
+
+		Image image;
+
+		long subtreeSize;
+
+		Node(Image image) {
+			this.image = image;
+		}
+	}
+
+	/**
+	 * Ids of the images which changed with an update.
+	 */
+	public static class Changes {
+
+		private final List<String> added = new ArrayList<String>();
+
+		private final List<String> removed = new ArrayList<String>();
+
+		private final List<String> updated = new ArrayList<String>();
+
+		public List<String> getAdded() {
+			return Collections.unmodifiableList(added);
+		}
+
+		public List<String> getRemoved() {
+			return Collections.unmodifiableList(removed);
+		}
+
+		/**
+		 * @return images which are still there, but e.g. got tagged differently.
+		 */
+		public List<String> getUpdated() {
+			return Collections.unmodifiableList(updated);
+		}
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty() && updated.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d added, %d removed, %d updated", added.size(), removed.size(), updated.size());
+		}
+	}
+
+}
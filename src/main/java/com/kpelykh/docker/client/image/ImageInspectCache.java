@@ -0,0 +1,189 @@
+package com.kpelykh.docker.client.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.model.ImageInspectResponse;
+
+/**
+ * Inspected images by full id, which never change, plus a short lived resolution of tags and
+ * short ids to full ids, which may move at any time.
+ * <p>
+ * Both are bounded to {@code maxImages} entries, evicting the least recently used ones. Cached
+ * responses are shared by all callers and must not be modified.
+ */
+public class ImageInspectCache {
+
+	private static final Pattern FULL_ID = Pattern.compile("[0-9a-f]{64}");
+
+	private final int maxImages;
+
+	private final long tagTtlMillis;
+
+	private final Map<String, ImageInspectResponse> byId;
+
+	private final Map<String, ResolvedName> byName;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param tagTtlMillis how long a tag or short id is assumed to point to the same image.
+	 */
+	public ImageInspectCache(final int maxImages, long tagTtlMillis) {
+		Preconditions.checkArgument(maxImages > 0, "Max images must be positive: %s", maxImages);
+		Preconditions.checkArgument(tagTtlMillis >= 0, "Tag TTL can't be negative: %s", tagTtlMillis);
+		this.maxImages = maxImages;
+		this.tagTtlMillis = tagTtlMillis;
+		this.byId = new LinkedHashMap<String, ImageInspectResponse>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ImageInspectResponse> eldest) {
+				return size() > maxImages;
+			}
+		};
+		this.byName = new LinkedHashMap<String, ResolvedName>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ResolvedName> eldest) {
+				return size() > maxImages;
+			}
+		};
+	}
+
+	public static boolean isFullId(String image) {
+		return FULL_ID.matcher(image).matches();
+	}
+
+	/**
+	 * @param image a full id, short id or tag.
+	 * @return the cached response, {@code null} if the image has to be inspected.
+	 */
+	public synchronized ImageInspectResponse get(String image) {
+		String id = image;
+		if (!isFullId(image)) {
+			ResolvedName resolved = byName.get(image);
+			if (resolved == null || resolved.expiresMillis < System.currentTimeMillis()) {
+				byName.remove(image);
+				misses.incrementAndGet();
+				return null;
+			}
+			id = resolved.id;
+		}
+		ImageInspectResponse response = byId.get(id);
+		if (response == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return response;
+	}
+
+	/**
+	 * Remembers the response for its id and, if {@code image} is a tag or short id, the id it
+	 * resolved to.
+	 */
+	public synchronized void put(String image, ImageInspectResponse response) {
+		if (response.id == null || !isFullId(response.id)) {
+			return;
+		}
+		byId.put(response.id, response);
+		if (!image.equals(response.id)) {
+			byName.put(image, new ResolvedName(response.id, System.currentTimeMillis() + tagTtlMillis));
+		}
+	}
+
+	/**
+	 * Forgets the image and all names resolving to it, or just the name if it isn't cached.
+	 *
+	 * @param image a full id, short id or tag.
+	 */
+	public synchronized void invalidate(String image) {
+		String id = null;
+		if (isFullId(image)) {
+			id = image;
+		} else {
+			ResolvedName resolved = byName.remove(image);
+			if (resolved != null) {
+				id = resolved.id;
+			} else {
+				for (String cachedId : byId.keySet()) {
+					if (cachedId.startsWith(image)) {
+						id = cachedId;
+						break;
+					}
+				}
+			}
+		}
+		if (id == null) {
+			return;
+		}
+		byId.remove(id);
+		for (Iterator<ResolvedName> names = byName.values().iterator(); names.hasNext();) {
+			if (names.next().id.equals(id)) {
+				names.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the image a name resolves to, keeping the image itself, e.g. after the tag moved.
+	 */
+	public synchronized void invalidateName(String name) {
+		byName.remove(name);
+	}
+
+	/**
+	 * Forgets what all names resolve to, keeping the images, e.g. after many tags may have moved.
+	 */
+	public synchronized void invalidateNames() {
+		byName.clear();
+	}
+
+	public synchronized void clear() {
+		byId.clear();
+		byName.clear();
+	}
+
+	public synchronized int size() {
+		return byId.size();
+	}
+
+	public int getMaxImages() {
+		return maxImages;
+	}
+
+	public long getTagTtlMillis() {
+		return tagTtlMillis;
+	}
+
+	/**
+	 * @return the number of inspections answered from the cache.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of inspections which went to the daemon.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private static class ResolvedName {
+
+		final String id;
+
+		final long expiresMillis;
+
+		ResolvedName(String id, long expiresMillis) {
+			this.id = id;
+			this.expiresMillis = expiresMillis;
+		}
+	}
+
+}
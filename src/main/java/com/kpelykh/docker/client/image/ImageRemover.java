@@ -0,0 +1,291 @@
+package com.kpelykh.docker.client.image;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.model.Image;
+
+/**
+ * Removes many images concurrently, each only after the images built on it are gone.
+ * <p>
+ * The daemon refuses to remove an image other images are built on, so the parent relations of
+ * an {@link ImageGraph} order the removals leaves first, while unrelated images are removed at
+ * the same time, at most {@code maxConcurrentRemovals} at once. An image which still has
+ * descendants that are not being removed is skipped right away, and so are the ancestors of a
+ * failed removal. Images removed by tag are removed before the same image requested by id.
+ */
+public class ImageRemover {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageRemover.class);
+
+	private static final String UNTAGGED = "<none>:<none>";
+
+	private final DockerClient dockerClient;
+
+	private final ImageGraph graph;
+
+	private final int maxConcurrentRemovals;
+
+	public ImageRemover(DockerClient dockerClient, int maxConcurrentRemovals) {
+		this(dockerClient, new ImageGraph(dockerClient), maxConcurrentRemovals);
+	}
+
+	/**
+	 * @param graph refreshed before every removal, may be shared with other users.
+	 */
+	public ImageRemover(DockerClient dockerClient, ImageGraph graph, int maxConcurrentRemovals) {
+		Preconditions.checkNotNull(dockerClient, "Docker client can't be null");
+		Preconditions.checkNotNull(graph, "Image graph can't be null");
+		Preconditions.checkArgument(maxConcurrentRemovals > 0, "Max concurrent removals must be positive: %s",
+				maxConcurrentRemovals);
+		this.dockerClient = dockerClient;
+		this.graph = graph;
+		this.maxConcurrentRemovals = maxConcurrentRemovals;
+	}
+
+	/**
+	 * Removes the images and waits for them.
+	 *
+	 * @param images full ids, short ids or tags.
+	 * @throws DockerException if the images can't be listed. Failed removals are reported in the
+	 *         result instead.
+	 */
+	public RemovalReport remove(Collection<String> images) throws DockerException {
+		Preconditions.checkNotNull(images, "Images can't be null");
+		final long start = System.currentTimeMillis();
+		graph.refresh();
+
+		List<RemovalReport.Entry> entries = new ArrayList<RemovalReport.Entry>();
+		Map<String, List<RemovalReport.Entry>> entriesById = new HashMap<String, List<RemovalReport.Entry>>();
+		for (String image : new LinkedHashSet<String>(images)) {
+			RemovalReport.Entry entry = new RemovalReport.Entry(image, resolve(image));
+			entries.add(entry);
+			if (entry.getImageId() == null) {
+				entry.status = RemovalReport.Status.NOT_FOUND;
+				continue;
+			}
+			List<RemovalReport.Entry> sameImage = entriesById.get(entry.getImageId());
+			if (sameImage == null) {
+				sameImage = new ArrayList<RemovalReport.Entry>();
+				entriesById.put(entry.getImageId(), sameImage);
+			}
+			sameImage.add(entry);
+		}
+
+		// removals each removal has to wait for, and the other way round
+		Map<RemovalReport.Entry, List<RemovalReport.Entry>> dependents = new HashMap<RemovalReport.Entry, List<RemovalReport.Entry>>();
+		Map<RemovalReport.Entry, Integer> waitingFor = new HashMap<RemovalReport.Entry, Integer>();
+		for (RemovalReport.Entry entry : entries) {
+			dependents.put(entry, new ArrayList<RemovalReport.Entry>());
+			waitingFor.put(entry, 0);
+		}
+		Map<String, Boolean> gone = new HashMap<String, Boolean>();
+		for (Map.Entry<String, List<RemovalReport.Entry>> sameImage : entriesById.entrySet()) {
+			String id = sameImage.getKey();
+			List<RemovalReport.Entry> byTag = new ArrayList<RemovalReport.Entry>();
+			List<RemovalReport.Entry> byId = new ArrayList<RemovalReport.Entry>();
+			for (RemovalReport.Entry entry : sameImage.getValue()) {
+				(isTag(entry.getImage()) ? byTag : byId).add(entry);
+			}
+			for (RemovalReport.Entry entry : byTag) {
+				dependOn(byId, entry, dependents, waitingFor);
+			}
+			for (Image ancestor : graph.getAncestors(id)) {
+				List<RemovalReport.Entry> ancestorEntries = entriesById.get(ancestor.id);
+				if (ancestorEntries != null) {
+					for (RemovalReport.Entry entry : sameImage.getValue()) {
+						dependOn(ancestorEntries, entry, dependents, waitingFor);
+					}
+					break;
+				}
+			}
+		}
+		for (Map.Entry<String, List<RemovalReport.Entry>> sameImage : entriesById.entrySet()) {
+			int blocking = 0;
+			for (Image child : graph.getChildren(sameImage.getKey())) {
+				if (!isGone(child, entriesById.keySet(), gone)) {
+					blocking++;
+				}
+			}
+			if (blocking > 0) {
+				for (RemovalReport.Entry entry : sameImage.getValue()) {
+					skip(entry, blocking + " images built on it are not being removed", dependents);
+				}
+			}
+		}
+
+		int removals = 0;
+		for (RemovalReport.Entry entry : entries) {
+			if (entry.status == null) {
+				removals++;
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentRemovals, Math.max(1, removals)));
+		CompletionService<RemovalReport.Entry> completion = new ExecutorCompletionService<RemovalReport.Entry>(executor);
+		int running = 0;
+		try {
+			for (RemovalReport.Entry entry : entries) {
+				if (entry.status == null && waitingFor.get(entry) == 0) {
+					completion.submit(new ImageRemoval(entry));
+					running++;
+				}
+			}
+			while (running > 0) {
+				RemovalReport.Entry done = completion.take().get();
+				running--;
+				for (RemovalReport.Entry dependent : dependents.get(done)) {
+					if (done.status != RemovalReport.Status.REMOVED) {
+						skip(dependent, "Removal of '" + done.getImage() + "' failed", dependents);
+					} else if (waitingFor.put(dependent, waitingFor.get(dependent) - 1) == 1 && dependent.status == null) {
+						completion.submit(new ImageRemoval(dependent));
+						running++;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerException("Interrupted while removing images", e);
+		} catch (ExecutionException e) {
+			// ImageRemoval catches everything, so this is a bug
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		RemovalReport report = new RemovalReport(entries, System.currentTimeMillis() - start);
+		LOGGER.info("{}", report);
+		return report;
+	}
+
+	/**
+	 * @return the full id of the image, {@code null} if it doesn't exist.
+	 */
+	private String resolve(String image) {
+		if (graph.contains(image)) {
+			return image;
+		}
+		String name = image.lastIndexOf(':') > image.lastIndexOf('/') ? image : image + ":latest";
+		for (Image candidate : graph.getImages()) {
+			if (candidate.repoTags != null) {
+				for (String repoTag : candidate.repoTags) {
+					if (name.equals(repoTag)) {
+						return candidate.id;
+					}
+				}
+			}
+		}
+		String found = null;
+		for (Image candidate : graph.getImages()) {
+			if (candidate.id.startsWith(image)) {
+				if (found != null) {
+					// ambiguous, let the daemon complain
+					return image;
+				}
+				found = candidate.id;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Names which can't be short ids are removed before the id itself, which the daemon refuses
+	 * while it is still tagged.
+	 */
+	private static boolean isTag(String image) {
+		return !image.matches("[0-9a-f]+");
+	}
+
+	/**
+	 * @return whether the image will be gone once the removal is through: it's removed itself, or
+	 *         the daemon removes it along with the last image built on it, for untagged layers.
+	 */
+	private boolean isGone(Image image, Set<String> removed, Map<String, Boolean> gone) {
+		Boolean known = gone.get(image.id);
+		if (known != null) {
+			return known;
+		}
+		boolean result = removed.contains(image.id);
+		if (!result && isUntagged(image)) {
+			List<Image> children = graph.getChildren(image.id);
+			result = !children.isEmpty();
+			for (Image child : children) {
+				result &= isGone(child, removed, gone);
+			}
+		}
+		gone.put(image.id, result);
+		return result;
+	}
+
+	private static boolean isUntagged(Image image) {
+		if (image.repoTags == null) {
+			return true;
+		}
+		for (String repoTag : image.repoTags) {
+			if (!UNTAGGED.equals(repoTag)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void dependOn(List<RemovalReport.Entry> entries, RemovalReport.Entry first,
+			Map<RemovalReport.Entry, List<RemovalReport.Entry>> dependents, Map<RemovalReport.Entry, Integer> waitingFor) {
+		for (RemovalReport.Entry entry : entries) {
+			dependents.get(first).add(entry);
+			waitingFor.put(entry, waitingFor.get(entry) + 1);
+		}
+	}
+
+	private static void skip(RemovalReport.Entry entry, String reason,
+			Map<RemovalReport.Entry, List<RemovalReport.Entry>> dependents) {
+		if (entry.status != null) {
+			return;
+		}
+		entry.status = RemovalReport.Status.SKIPPED;
+		entry.reason = reason;
+		for (RemovalReport.Entry dependent : dependents.get(entry)) {
+			skip(dependent, "Removal of '" + entry.getImage() + "' was skipped", dependents);
+		}
+	}
+
+	private class ImageRemoval implements Callable<RemovalReport.Entry> {
+
+		private final RemovalReport.Entry entry;
+
+		ImageRemoval(RemovalReport.Entry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public RemovalReport.Entry call() {
+			LOGGER.debug("Removing image '{}'", entry.getImage());
+			try {
+				dockerClient.removeImage(entry.getImage());
+				entry.status = RemovalReport.Status.REMOVED;
+			} catch (Exception e) {
+				LOGGER.warn("Removal of image '" + entry.getImage() + "' failed", e);
+				entry.error = e;
+				entry.status = RemovalReport.Status.FAILED;
+			}
+			return entry;
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.kpelykh.docker.client.image;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.model.SearchItem;
+
+/**
+ * Results of searches on the index by term, for {@code ttlMillis} each.
+ * <p>
+ * A search for a term already being searched waits for that search instead of asking the
+ * index again. Failed searches are not cached. At most {@code maxTerms} results are kept,
+ * evicting the least recently used ones. Cached results are shared by all callers and must
+ * not be modified.
+ */
+public class ImageSearchCache {
+
+	private final int maxTerms;
+
+	private final long ttlMillis;
+
+	private final Map<String, Search> searches;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong upstreamSearches = new AtomicLong();
+
+	private final AtomicLong upstreamNanos = new AtomicLong();
+
+	private final AtomicLong maxUpstreamNanos = new AtomicLong();
+
+	public ImageSearchCache(final int maxTerms, long ttlMillis) {
+		Preconditions.checkArgument(maxTerms > 0, "Max terms must be positive: %s", maxTerms);
+		Preconditions.checkArgument(ttlMillis >= 0, "TTL can't be negative: %s", ttlMillis);
+		this.maxTerms = maxTerms;
+		this.ttlMillis = ttlMillis;
+		this.searches = new LinkedHashMap<String, Search>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Search> eldest) {
+				return size() > maxTerms;
+			}
+		};
+	}
+
+	/**
+	 * @param upstream searches the index, if neither a result nor a running search for the term
+	 *        is there.
+	 */
+	public List<SearchItem> get(String term, Callable<List<SearchItem>> upstream) throws DockerException {
+		Search search;
+		boolean run = false;
+		synchronized (this) {
+			search = searches.get(term);
+			if (search != null && !search.isDone()) {
+				coalesced.incrementAndGet();
+			} else if (search != null && search.expiresMillis >= System.currentTimeMillis()) {
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+				search = new Search(upstream);
+				searches.put(term, search);
+				run = true;
+			}
+		}
+		if (run) {
+			long start = System.nanoTime();
+			search.run();
+			long nanos = System.nanoTime() - start;
+			upstreamNanos.addAndGet(nanos);
+			upstreamSearches.incrementAndGet();
+			synchronized (maxUpstreamNanos) {
+				maxUpstreamNanos.set(Math.max(maxUpstreamNanos.get(), nanos));
+			}
+		}
+		try {
+			return search.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DockerException("Interrupted while searching for " + term, e);
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				if (searches.get(term) == search) {
+					searches.remove(term);
+				}
+			}
+			if (e.getCause() instanceof DockerException) {
+				throw (DockerException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new DockerException("Search for " + term + " failed", e.getCause());
+		}
+	}
+
+	public synchronized void invalidate(String term) {
+		searches.remove(term);
+	}
+
+	public synchronized void clear() {
+		searches.clear();
+	}
+
+	public synchronized int size() {
+		return searches.size();
+	}
+
+	public int getMaxTerms() {
+		return maxTerms;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * @return the number of searches answered with a cached result.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of searches which waited for the same search of another caller.
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return the number of searches which went to the index.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the share of searches which didn't go to the index, 0 before the first one.
+	 */
+	public double getHitRatio() {
+		long answered = hits.get() + coalesced.get();
+		long total = answered + misses.get();
+		return total > 0 ? (double) answered / total : 0;
+	}
+
+	/**
+	 * @return how long searches on the index took on average, 0 before the first one.
+	 */
+	public double getAverageUpstreamMillis() {
+		long upstream = upstreamSearches.get();
+		return upstream > 0 ? upstreamNanos.get() / 1000000.0 / upstream : 0;
+	}
+
+	public double getMaxUpstreamMillis() {
+		return maxUpstreamNanos.get() / 1000000.0;
+	}
+
+	private class Search extends FutureTask<List<SearchItem>> {
+
+		/** Set along with the result, stays 0 if the search fails. */
+		volatile long expiresMillis;
+
+		Search(final Callable<List<SearchItem>> upstream) {
+			super(new Callable<List<SearchItem>>() {
+				@Override
+				public List<SearchItem> call() throws Exception {
+					return Collections.unmodifiableList(upstream.call());
+				}
+			});
+		}
+
+		@Override
+		protected void set(List<SearchItem> result) {
+			expiresMillis = System.currentTimeMillis() + ttlMillis;
+			super.set(result);
+		}
+	}
+
+}
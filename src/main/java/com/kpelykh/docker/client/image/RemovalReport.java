@@ -0,0 +1,143 @@
+package com.kpelykh.docker.client.image;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of every image removed by an {@link ImageRemover}.
+ */
+public class RemovalReport {
+
+	public enum Status {
+		REMOVED,
+		/** Didn't exist when the removal started. */
+		NOT_FOUND,
+		FAILED,
+		/** Not attempted because an image built on it failed or is not being removed. */
+		SKIPPED
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	private final long elapsedMillis;
+
+	RemovalReport(List<Entry> entries, long elapsedMillis) {
+		for (Entry entry : entries) {
+			this.entries.put(entry.getImage(), entry);
+		}
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+	}
+
+	/**
+	 * @param image as passed to the remover.
+	 */
+	public Entry getEntry(String image) {
+		return entries.get(image);
+	}
+
+	public List<Entry> getEntries(Status status) {
+		List<Entry> matching = new ArrayList<Entry>();
+		for (Entry entry : entries.values()) {
+			if (entry.getStatus() == status) {
+				matching.add(entry);
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * @return whether all images are gone.
+	 */
+	public boolean isSuccessful() {
+		for (Entry entry : entries.values()) {
+			if (entry.getStatus() != Status.REMOVED && entry.getStatus() != Status.NOT_FOUND) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		Map<Status, Integer> counts = new LinkedHashMap<Status, Integer>();
+		for (Status status : Status.values()) {
+			counts.put(status, getEntries(status).size());
+		}
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%d images in %d ms: %s", entries.size(), elapsedMillis, counts));
+		for (Entry entry : entries.values()) {
+			if (entry.getStatus() == Status.FAILED || entry.getStatus() == Status.SKIPPED) {
+				report.append(String.format("%n  %-9s %s: %s", entry.getStatus(), entry.getImage(),
+						entry.getError() != null ? entry.getError().getMessage() : entry.getReason()));
+			}
+		}
+		return report.toString();
+	}
+
+	public static class Entry {
+
+		private final String image;
+
+		private final String imageId;
+
+		Status status;
+
+		Exception error;
+
+		String reason;
+
+		Entry(String image, String imageId) {
+			this.image = image;
+			this.imageId = imageId;
+		}
+
+		/**
+		 * @return the id or tag as passed to the remover.
+		 */
+		public String getImage() {
+			return image;
+		}
+
+		/**
+		 * @return the full id the image resolved to, {@code null} if it didn't exist.
+		 */
+		public String getImageId() {
+			return imageId;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return why the removal failed, {@code null} unless it did.
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		/**
+		 * @return why the image was skipped, {@code null} unless it was.
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		@Override
+		public String toString() {
+			return image + ":" + status;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.kpelykh.docker.client.pull;
+
+/**
+ * One progress message of an image pull, usually about a single layer.
+ */
+public class PullEvent {
+
+	private final String image;
+
+	private final String layerId;
+
+	private final String status;
+
+	private final String progress;
+
+	private final long current;
+
+	private final long total;
+
+	private final String error;
+
+	public PullEvent(String image, String layerId, String status, String progress, long current, long total, String error) {
+		this.image = image;
+		this.layerId = layerId;
+		this.status = status;
+		this.progress = progress;
+		this.current = current;
+		this.total = total;
+		this.error = error;
+	}
+
+	/**
+	 * @return the image being pulled, as requested.
+	 */
+	public String getImage() {
+		return image;
+	}
+
+	/**
+	 * @return the short id of the layer the event is about, {@code null} for events about the
+	 *         whole image.
+	 */
+	public String getLayerId() {
+		return layerId;
+	}
+
+	/**
+	 * @return what the daemon is doing, e.g. {@code Downloading} or {@code Download complete}.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the progress as formatted by the daemon, e.g. {@code [==>   ] 1.2 MB/5.6 MB}, or
+	 *         {@code null}.
+	 */
+	public String getProgress() {
+		return progress;
+	}
+
+	/**
+	 * @return the bytes of the layer downloaded or extracted so far, -1 if not reported.
+	 */
+	public long getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return the size of the layer, -1 if not reported.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public boolean isError() {
+		return error != null;
+	}
+
+	/**
+	 * @return the error message if the pull failed, {@code null} otherwise.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		if (error != null) {
+			return image + ": " + error;
+		}
+		StringBuilder text = new StringBuilder(image).append(": ");
+		if (layerId != null) {
+			text.append(layerId).append(' ');
+		}
+		text.append(status);
+		if (progress != null) {
+			text.append(' ').append(progress);
+		}
+		return text.toString();
+	}
+
+}
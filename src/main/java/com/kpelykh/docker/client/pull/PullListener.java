@@ -0,0 +1,11 @@
+package com.kpelykh.docker.client.pull;
+
+/**
+ * Receives the progress of image pulls as it arrives from the daemon. Called concurrently when
+ * several images are pulled at once.
+ */
+public interface PullListener {
+
+	void onEvent(PullEvent event);
+
+}
@@ -0,0 +1,105 @@
+package com.kpelykh.docker.client.pull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads the JSON progress messages of {@code /images/create} incrementally and turns them into
+ * {@link PullEvent}s.
+ * <p>
+ * Layer sizes come from {@code progressDetail} where the daemon reports it; older daemons only
+ * send the formatted {@code progress}.
+ */
+public class PullOutputReader implements Closeable {
+
+	private static final JsonFactory JSON_FACTORY = new ObjectMapper().getJsonFactory();
+
+	private final String image;
+
+	private final InputStream in;
+
+	private JsonParser json;
+
+	private String error;
+
+	public PullOutputReader(InputStream in, String image) {
+		Preconditions.checkNotNull(in, "Pull output can't be null");
+		this.in = in;
+		this.image = image;
+	}
+
+	/**
+	 * @return the next event, or {@code null} once the output ended.
+	 */
+	public PullEvent next() throws IOException {
+		if (json == null) {
+			json = JSON_FACTORY.createJsonParser(in);
+		}
+		while (true) {
+			JsonToken token = json.nextToken();
+			if (token == null) {
+				return null;
+			}
+			if (token != JsonToken.START_OBJECT) {
+				throw new IOException("Unexpected pull output " + token);
+			}
+			JsonNode message = json.readValueAsTree();
+			if (message.has("error")) {
+				JsonNode detail = message.path("errorDetail").path("message");
+				String text = detail.isTextual() ? detail.getTextValue() : message.get("error").asText();
+				if (error == null) {
+					error = text;
+				}
+				return new PullEvent(image, null, null, null, -1, -1, text);
+			}
+			if (message.has("status")) {
+				JsonNode detail = message.path("progressDetail");
+				return new PullEvent(image, textOrNull(message.get("id")), message.get("status").asText(),
+						textOrNull(message.get("progress")), detail.path("current").asLong(-1),
+						detail.path("total").asLong(-1), null);
+			}
+		}
+	}
+
+	/**
+	 * Reads the remaining output, passing every event to the listener.
+	 *
+	 * @param listener may be {@code null} to just wait for the pull to finish.
+	 * @return the first error reported, {@code null} if the pull succeeded.
+	 */
+	public String readAll(PullListener listener) throws IOException {
+		PullEvent event;
+		while ((event = next()) != null) {
+			if (listener != null) {
+				listener.onEvent(event);
+			}
+		}
+		return error;
+	}
+
+	/**
+	 * @return the first error reported by the daemon, once read.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private static String textOrNull(JsonNode node) {
+		return node == null || node.isNull() || node.asText().length() == 0 ? null : node.asText();
+	}
+
+}
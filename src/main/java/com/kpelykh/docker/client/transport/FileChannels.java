@@ -0,0 +1,119 @@
+package com.kpelykh.docker.client.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Streams files to and from HTTP bodies through a {@link FileChannel}, in chunks of at most 1 MB.
+ * The HTTP side is a stream wrapped by {@link Channels#newChannel}, so the bytes are still
+ * copied through a small buffer, but memory use stays bounded whatever the size of the file.
+ */
+public final class FileChannels {
+
+	private static final long CHUNK_SIZE = 1024 * 1024;
+
+	private FileChannels() {
+	}
+
+	/**
+	 * Writes the stream to the end into the file.
+	 *
+	 * @param totalBytes expected, for the listener only, -1 if unknown.
+	 * @param listener may be {@code null}.
+	 * @return the bytes written.
+	 */
+	public static long copy(InputStream in, File file, long totalBytes, TransferListener listener) throws IOException {
+		ReadableByteChannel source = Channels.newChannel(in);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			long position = 0;
+			long transferred;
+			while ((transferred = channel.transferFrom(source, position, CHUNK_SIZE)) > 0) {
+				position += transferred;
+				if (listener != null) {
+					listener.onProgress(position, totalBytes);
+				}
+			}
+			return position;
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return a repeatable, fixed length request body with the content of the file.
+	 */
+	public static AbstractHttpEntity entity(File file, String contentType, TransferListener listener) {
+		FileChannelEntity entity = new FileChannelEntity(file, listener);
+		entity.setContentType(contentType);
+		return entity;
+	}
+
+	private static class FileChannelEntity extends AbstractHttpEntity {
+
+		private final File file;
+
+		private final TransferListener listener;
+
+		FileChannelEntity(File file, TransferListener listener) {
+			this.file = file;
+			this.listener = listener;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+
+		@Override
+		public long getContentLength() {
+			return file.length();
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new FileInputStream(file);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			WritableByteChannel target = Channels.newChannel(out);
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				long position = 0;
+				while (position < size) {
+					long transferred = channel.transferTo(position, Math.min(CHUNK_SIZE, size - position), target);
+					if (transferred <= 0) {
+						throw new IOException(file + " shrank to " + channel.size() + " bytes while sending " + size);
+					}
+					position += transferred;
+					if (listener != null) {
+						listener.onProgress(position, size);
+					}
+				}
+				out.flush();
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.kpelykh.docker.client.transport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * Live body of a Docker daemon response, read straight from the connection without buffering
+ * it on the heap.
+ * <p>
+ * Reading to the end returns the connection to the pool. Closing the stream earlier aborts the
+ * exchange and closes the connection, so streams which never end (e.g. attach with
+ * {@code stream=1}) can be abandoned at any time.
+ */
+public class HttpResponseInputStream extends FilterInputStream {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final InputStream EMPTY = new InputStream() {
+		@Override
+		public int read() {
+			return -1;
+		}
+	};
+
+	private final HttpUriRequest request;
+
+	private final HttpResponse response;
+
+	private boolean eof;
+
+	private boolean closed;
+
+	HttpResponseInputStream(HttpUriRequest request, HttpResponse response, InputStream body) {
+		super(body);
+		this.request = request;
+		this.response = response;
+	}
+
+	/**
+	 * Executes the request and hands out the response body as soon as the headers arrived.
+	 *
+	 * @throws HttpClientErrorException for 4xx responses, like {@code RestTemplate}.
+	 * @throws HttpServerErrorException for 5xx responses, like {@code RestTemplate}.
+	 */
+	public static HttpResponseInputStream open(HttpClient httpClient, HttpUriRequest request) throws IOException {
+		HttpResponse response = httpClient.execute(request);
+		checkStatus(response);
+		HttpEntity entity = response.getEntity();
+		InputStream body = entity != null ? entity.getContent() : EMPTY;
+		return new HttpResponseInputStream(request, response, body);
+	}
+
+	/**
+	 * Translates error responses into the exceptions {@code RestTemplate} throws. The response is
+	 * consumed in that case.
+	 */
+	public static void checkStatus(HttpResponse response) throws IOException {
+		StatusLine statusLine = response.getStatusLine();
+		int statusCode = statusLine.getStatusCode();
+		if (statusCode < 400) {
+			return;
+		}
+		HttpEntity entity = response.getEntity();
+		byte[] body = entity != null ? EntityUtils.toByteArray(entity) : new byte[0];
+		HttpStatus status = HttpStatus.valueOf(statusCode);
+		if (statusCode < 500) {
+			throw new HttpClientErrorException(status, statusLine.getReasonPhrase(), body, UTF_8);
+		}
+		throw new HttpServerErrorException(status, statusLine.getReasonPhrase(), body, UTF_8);
+	}
+
+	public HttpResponse getResponse() {
+		return response;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int read = super.read();
+		eof = read == -1;
+		return read;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		eof = read == -1;
+		return read;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (eof) {
+			// fully read, the connection goes back to the pool
+			super.close();
+		} else {
+			// draining an endless or huge body would block, drop the connection instead
+			request.abort();
+		}
+	}
+
+}
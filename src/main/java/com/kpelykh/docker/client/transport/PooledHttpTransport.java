@@ -0,0 +1,235 @@
+package com.kpelykh.docker.client.transport;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keep-alive HTTP transport to the Docker daemon backed by a pool of persistent connections.
+ * <p>
+ * All limits can be changed at runtime. Connections which have been idle for longer than the
+ * configured idle timeout are closed by a background evictor thread.
+ */
+public class PooledHttpTransport implements DisposableBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PooledHttpTransport.class);
+
+	public static final int DEFAULT_MAX_TOTAL = 100;
+
+	public static final int DEFAULT_MAX_PER_ROUTE = 50;
+
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+	public static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 5000;
+
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * URL scheme routed to the Unix domain socket by {@link #forUnixSocket(File)}.
+	 */
+	public static final String UNIX_SCHEME = "unix";
+
+	private final PoolingClientConnectionManager connectionManager;
+
+	private final DefaultHttpClient httpClient;
+
+	private final IdleConnectionEvictor evictor;
+
+	private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+	private volatile long evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+
+	public PooledHttpTransport() {
+		this(SchemeRegistryFactory.createDefault());
+	}
+
+	public PooledHttpTransport(SchemeRegistry schemeRegistry) {
+		Preconditions.checkNotNull(schemeRegistry, "Scheme registry can't be null");
+
+		connectionManager = new PoolingClientConnectionManager(schemeRegistry);
+		connectionManager.setMaxTotal(DEFAULT_MAX_TOTAL);
+		connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+
+		httpClient = new DefaultHttpClient(connectionManager);
+		httpClient.setKeepAliveStrategy(new BoundedKeepAliveStrategy());
+		HttpParams params = httpClient.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+		// attach, wait and streaming calls legitimately block for a long time
+		HttpConnectionParams.setSoTimeout(params, 0);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		// the evictor retires idle connections, saving the blocking stale check on every lease
+		HttpConnectionParams.setStaleCheckingEnabled(params, false);
+
+		evictor = new IdleConnectionEvictor();
+		evictor.start();
+	}
+
+	/**
+	 * Creates a transport which sends all requests for {@code unix://} URLs through the given
+	 * Unix domain socket.
+	 */
+	public static PooledHttpTransport forUnixSocket(File socketFile) {
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme(UNIX_SCHEME, 80, new UnixSocketSchemeSocketFactory(socketFile)));
+		return new PooledHttpTransport(schemeRegistry);
+	}
+
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * @return a request factory for {@code RestTemplate}s sharing this transport's connection pool.
+	 */
+	public ClientHttpRequestFactory createRequestFactory() {
+		return new HttpComponentsClientHttpRequestFactory(httpClient);
+	}
+
+	public int getMaxTotal() {
+		return connectionManager.getMaxTotal();
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		Preconditions.checkArgument(maxTotal > 0, "Max total connections must be positive: %s", maxTotal);
+		connectionManager.setMaxTotal(maxTotal);
+	}
+
+	public int getMaxPerRoute() {
+		return connectionManager.getDefaultMaxPerRoute();
+	}
+
+	public void setMaxPerRoute(int maxPerRoute) {
+		Preconditions.checkArgument(maxPerRoute > 0, "Max connections per route must be positive: %s", maxPerRoute);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Time after which an unused connection is closed. Also caps the keep-alive duration
+	 * announced by the daemon.
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		Preconditions.checkArgument(idleTimeoutMillis > 0, "Idle timeout must be positive: %s", idleTimeoutMillis);
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public long getEvictionIntervalMillis() {
+		return evictionIntervalMillis;
+	}
+
+	public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+		Preconditions.checkArgument(evictionIntervalMillis > 0, "Eviction interval must be positive: %s",
+				evictionIntervalMillis);
+		this.evictionIntervalMillis = evictionIntervalMillis;
+		evictor.interrupt();
+	}
+
+	public int getConnectTimeoutMillis() {
+		return HttpConnectionParams.getConnectionTimeout(httpClient.getParams());
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		HttpConnectionParams.setConnectionTimeout(httpClient.getParams(), connectTimeoutMillis);
+	}
+
+	/**
+	 * Takes over the limits and timeouts of another transport, e.g. one this replaces.
+	 */
+	public void copySettings(PooledHttpTransport other) {
+		Preconditions.checkNotNull(other, "Transport can't be null");
+		setMaxTotal(other.getMaxTotal());
+		setMaxPerRoute(other.getMaxPerRoute());
+		setIdleTimeoutMillis(other.getIdleTimeoutMillis());
+		setEvictionIntervalMillis(other.getEvictionIntervalMillis());
+		setConnectTimeoutMillis(other.getConnectTimeoutMillis());
+	}
+
+	public PoolStats getTotalStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Closes expired and idle connections right away instead of waiting for the evictor.
+	 */
+	public void evictIdleConnections() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		evictor.shutdown();
+		connectionManager.shutdown();
+	}
+
+	@Override
+	public void destroy() {
+		shutdown();
+	}
+
+	private class BoundedKeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			long duration = super.getKeepAliveDuration(response, context);
+			if (duration < 0 || duration > idleTimeoutMillis) {
+				return idleTimeoutMillis;
+			}
+			return duration;
+		}
+	}
+
+	private class IdleConnectionEvictor extends Thread {
+
+		private volatile boolean running = true;
+
+		IdleConnectionEvictor() {
+			super("docker-idle-connection-evictor");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					Thread.sleep(evictionIntervalMillis);
+				} catch (InterruptedException e) {
+					// interval changed or shutdown requested
+					continue;
+				}
+				try {
+					evictIdleConnections();
+				} catch (RuntimeException e) {
+					LOGGER.warn("Failed to evict idle connections", e);
+				}
+			}
+		}
+
+		void shutdown() {
+			running = false;
+			interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.kpelykh.docker.client.transport;
+
+/**
+ * Receives the progress of a large body streamed to or from the daemon, e.g. an image
+ * tarball.
+ */
+public interface TransferListener {
+
+	/**
+	 * @param transferredBytes so far, equal to {@code totalBytes} once complete.
+	 * @param totalBytes of the whole body, -1 if the daemon didn't tell.
+	 */
+	void onProgress(long transferredBytes, long totalBytes);
+
+}
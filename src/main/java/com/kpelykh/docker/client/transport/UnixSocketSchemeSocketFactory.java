@@ -0,0 +1,55 @@
+package com.kpelykh.docker.client.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.SchemeSocketFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Connects every HTTP route to the same Unix domain socket, e.g. {@code /var/run/docker.sock}.
+ * The host and port of the requested URL are ignored.
+ */
+public class UnixSocketSchemeSocketFactory implements SchemeSocketFactory {
+
+	private final File socketFile;
+
+	public UnixSocketSchemeSocketFactory(File socketFile) {
+		Preconditions.checkNotNull(socketFile, "Socket file can't be null");
+		this.socketFile = socketFile;
+	}
+
+	public File getSocketFile() {
+		return socketFile;
+	}
+
+	@Override
+	public Socket createSocket(HttpParams params) throws IOException {
+		// lenient instance: TCP-only socket options set by HttpClient are ignored
+		return AFUNIXSocket.newInstance();
+	}
+
+	@Override
+	public Socket connectSocket(Socket socket, InetSocketAddress remoteAddress, InetSocketAddress localAddress,
+			HttpParams params) throws IOException, ConnectTimeoutException {
+		Socket unixSocket = socket != null ? socket : createSocket(params);
+		unixSocket.connect(new AFUNIXSocketAddress(socketFile), HttpConnectionParams.getConnectionTimeout(params));
+		// the native socket only exists once connected
+		unixSocket.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+		return unixSocket;
+	}
+
+	@Override
+	public boolean isSecure(Socket socket) {
+		return false;
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.kpelykh.docker.client.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Splits the multiplexed output of {@code /containers/{id}/attach} into stdout and stderr.
+ * <p>
+ * Every frame starts with an 8 byte header: the stream type (0 stdin, 1 stdout, 2 stderr), three
+ * zero bytes and the big-endian payload size. Headers and payloads are read through one reusable
+ * buffer, so no memory is allocated per frame.
+ */
+public class AttachStreamDemultiplexer {
+
+	public static final int STDIN = 0;
+
+	public static final int STDOUT = 1;
+
+	public static final int STDERR = 2;
+
+	public static final int HEADER_SIZE = 8;
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final ReadableByteChannel in;
+
+	private final ByteBuffer buffer;
+
+	public AttachStreamDemultiplexer(InputStream in) {
+		this(Channels.newChannel(in), DEFAULT_BUFFER_SIZE);
+	}
+
+	public AttachStreamDemultiplexer(ReadableByteChannel in, int bufferSize) {
+		Preconditions.checkNotNull(in, "Input can't be null");
+		Preconditions.checkArgument(bufferSize >= HEADER_SIZE, "Buffer must hold at least a frame header: %s", bufferSize);
+		this.in = in;
+		this.buffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.BIG_ENDIAN);
+		buffer.flip();
+	}
+
+	/**
+	 * Copies the payload of every frame to the output of its stream until the input ends. Output
+	 * of stdin frames, which the daemon only echoes for tty-less containers, goes to stdout.
+	 *
+	 * @param stdout receives stdout frames, may be {@code null} to skip them.
+	 * @param stderr receives stderr frames, may be {@code null} to skip them.
+	 * @return the number of payload bytes read.
+	 */
+	public long demultiplex(OutputStream stdout, OutputStream stderr) throws IOException {
+		long total = 0;
+		while (fill(HEADER_SIZE)) {
+			int streamType = buffer.get() & 0xff;
+			// three padding bytes
+			buffer.position(buffer.position() + 3);
+			long remaining = buffer.getInt() & 0xffffffffL;
+			if (streamType > STDERR) {
+				throw new IOException("Unknown stream type " + streamType + " in attach frame header");
+			}
+			OutputStream out = streamType == STDERR ? stderr : stdout;
+
+			while (remaining > 0) {
+				if (!buffer.hasRemaining() && !fill(1)) {
+					throw new IOException("Attach stream ended within a frame, " + remaining + " bytes missing");
+				}
+				int length = (int) Math.min(remaining, buffer.remaining());
+				if (out != null) {
+					out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				}
+				buffer.position(buffer.position() + length);
+				remaining -= length;
+				total += length;
+			}
+			if (out != null && !buffer.hasRemaining()) {
+				// no further frame is buffered, let followers see the data now
+				out.flush();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Reads until at least {@code required} bytes are buffered.
+	 *
+	 * @return {@code false} at a clean end of the input.
+	 */
+	private boolean fill(int required) throws IOException {
+		if (buffer.remaining() >= required) {
+			return true;
+		}
+		buffer.compact();
+		try {
+			while (buffer.position() < required) {
+				if (in.read(buffer) == -1) {
+					if (buffer.position() == 0) {
+						return false;
+					}
+					throw new IOException("Attach stream ended within a frame header");
+				}
+			}
+		} finally {
+			buffer.flip();
+		}
+		return true;
+	}
+
+}
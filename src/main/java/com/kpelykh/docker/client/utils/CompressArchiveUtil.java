@@ -2,24 +2,64 @@ package com.kpelykh.docker.client.utils;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.utils.ArchiveUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.kpelykh.docker.client.build.BuildContext;
+import com.kpelykh.docker.client.build.BuildContextCache;
 
 import static org.apache.commons.io.filefilter.FileFilterUtils.*;
 
 public class CompressArchiveUtil {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompressArchiveUtil.class);
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	/** Size of a tar header and the unit file contents are padded to. */
+	public static final int TAR_RECORD_SIZE = 512;
+
+	/** Archives are padded to whole blocks, like {@code TarArchiveOutputStream} does. */
+	private static final int TAR_BLOCK_SIZE = 10240;
+
+	/** Bytes encoded by one task of a parallel archive. Larger files are streamed by the writer. */
+	private static final int PARALLEL_BATCH_SIZE = 1024 * 1024;
+
+	/** Entries handed to one task of a parallel archive. */
+	private static final int PARALLEL_BATCH_ENTRIES = 64;
+
+	/** Tasks running ahead of the one being written, bounding a parallel archive to 32 MB. */
+	private static final int PARALLEL_READ_AHEAD = 32;
+
 	public static File archiveTARFiles(final File baseDir, String archiveNameWithOutExtension) throws IOException {
+		return archiveTARFiles(baseDir, new File(System.getProperty("java.io.tmpdir")), archiveNameWithOutExtension);
+	}
 
-		File tarFile = null;
-		
-//        tarFile = new File(FileUtils.getTempDirectoryPath(), archiveNameWithOutExtension + ".tar");
-        tarFile = new File("/tmp", archiveNameWithOutExtension + ".tar");
+	/**
+	 * Archives all files below {@code baseDir} into a tar file in {@code targetDir}, which the
+	 * caller has to delete.
+	 */
+	public static File archiveTARFiles(final File baseDir, File targetDir, String archiveNameWithOutExtension) throws IOException {
+
+		File tarFile = new File(targetDir, archiveNameWithOutExtension + ".tar");
 
         Collection<File> files =
                 FileUtils.listFiles(
@@ -39,7 +79,7 @@ public class CompressArchiveUtil {
 						});
 //                        and(directoryFileFilter(), notFileFilter(nameFileFilter(baseDir.getName()))));
 
-        byte[] buf = new byte[1024];
+        byte[] buf = new byte[COPY_BUFFER_SIZE];
         int len;
 
         {
@@ -52,8 +92,7 @@ public class CompressArchiveUtil {
                 tos.putArchiveEntry(tarEntry);
 
                 if (!file.isDirectory()) {
-                    FileInputStream fin = new FileInputStream(file);
-                    BufferedInputStream in = new BufferedInputStream(fin);
+                    FileInputStream in = new FileInputStream(file);
 
                     while ((len = in.read(buf)) != -1) {
                         tos.write(buf, 0, len);
@@ -70,4 +109,246 @@ public class CompressArchiveUtil {
 		
 		return tarFile;
 	}
+
+	/**
+	 * Writes the build context as tar archive to the given stream. File contents are copied
+	 * directly from their sources, nothing is staged on disk. The stream is not closed.
+	 * <p>
+	 * All variants encode entries with {@link #writeTarEntry(String, File, OutputStream)}, so they
+	 * write the same bytes for the same context.
+	 */
+	public static void archiveTAR(BuildContext context, OutputStream out) throws IOException {
+		long archiveLength = 0;
+		for (Map.Entry<String, File> entry : context.getEntries().entrySet()) {
+			archiveLength += writeTarEntry(entry.getKey(), entry.getValue(), out);
+		}
+		writeTarTrailer(archiveLength, out);
+		out.flush();
+	}
+
+	/**
+	 * Writes the build context as tar archive, reusing the pre-encoded entries of unchanged files
+	 * from the cache. The result is identical to {@link #archiveTAR(BuildContext, OutputStream)}.
+	 * The stream is not closed.
+	 */
+	public static void archiveTAR(BuildContext context, BuildContextCache cache, OutputStream out) throws IOException {
+		byte[] buf = new byte[COPY_BUFFER_SIZE];
+		long archiveLength = 0;
+		for (Map.Entry<String, File> entry : context.getEntries().entrySet()) {
+			File blocks = cache.getEntryBlocks(entry.getKey(), entry.getValue());
+			InputStream in = new FileInputStream(blocks);
+			try {
+				int len;
+				while ((len = in.read(buf)) != -1) {
+					out.write(buf, 0, len);
+					archiveLength += len;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		writeTarTrailer(archiveLength, out);
+		out.flush();
+		try {
+			cache.save();
+		} catch (IOException e) {
+			// the archive is complete, the cache only speeds up the next one
+			LOGGER.warn("Failed to save build context cache in " + cache.getDirectory(), e);
+		}
+	}
+
+	/**
+	 * Writes the build context as tar archive like {@link #archiveTAR(BuildContext, OutputStream)},
+	 * but stats, reads and encodes the files on the executor, in batches of consecutive entries.
+	 * A batch encodes up to 1 MB; larger files are streamed by the calling thread when their turn
+	 * comes. Entries are written in the same order as the serial archive. The stream is not
+	 * closed.
+	 */
+	public static void archiveTAR(BuildContext context, OutputStream out, ExecutorService executor) throws IOException {
+		Iterator<Map.Entry<String, File>> entries = context.getEntries().entrySet().iterator();
+		LinkedList<EncodeBatch> batches = new LinkedList<EncodeBatch>();
+		LinkedList<Future<byte[][]>> readAhead = new LinkedList<Future<byte[][]>>();
+		long archiveLength = 0;
+		try {
+			while (true) {
+				while (readAhead.size() < PARALLEL_READ_AHEAD && entries.hasNext()) {
+					EncodeBatch batch = new EncodeBatch(entries);
+					batches.add(batch);
+					readAhead.add(executor.submit(batch));
+				}
+				if (readAhead.isEmpty()) {
+					break;
+				}
+				EncodeBatch batch = batches.removeFirst();
+				byte[][] encoded = await(readAhead.removeFirst());
+				for (int i = 0; i < encoded.length; i++) {
+					if (encoded[i] != null) {
+						out.write(encoded[i]);
+						archiveLength += encoded[i].length;
+					} else {
+						archiveLength += writeTarEntry(batch.names[i], batch.sources[i], out);
+					}
+				}
+			}
+		} finally {
+			for (Future<byte[][]> future : readAhead) {
+				future.cancel(true);
+			}
+		}
+		writeTarTrailer(archiveLength, out);
+		out.flush();
+	}
+
+	private static byte[][] await(Future<byte[][]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while archiving");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Encodes consecutive entries until the batch holds 1 MB. Entries left out, and files larger
+	 * than that, yield {@code null} and are streamed by the writing thread.
+	 */
+	private static class EncodeBatch implements Callable<byte[][]> {
+
+		private final String[] names;
+
+		private final File[] sources;
+
+		EncodeBatch(Iterator<Map.Entry<String, File>> entries) {
+			LinkedList<Map.Entry<String, File>> batch = new LinkedList<Map.Entry<String, File>>();
+			while (batch.size() < PARALLEL_BATCH_ENTRIES && entries.hasNext()) {
+				batch.add(entries.next());
+			}
+			names = new String[batch.size()];
+			sources = new File[batch.size()];
+			int i = 0;
+			for (Map.Entry<String, File> entry : batch) {
+				names[i] = entry.getKey();
+				sources[i++] = entry.getValue();
+			}
+		}
+
+		@Override
+		public byte[][] call() throws IOException {
+			byte[][] encoded = new byte[names.length][];
+			long budget = PARALLEL_BATCH_SIZE;
+			for (int i = 0; i < names.length; i++) {
+				long length = sources[i].length();
+				if (length > budget) {
+					continue;
+				}
+				ByteArrayOutputStream entry = new ByteArrayOutputStream((int) length + 3 * TAR_RECORD_SIZE);
+				writeTarEntry(names[i], sources[i], entry);
+				encoded[i] = entry.toByteArray();
+				budget -= encoded[i].length;
+			}
+			return encoded;
+		}
+	}
+
+	/**
+	 * Writes a single file as tar entry: its header records, preceded by a GNU long name entry
+	 * for names of 100 characters and more, followed by the content padded to whole records.
+	 * Concatenated entries plus {@link #writeTarTrailer(long, OutputStream)} form an archive.
+	 *
+	 * @return the number of bytes written.
+	 */
+	public static long writeTarEntry(String name, File source, OutputStream out) throws IOException {
+		return writeTarEntry(name, source, source.length(), source.lastModified(), out, null);
+	}
+
+	/**
+	 * Like {@link #writeTarEntry(String, File, OutputStream)}, but with the size and mtime the
+	 * header records given, and the content written also fed to {@code contentDigest} unless
+	 * that is {@code null}.
+	 */
+	public static long writeTarEntry(String name, File source, long length, long lastModified, OutputStream out,
+			MessageDigest contentDigest) throws IOException {
+		long written = 0;
+		byte[] header = new byte[TAR_RECORD_SIZE];
+		if (name.length() >= TarConstants.NAMELEN) {
+			byte[] nameBytes = ArchiveUtils.toAsciiBytes(name);
+			TarArchiveEntry longName = new TarArchiveEntry(TarConstants.GNU_LONGLINK, TarConstants.LF_GNUTYPE_LONGNAME);
+			longName.setSize(nameBytes.length + 1);
+			// TarArchiveOutputStream stamps the current time here; the file's keeps entries reproducible
+			longName.setModTime(lastModified);
+			longName.writeEntryHeader(header);
+			out.write(header);
+			out.write(nameBytes);
+			out.write(0);
+			written += header.length + nameBytes.length + 1 + pad(nameBytes.length + 1, out);
+		}
+
+		TarArchiveEntry entry = new TarArchiveEntry(source, name);
+		entry.setSize(length);
+		entry.setModTime(lastModified);
+		Arrays.fill(header, (byte) 0);
+		entry.writeEntryHeader(header);
+		out.write(header);
+		written += header.length;
+
+		byte[] buf = new byte[COPY_BUFFER_SIZE];
+		long remaining = entry.getSize();
+		InputStream in = new FileInputStream(source);
+		try {
+			int len;
+			while (remaining > 0 && (len = in.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+				out.write(buf, 0, len);
+				if (contentDigest != null) {
+					contentDigest.update(buf, 0, len);
+				}
+				remaining -= len;
+			}
+		} finally {
+			in.close();
+		}
+		if (remaining > 0) {
+			throw new IOException(source + " was truncated while archiving it");
+		}
+		return written + entry.getSize() + pad(entry.getSize(), out);
+	}
+
+	/**
+	 * @return the length of the archive {@link #archiveTAR(BuildContext, OutputStream)} writes for
+	 *         the context, provided the files don't change meanwhile.
+	 */
+	public static long getArchiveLength(BuildContext context) {
+		long length = 0;
+		for (Map.Entry<String, File> entry : context.getEntries().entrySet()) {
+			if (entry.getKey().length() >= TarConstants.NAMELEN) {
+				length += TAR_RECORD_SIZE + padded(entry.getKey().length() + 1);
+			}
+			length += TAR_RECORD_SIZE + padded(entry.getValue().length());
+		}
+		length += 2 * TAR_RECORD_SIZE;
+		return (length + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+	}
+
+	private static long padded(long length) {
+		return (length + TAR_RECORD_SIZE - 1) / TAR_RECORD_SIZE * TAR_RECORD_SIZE;
+	}
+
+	/**
+	 * Ends an archive of {@code archiveLength} bytes with two empty records and pads it to a whole block.
+	 */
+	public static void writeTarTrailer(long archiveLength, OutputStream out) throws IOException {
+		long length = archiveLength + 2 * TAR_RECORD_SIZE;
+		long padded = (length + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+		out.write(new byte[(int) (padded - archiveLength)]);
+	}
+
+	private static int pad(long length, OutputStream out) throws IOException {
+		int padding = (int) ((TAR_RECORD_SIZE - length % TAR_RECORD_SIZE) % TAR_RECORD_SIZE);
+		out.write(new byte[padding]);
+		return padding;
+	}
 }
@@ -0,0 +1,33 @@
+package com.kpelykh.docker.client.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Ignores {@link #flush()}, so writers which flush after every record, like the
+ * {@code TarBuffer} behind {@code TarArchiveOutputStream}, don't force out partial chunks or
+ * compression blocks. {@link #close()} flushes the underlying stream once but leaves it open.
+ */
+public class FlushShieldOutputStream extends FilterOutputStream {
+
+	public FlushShieldOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void flush() {
+		// see close()
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.flush();
+	}
+
+}
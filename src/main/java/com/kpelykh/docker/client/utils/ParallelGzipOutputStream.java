@@ -0,0 +1,235 @@
+package com.kpelykh.docker.client.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Gzip stream which compresses blocks of its input independently on an executor, so all cores
+ * work on a single stream.
+ * <p>
+ * Every block becomes a complete gzip member. Concatenated members are a valid gzip file which
+ * decompresses to the concatenated blocks, as read by {@code gunzip} and the Docker daemon.
+ * Members are written in order, at most {@code readAhead} blocks behind the input. Without an
+ * executor the blocks are compressed on the writing thread.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+	private static final int DEFAULT_READ_AHEAD = 16;
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final OutputStream out;
+
+	private final ExecutorService executor;
+
+	private final int level;
+
+	private final int readAhead;
+
+	private byte[] block;
+
+	private int count;
+
+	private long blocks;
+
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+	private boolean finished;
+
+	public ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int level) {
+		this(out, executor, level, DEFAULT_BLOCK_SIZE, DEFAULT_READ_AHEAD);
+	}
+
+	/**
+	 * @param executor to compress blocks on, {@code null} to compress on the writing thread.
+	 * @param level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+	 * @param blockSize of the input compressed by one task. Larger blocks compress slightly better.
+	 * @param readAhead blocks queued for compression before writing waits for the oldest one.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int level, int blockSize, int readAhead) {
+		Preconditions.checkNotNull(out, "Output can't be null");
+		Preconditions.checkArgument(level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION,
+				"Compression level out of range: %s", level);
+		Preconditions.checkArgument(blockSize > 0, "Block size must be positive: %s", blockSize);
+		Preconditions.checkArgument(readAhead > 0, "Read ahead must be positive: %s", readAhead);
+		this.out = out;
+		this.executor = executor;
+		this.level = level;
+		this.readAhead = readAhead;
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkNotFinished();
+		while (len > 0) {
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == block.length) {
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compresses the input written so far and writes it out. Ends the current member, so flushing
+	 * often costs compression ratio.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkNotFinished();
+		if (count > 0) {
+			submitBlock();
+		}
+		while (!pending.isEmpty()) {
+			writeOldest();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes all remaining members without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		if (count > 0 || blocks == 0) {
+			// an empty input still needs a member to be valid gzip
+			submitBlock();
+		}
+		try {
+			while (!pending.isEmpty()) {
+				writeOldest();
+			}
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+			pending.clear();
+		}
+		out.flush();
+		finished = true;
+		block = null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		if (pending.size() >= readAhead) {
+			writeOldest();
+		}
+		CompressBlock task = new CompressBlock(block, count, level);
+		if (executor != null) {
+			pending.add(executor.submit(task));
+			// the task owns the submitted array
+			block = new byte[block.length];
+		} else {
+			out.write(task.call());
+		}
+		count = 0;
+		blocks++;
+	}
+
+	private void writeOldest() throws IOException {
+		Future<byte[]> future = pending.removeFirst();
+		try {
+			out.write(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private void checkNotFinished() throws IOException {
+		if (finished) {
+			throw new IOException("Stream already finished");
+		}
+	}
+
+	/**
+	 * @return the number of gzip members written or queued.
+	 */
+	public long getBlockCount() {
+		return blocks;
+	}
+
+	/**
+	 * Compresses one block into a complete gzip member.
+	 */
+	private static class CompressBlock implements Callable<byte[]> {
+
+		private final byte[] data;
+
+		private final int length;
+
+		private final int level;
+
+		CompressBlock(byte[] data, int length, int level) {
+			this.data = data;
+			this.length = length;
+			this.level = level;
+		}
+
+		@Override
+		public byte[] call() {
+			ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+			member.write(HEADER, 0, HEADER.length);
+			Deflater deflater = new Deflater(level, true);
+			try {
+				deflater.setInput(data, 0, length);
+				deflater.finish();
+				byte[] buf = new byte[Math.max(512, Math.min(length, 64 * 1024))];
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buf);
+					member.write(buf, 0, n);
+				}
+			} finally {
+				deflater.end();
+			}
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			writeIntLE((int) crc.getValue(), member);
+			writeIntLE(length, member);
+			return member.toByteArray();
+		}
+
+		private static void writeIntLE(int value, ByteArrayOutputStream out) {
+			out.write(value & 0xff);
+			out.write((value >> 8) & 0xff);
+			out.write((value >> 16) & 0xff);
+			out.write((value >> 24) & 0xff);
+		}
+	}
+
+}
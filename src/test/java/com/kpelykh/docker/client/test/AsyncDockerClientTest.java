@@ -0,0 +1,141 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.kpelykh.docker.client.AsyncDockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.model.ContainerInspectResponse;
+
+/**
+ * Fans out concurrent calls of the {@link AsyncDockerClient} against a {@link StandInDockerDaemon}.
+ */
+public class AsyncDockerClientTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(AsyncDockerClientTest.class);
+
+	private static final int CONTAINERS = 2000;
+
+	private StandInDockerDaemon daemon;
+
+	private AsyncDockerClient dockerClient;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("GET", "/containers/([^/]+)/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String containerId = request.group(1);
+				if (containerId.equals("missing")) {
+					response.send(404, "text/plain", "No such container".getBytes("UTF-8"));
+					return;
+				}
+				if (containerId.equals("unreachable")) {
+					// not a status Spring lists
+					response.send(599, "text/plain", "Network connect timeout".getBytes("UTF-8"));
+					return;
+				}
+				response.send(200, "application/json", ("{\"ID\":\"" + containerId
+						+ "\",\"State\":{\"Running\":true}}").getBytes("UTF-8"));
+			}
+		}).start();
+		dockerClient = new AsyncDockerClient(daemon.getUrl(), 2, 50);
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldInspectThousandsOfContainersConcurrently() throws Exception {
+		long start = System.nanoTime();
+		List<Future<ContainerInspectResponse>> responses = new ArrayList<Future<ContainerInspectResponse>>();
+		for (int i = 0; i < CONTAINERS; i++) {
+			responses.add(dockerClient.inspectContainer("container" + i));
+		}
+		for (int i = 0; i < CONTAINERS; i++) {
+			ContainerInspectResponse response = responses.get(i).get(30, TimeUnit.SECONDS);
+			assertThat(response.id, equalTo("container" + i));
+			assertThat(response.state.running, is(true));
+		}
+		LOG.info("Inspected {} containers in {} ms over {} connections", new Object[] { CONTAINERS,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), daemon.getAcceptedConnections() });
+	}
+
+	@Test
+	public void shouldNotifyCallbacks() throws Exception {
+		final CountDownLatch done = new CountDownLatch(CONTAINERS);
+		final AtomicInteger running = new AtomicInteger();
+		for (int i = 0; i < CONTAINERS; i++) {
+			dockerClient.inspectContainer("container" + i, new FutureCallback<ContainerInspectResponse>() {
+				@Override
+				public void completed(ContainerInspectResponse result) {
+					if (result.state.running) {
+						running.incrementAndGet();
+					}
+					done.countDown();
+				}
+
+				@Override
+				public void failed(Exception ex) {
+					done.countDown();
+				}
+
+				@Override
+				public void cancelled() {
+					done.countDown();
+				}
+			});
+		}
+		assertThat(done.await(30, TimeUnit.SECONDS), is(true));
+		assertThat(running.get(), equalTo(CONTAINERS));
+	}
+
+	@Test
+	public void shouldFailLikeTheBlockingClient() throws Exception {
+		try {
+			dockerClient.inspectContainer("missing").get();
+			fail("Expected a missing container to fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), instanceOf(HttpClientErrorException.class));
+			assertThat(((HttpClientErrorException) e.getCause()).getStatusCode(), is(HttpStatus.NOT_FOUND));
+		}
+	}
+
+	@Test
+	public void shouldFailWithDockerExceptionForUnknownStatus() throws Exception {
+		try {
+			dockerClient.inspectContainer("unreachable").get();
+			fail("Expected status 599 to fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), instanceOf(DockerException.class));
+			assertThat(e.getCause().getMessage(), containsString("599"));
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.utils.AttachStreamDemultiplexer;
+
+/**
+ * Correctness and throughput of the {@link AttachStreamDemultiplexer} on synthetic multiplexed
+ * streams.
+ */
+public class AttachStreamDemultiplexerTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(AttachStreamDemultiplexerTest.class);
+
+	@Test
+	public void shouldSplitStdoutAndStderr() throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		writeFrame(stream, AttachStreamDemultiplexer.STDOUT, "hello ".getBytes("UTF-8"));
+		writeFrame(stream, AttachStreamDemultiplexer.STDERR, "oops\n".getBytes("UTF-8"));
+		writeFrame(stream, AttachStreamDemultiplexer.STDOUT, "world\n".getBytes("UTF-8"));
+		writeFrame(stream, AttachStreamDemultiplexer.STDOUT, new byte[0]);
+
+		ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		new AttachStreamDemultiplexer(new ByteArrayInputStream(stream.toByteArray())).demultiplex(stdout, stderr);
+
+		assertThat(stdout.toString("UTF-8"), equalTo("hello world\n"));
+		assertThat(stderr.toString("UTF-8"), equalTo("oops\n"));
+	}
+
+	@Test
+	public void shouldHandleFramesSplitAcrossReadsAndLargerThanTheBuffer() throws Exception {
+		Random random = new Random(42);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteArrayOutputStream expectedStdout = new ByteArrayOutputStream();
+		ByteArrayOutputStream expectedStderr = new ByteArrayOutputStream();
+		for (int i = 0; i < 500; i++) {
+			byte[] payload = new byte[random.nextInt(3000)];
+			random.nextBytes(payload);
+			boolean err = random.nextBoolean();
+			writeFrame(stream, err ? AttachStreamDemultiplexer.STDERR : AttachStreamDemultiplexer.STDOUT, payload);
+			(err ? expectedStderr : expectedStdout).write(payload);
+		}
+
+		ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		InputStream trickle = new TrickleInputStream(new ByteArrayInputStream(stream.toByteArray()), 7);
+		new AttachStreamDemultiplexer(Channels.newChannel(trickle), 1024).demultiplex(stdout, stderr);
+
+		assertThat(stdout.toByteArray(), equalTo(expectedStdout.toByteArray()));
+		assertThat(stderr.toByteArray(), equalTo(expectedStderr.toByteArray()));
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRejectTruncatedFrame() throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		writeFrame(stream, AttachStreamDemultiplexer.STDOUT, new byte[100]);
+		byte[] truncated = new byte[50];
+		System.arraycopy(stream.toByteArray(), 0, truncated, 0, truncated.length);
+
+		new AttachStreamDemultiplexer(new ByteArrayInputStream(truncated)).demultiplex(null, null);
+	}
+
+	@Test
+	public void benchmarkThroughput() throws Exception {
+		int[] frameSizes = { 80, 4 * 1024, 256 * 1024 };
+		for (int frameSize : frameSizes) {
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			byte[] payload = new byte[frameSize];
+			for (int written = 0; written < 64 * 1024 * 1024; written += frameSize) {
+				writeFrame(stream, written % 3 == 0 ? AttachStreamDemultiplexer.STDERR : AttachStreamDemultiplexer.STDOUT,
+						payload);
+			}
+			byte[] multiplexed = stream.toByteArray();
+			OutputStream discard = new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			};
+
+			long bytes = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				bytes += new AttachStreamDemultiplexer(new ByteArrayInputStream(multiplexed)).demultiplex(discard, discard);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			LOG.info(String.format("Demultiplexed %d byte frames at %.0f MB/s", frameSize, bytes / seconds / (1 << 20)));
+		}
+	}
+
+	private void writeFrame(ByteArrayOutputStream stream, int streamType, byte[] payload) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(AttachStreamDemultiplexer.HEADER_SIZE);
+		header.put((byte) streamType).put((byte) 0).put((byte) 0).put((byte) 0).putInt(payload.length);
+		stream.write(header.array());
+		stream.write(payload);
+	}
+
+	private static class TrickleInputStream extends FilterInputStream {
+
+		private final int maxRead;
+
+		TrickleInputStream(InputStream in, int maxRead) {
+			super(in);
+			this.maxRead = maxRead;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return super.read(b, off, Math.min(len, maxRead));
+		}
+	}
+
+}
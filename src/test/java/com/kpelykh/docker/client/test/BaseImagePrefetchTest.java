@@ -0,0 +1,183 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+
+/**
+ * Pulling missing base images while the context is uploaded, against a {@link StandInDockerDaemon}
+ * where pulls take {@link #PULL_MILLIS} and uploads about {@link #UPLOAD_MILLIS}.
+ */
+public class BaseImagePrefetchTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(BaseImagePrefetchTest.class);
+
+	private static final long PULL_MILLIS = 500;
+
+	private static final long UPLOAD_MILLIS = 400;
+
+	private final Set<String> localImages = new CopyOnWriteArraySet<String>();
+
+	private final List<String> pulls = Collections.synchronizedList(new ArrayList<String>());
+
+	private final AtomicInteger daemonPulls = new AtomicInteger();
+
+	private volatile boolean registryDown;
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private File dockerFolder;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("GET", "/images/(.+)/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String name = URLDecoder.decode(request.group(1), "UTF-8");
+				if (localImages.contains(name)) {
+					response.send(200, "application/json", "{\"id\":\"8dbd9e392a964056\"}".getBytes("UTF-8"));
+				} else {
+					response.send(404, "text/plain", ("No such image: " + name).getBytes("UTF-8"));
+				}
+			}
+		}).on("POST", "/images/create", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String image = request.getParameter("fromImage") + ":" + request.getParameter("tag");
+				pulls.add(image);
+				if (registryDown) {
+					response.send(500, "text/plain", "registry unreachable".getBytes("UTF-8"));
+					return;
+				}
+				sleep(PULL_MILLIS);
+				localImages.add(image);
+				response.send(200, "application/json", ("{\"status\":\"Pulled " + image + "\"}").getBytes("UTF-8"));
+			}
+		}).on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				InputStream body = request.getBody();
+				byte[] buffer = new byte[64 * 1024];
+				long start = System.currentTimeMillis();
+				long received = 0;
+				int read;
+				while ((read = body.read(buffer)) != -1) {
+					received += read;
+					// a slow link, which takes UPLOAD_MILLIS for the context
+					sleep(start + received * UPLOAD_MILLIS / FileUtils.ONE_MB - System.currentTimeMillis());
+				}
+				if (!localImages.contains("ubuntu:12.04")) {
+					daemonPulls.incrementAndGet();
+					sleep(PULL_MILLIS);
+					localImages.add("ubuntu:12.04");
+				}
+				response.send(200, "application/json",
+						"{\"stream\":\"Successfully built 4fa6e0f0c678\\n\"}".getBytes("UTF-8"));
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+
+		dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-prefetch-" + System.nanoTime());
+		FileUtils.writeStringToFile(new File(dockerFolder, "Dockerfile"), "FROM ubuntu:12.04\nADD app.jar /app.jar\n");
+		FileUtils.writeByteArrayToFile(new File(dockerFolder, "app.jar"), new byte[(int) FileUtils.ONE_MB]);
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+		FileUtils.deleteQuietly(dockerFolder);
+	}
+
+	@Test
+	public void shouldOverlapPullWithUpload() throws Exception {
+		long start = System.currentTimeMillis();
+		dockerClient.build(dockerFolder, "acme/app", null);
+		long sequentialMillis = System.currentTimeMillis() - start;
+
+		localImages.clear();
+		dockerClient.setBaseImagePrefetch(true);
+		start = System.currentTimeMillis();
+		dockerClient.build(dockerFolder, "acme/app", null);
+		long prefetchedMillis = System.currentTimeMillis() - start;
+
+		LOG.info("Cold build took {} ms, {} ms with prefetch", sequentialMillis, prefetchedMillis);
+		assertThat(daemonPulls.get(), equalTo(1));
+		assertThat(pulls, contains("ubuntu:12.04"));
+		assertThat(prefetchedMillis, lessThan(PULL_MILLIS + UPLOAD_MILLIS));
+	}
+
+	@Test
+	public void shouldNotPullPresentImages() throws Exception {
+		localImages.add("ubuntu:12.04");
+		dockerClient.setBaseImagePrefetch(true);
+
+		dockerClient.build(dockerFolder, "acme/app", null);
+
+		assertThat(pulls, empty());
+	}
+
+	@Test
+	public void shouldNotPullEarlierStages() throws Exception {
+		FileUtils.writeStringToFile(new File(dockerFolder, "Dockerfile"), "FROM busybox:1 AS tools\n"
+				+ "FROM --platform=linux/amd64 ubuntu:12.04 AS Build\nADD app.jar /app.jar\n"
+				+ "FROM build\nCOPY --from=tools /bin/sh /bin/sh\n");
+		localImages.add("ubuntu:12.04");
+		dockerClient.setBaseImagePrefetch(true);
+
+		dockerClient.build(dockerFolder, "acme/app", null);
+
+		assertThat(pulls, contains("busybox:1"));
+	}
+
+	@Test
+	public void shouldLeaveFailedPullsToTheDaemon() throws Exception {
+		registryDown = true;
+		dockerClient.setBaseImagePrefetch(true);
+
+		String imageId = dockerClient.build(dockerFolder, "acme/app", null);
+
+		assertThat(imageId, equalTo("4fa6e0f0c678"));
+		assertThat(pulls, contains("ubuntu:12.04"));
+		assertThat(daemonPulls.get(), equalTo(1));
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package com.kpelykh.docker.client.test;
+
+import org.junit.Assume;
+
+/**
+ * Benchmarks take long and measure the machine they run on, so they are skipped unless
+ * {@code docker.benchmark} is set, e.g. by the {@code benchmark} profile:
+ * {@code mvn test -Pbenchmark}.
+ */
+public final class Benchmarks {
+
+	public static final String PROPERTY = "docker.benchmark";
+
+	private Benchmarks() {
+	}
+
+	public static void assumeEnabled() {
+		Assume.assumeTrue(Boolean.getBoolean(PROPERTY));
+	}
+
+}
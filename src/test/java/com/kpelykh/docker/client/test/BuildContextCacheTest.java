@@ -0,0 +1,254 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.build.BuildContext;
+import com.kpelykh.docker.client.build.BuildContextCache;
+import com.kpelykh.docker.client.utils.CompressArchiveUtil;
+
+/**
+ * Reuse of encoded entries by the {@link BuildContextCache}, and the cost of preparing a
+ * context with a cold and a warm cache.
+ */
+public class BuildContextCacheTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(BuildContextCacheTest.class);
+
+	private static final int FILE_COUNT = 200;
+
+	private static final int FILE_SIZE = 256 * 1024;
+
+	private File contextFolder;
+
+	private File cacheFolder;
+
+	private final long past = System.currentTimeMillis() - 60000;
+
+	@Before
+	public void setUp() throws IOException {
+		File tmp = new File(System.getProperty("java.io.tmpdir"));
+		contextFolder = new File(tmp, "docker-context-" + System.nanoTime());
+		cacheFolder = new File(tmp, "docker-context-cache-" + System.nanoTime());
+		Random random = new Random(42);
+		byte[] content = new byte[FILE_SIZE];
+		for (int i = 0; i < FILE_COUNT; i++) {
+			random.nextBytes(content);
+			FileUtils.writeByteArrayToFile(new File(contextFolder, "src/file" + i + ".bin"), content);
+		}
+		FileUtils.writeStringToFile(longNamedFile(), "a name which needs a GNU long name entry");
+		// files written right now are within the window where size and mtime can't be trusted
+		ageFiles();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(contextFolder);
+		FileUtils.deleteQuietly(cacheFolder);
+	}
+
+	@Test
+	public void shouldProduceTheSameArchiveAsWithoutCache() throws Exception {
+		BuildContext context = context();
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, plain);
+
+		BuildContextCache cache = new BuildContextCache(cacheFolder);
+		ByteArrayOutputStream cold = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, cache, cold);
+		ByteArrayOutputStream warm = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, cache, warm);
+
+		assertThat(Arrays.equals(cold.toByteArray(), plain.toByteArray()), equalTo(true));
+		assertThat(Arrays.equals(warm.toByteArray(), plain.toByteArray()), equalTo(true));
+	}
+
+	@Test
+	public void shouldEncodeLongNames() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context(), new BuildContextCache(cacheFolder), archive);
+
+		TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(archive.toByteArray()));
+		TarArchiveEntry entry;
+		int entries = 0;
+		String lastName = null;
+		while ((entry = in.getNextTarEntry()) != null) {
+			entries++;
+			lastName = entry.getName();
+		}
+		assertThat(entries, equalTo(FILE_COUNT + 1));
+		assertThat(lastName, equalTo("src/" + longNamedFile().getName()));
+		assertThat(IOUtils.toString(in), equalTo(""));
+	}
+
+	@Test
+	public void shouldOnlyEncodeChangedFiles() throws Exception {
+		BuildContext context = context();
+		BuildContextCache cache = new BuildContextCache(cacheFolder);
+		CompressArchiveUtil.archiveTAR(context, cache, new NullOutputStream());
+		String digest = cache.getDigest(context);
+		assertThat(cache.getMisses(), equalTo((long) FILE_COUNT + 1));
+
+		File changed = new File(contextFolder, "src/file7.bin");
+		FileUtils.writeStringToFile(changed, "changed");
+		changed.setLastModified(past - 1000);
+		long hashedBefore = cache.getHashedBytes();
+		CompressArchiveUtil.archiveTAR(context(), cache, new NullOutputStream());
+
+		assertThat(cache.getMisses(), equalTo((long) FILE_COUNT + 2));
+		assertThat(cache.getHits(), equalTo((long) FILE_COUNT));
+		assertThat(cache.getHashedBytes() - hashedBefore, equalTo(changed.length()));
+		assertThat(cache.getDigest(context()), not(equalTo(digest)));
+	}
+
+	@Test
+	public void shouldNotIndexFilesChangedWhileEncoded() throws Exception {
+		final File source = new File(contextFolder, "src/file3.bin");
+		File changing = new File(source.getPath()) {
+			private int stats;
+
+			@Override
+			public long lastModified() {
+				// modified by someone else once the entry has been read
+				return stats++ == 0 ? past : past + 5000;
+			}
+		};
+		BuildContextCache cache = new BuildContextCache(cacheFolder);
+		File blocks = cache.getEntryBlocks("src/file3.bin", changing);
+		assertThat(cache.getIndexSize(), equalTo(0));
+
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		CompressArchiveUtil.writeTarEntry("src/file3.bin", source, plain);
+		assertThat(Arrays.equals(FileUtils.readFileToByteArray(blocks), plain.toByteArray()), equalTo(true));
+	}
+
+	@Test
+	public void shouldArchiveWhenCacheCannotBeSaved() throws Exception {
+		BuildContext context = context();
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, plain);
+
+		BuildContextCache cache = new BuildContextCache(cacheFolder) {
+			@Override
+			public void save() throws IOException {
+				throw new IOException("No space left on device");
+			}
+		};
+		ByteArrayOutputStream cached = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, cache, cached);
+
+		assertThat(Arrays.equals(cached.toByteArray(), plain.toByteArray()), equalTo(true));
+	}
+
+	@Test
+	public void shouldKeepHashesAcrossInstances() throws Exception {
+		CompressArchiveUtil.archiveTAR(context(), new BuildContextCache(cacheFolder), new NullOutputStream());
+
+		BuildContextCache reopened = new BuildContextCache(cacheFolder);
+		CompressArchiveUtil.archiveTAR(context(), reopened, new NullOutputStream());
+
+		assertThat(reopened.getMisses(), equalTo(0L));
+		assertThat(reopened.getHashedBytes(), equalTo(0L));
+	}
+
+	@Test
+	public void shouldForgetDeletedFiles() throws Exception {
+		BuildContextCache cache = new BuildContextCache(cacheFolder);
+		CompressArchiveUtil.archiveTAR(context(), cache, new NullOutputStream());
+		assertThat(cache.getIndexSize(), equalTo(FILE_COUNT + 1));
+
+		FileUtils.forceDelete(new File(contextFolder, "src/file7.bin"));
+		FileUtils.forceDelete(new File(contextFolder, "src/file8.bin"));
+		CompressArchiveUtil.archiveTAR(context(), cache, new NullOutputStream());
+
+		assertThat(cache.getIndexSize(), equalTo(FILE_COUNT - 1));
+		assertThat(new BuildContextCache(cacheFolder).getIndexSize(), equalTo(FILE_COUNT - 1));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedEntries() throws Exception {
+		// room for the entries of half the files
+		long maxBytes = FILE_COUNT / 2 * (FILE_SIZE + 1024L);
+		BuildContextCache cache = new BuildContextCache(cacheFolder, maxBytes);
+		CompressArchiveUtil.archiveTAR(context(), cache, new NullOutputStream());
+		// entries just used may still be read by another build
+		assertThat(blocks().length, equalTo(FILE_COUNT + 1));
+
+		for (File blocks : blocks()) {
+			blocks.setLastModified(past - 3600000);
+		}
+		BuildContext half = new BuildContext();
+		for (int i = 0; i < FILE_COUNT / 2; i++) {
+			half.addFile("src/file" + i + ".bin", new File(contextFolder, "src/file" + i + ".bin"));
+		}
+		CompressArchiveUtil.archiveTAR(half, cache, new NullOutputStream());
+
+		assertThat(cache.getBlocksBytes(), lessThanOrEqualTo(maxBytes));
+		assertThat(blocks().length, lessThanOrEqualTo(FILE_COUNT / 2 + 1));
+		long misses = cache.getMisses();
+		CompressArchiveUtil.archiveTAR(half, cache, new NullOutputStream());
+		assertThat(cache.getMisses(), equalTo(misses));
+		assertThat(new BuildContextCache(cacheFolder, maxBytes).getBlocksBytes(), equalTo(cache.getBlocksBytes()));
+	}
+
+	@Test
+	public void comparePreparationWithColdAndWarmCache() throws Exception {
+		BuildContextCache cache = new BuildContextCache(cacheFolder);
+		long start = System.nanoTime();
+		String cold = cache.getDigest(context());
+		long coldMillis = (System.nanoTime() - start) / 1000000;
+
+		File changed = new File(contextFolder, "src/file3.bin");
+		FileUtils.writeStringToFile(changed, "changed");
+		changed.setLastModified(past - 1000);
+		start = System.nanoTime();
+		String warm = cache.getDigest(context());
+		long warmMillis = (System.nanoTime() - start) / 1000000;
+
+		LOG.info("Context digest of {} MB: {} ms cold, {} ms warm after changing one file", new Object[] {
+				(long) FILE_COUNT * FILE_SIZE >> 20, coldMillis, warmMillis });
+		assertThat(warm, not(equalTo(cold)));
+	}
+
+	private BuildContext context() {
+		BuildContext context = new BuildContext();
+		context.addDirectory("", contextFolder);
+		return context;
+	}
+
+	private File[] blocks() {
+		return new File(cacheFolder, "entries").listFiles();
+	}
+
+	private File longNamedFile() {
+		return new File(contextFolder, "src/" + StringUtils.repeat("long", 40) + ".txt");
+	}
+
+	private void ageFiles() {
+		for (Object file : FileUtils.listFiles(contextFolder, null, true)) {
+			((File) file).setLastModified(past);
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.build.BuildContext;
+import com.kpelykh.docker.client.build.BuildContextPlanner;
+import com.kpelykh.docker.client.build.DockerIgnore;
+
+/**
+ * Source resolution, {@code .dockerignore} matching and pruning by the {@link BuildContextPlanner}.
+ */
+public class BuildContextPlannerTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(BuildContextPlannerTest.class);
+
+	private File dockerFolder;
+
+	@Before
+	public void setUp() {
+		dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-planner-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(dockerFolder);
+	}
+
+	@Test
+	public void shouldMatchDockerIgnorePatterns() {
+		DockerIgnore ignore = DockerIgnore.parse(Arrays.asList("# comment", "*.log", "/target/", "**/*.tmp",
+				"./.git", "docs/[abc].txt", "!important.log"));
+
+		assertThat(ignore.isExcluded("build.log"), equalTo(true));
+		assertThat(ignore.isExcluded("logs/build.log"), equalTo(false));
+		assertThat(ignore.isExcluded("important.log"), equalTo(false));
+		assertThat(ignore.isExcluded("target"), equalTo(true));
+		assertThat(ignore.isExcluded("target/classes/App.class"), equalTo(true));
+		assertThat(ignore.isExcluded("a.tmp"), equalTo(true));
+		assertThat(ignore.isExcluded("src/main/b.tmp"), equalTo(true));
+		assertThat(ignore.isExcluded(".git/HEAD"), equalTo(true));
+		assertThat(ignore.isExcluded(".gitignore"), equalTo(false));
+		assertThat(ignore.isExcluded("docs/b.txt"), equalTo(true));
+		assertThat(ignore.isExcluded("docs/d.txt"), equalTo(false));
+	}
+
+	@Test
+	public void shouldPruneExcludedDirectories() throws Exception {
+		write("Dockerfile", "FROM busybox\nADD . /src/\n");
+		write(".dockerignore", ".git\ntarget\n*.log\n");
+		write("src/App.java", "class App {}");
+		write("build.log", "log");
+		write(".git/objects/ab/cdef", "object");
+		write("target/classes/App.class", "class");
+
+		BuildContextPlanner planner = new BuildContextPlanner(dockerFolder);
+		BuildContext context = planner.plan();
+
+		assertThat(names(context), contains(".dockerignore", "Dockerfile", "src/App.java"));
+		assertThat(planner.getExcludedFiles(), contains(new File(dockerFolder, "build.log")));
+		assertThat(planner.getPrunedDirectories().size(), equalTo(2));
+		assertThat(planner.getExcludedLength(), equalTo((long) "log".length() + "object".length() + "class".length()));
+	}
+
+	@Test
+	public void shouldWalkExcludedDirectoriesWithExceptions() throws Exception {
+		write("Dockerfile", "FROM busybox\nADD . /src/\n");
+		write(".dockerignore", "target\n!target/app.jar\n");
+		write("target/app.jar", "jar");
+		write("target/classes/App.class", "class");
+
+		BuildContextPlanner planner = new BuildContextPlanner(dockerFolder);
+		BuildContext context = planner.plan();
+
+		assertThat(names(context), contains(".dockerignore", "Dockerfile", "target/app.jar"));
+		assertThat(planner.getPrunedDirectories(), contains(new File(dockerFolder, "target/classes")));
+	}
+
+	@Test
+	public void shouldKeepContextOfFoldersWithoutDockerIgnore() throws Exception {
+		File testAddFolder = new File(Thread.currentThread().getContextClassLoader().getResource("testAddFolder").getFile());
+
+		BuildContext context = new BuildContextPlanner(testAddFolder).plan();
+
+		assertThat(names(context), contains("Dockerfile", "folderA/testAddFolder.sh"));
+	}
+
+	@Test
+	public void shouldOnlyIncludeReferencedSources() throws Exception {
+		write("Dockerfile", "FROM busybox\nCOPY lib/*.jar conf/app.yml \\\n  /app/\nADD [\"scripts\", \"/opt/\"]\n"
+				+ "ADD http://example.com/tool.tgz /opt/\n");
+		write("lib/a.jar", "a");
+		write("lib/b.jar", "b");
+		write("lib/notes.txt", "not referenced");
+		write("conf/app.yml", "app");
+		write("conf/secret.yml", "not referenced");
+		write("scripts/run.sh", "run");
+		write("target/huge.bin", "not referenced");
+
+		BuildContext context = new BuildContextPlanner(dockerFolder).plan();
+
+		assertThat(names(context), contains("Dockerfile", "conf/app.yml", "lib/a.jar", "lib/b.jar", "scripts/run.sh"));
+	}
+
+	@Test
+	public void shouldNotLookForSourcesOfEarlierStages() throws Exception {
+		write("Dockerfile", "FROM maven:3 AS build\nCOPY pom.xml src /build/\nRUN mvn package\n"
+				+ "FROM openjdk:7\nCOPY --from=build /build/target/app.jar /app.jar\n"
+				+ "COPY --from=build --chown=app ../outside/*.conf /etc/\n");
+		write("pom.xml", "pom");
+		write("src/App.java", "app");
+
+		BuildContext context = new BuildContextPlanner(dockerFolder).plan();
+
+		assertThat(names(context), contains("Dockerfile", "pom.xml", "src/App.java"));
+	}
+
+	@Test(expected = DockerException.class)
+	public void shouldRejectSourcesOutsideTheContext() throws Exception {
+		write("Dockerfile", "FROM busybox\nADD ../outside.txt /\n");
+
+		new BuildContextPlanner(dockerFolder).plan();
+	}
+
+	@Test(expected = DockerException.class)
+	public void shouldRejectUnmatchedGlobs() throws Exception {
+		write("Dockerfile", "FROM busybox\nCOPY *.jar /\n");
+
+		new BuildContextPlanner(dockerFolder).plan();
+	}
+
+	@Test(expected = DockerException.class)
+	public void shouldRejectExcludedSourceFile() throws Exception {
+		write("Dockerfile", "FROM busybox\nADD app.jar /app.jar\n");
+		write(".dockerignore", "*.jar\n");
+		write("app.jar", "jar");
+
+		new BuildContextPlanner(dockerFolder).plan();
+	}
+
+	@Test
+	public void shouldPlanJsonSourcesAfterOptions() throws Exception {
+		write("Dockerfile", "FROM busybox\nCOPY --chown=a:b [\"with space.txt\", \"/dest/\"]\n");
+		write("with space.txt", "text");
+		write("other.txt", "text");
+
+		BuildContext context = new BuildContextPlanner(dockerFolder).plan();
+
+		assertThat(names(context), contains("Dockerfile", "with space.txt"));
+	}
+
+	@Test
+	public void shouldNotFollowLinksToEnclosingDirectories() throws Exception {
+		Assume.assumeTrue(File.separatorChar == '/');
+		write("Dockerfile", "FROM busybox\nADD . /app/\n");
+		write("src/a.txt", "a");
+		Process ln = Runtime.getRuntime().exec(new String[] { "ln", "-s", "..", new File(dockerFolder, "src/up").getPath() });
+		assertThat(ln.waitFor(), equalTo(0));
+
+		BuildContext context = new BuildContextPlanner(dockerFolder).plan();
+
+		assertThat(names(context), contains("Dockerfile", "src/a.txt"));
+	}
+
+	@Test
+	public void reportContextSizeBeforeAndAfterPruning() throws Exception {
+		write("Dockerfile", "FROM busybox\nADD . /app/\n");
+		write(".dockerignore", ".git\ntarget\n");
+		byte[] blob = new byte[64 * 1024];
+		for (int i = 0; i < 100; i++) {
+			FileUtils.writeByteArrayToFile(new File(dockerFolder, ".git/objects/" + i % 10 + "/" + i), blob);
+			FileUtils.writeByteArrayToFile(new File(dockerFolder, "target/lib/lib" + i + ".jar"), blob);
+		}
+		for (int i = 0; i < 10; i++) {
+			FileUtils.writeByteArrayToFile(new File(dockerFolder, "src/File" + i + ".java"), blob);
+		}
+
+		BuildContextPlanner planner = new BuildContextPlanner(dockerFolder);
+		BuildContext context = planner.plan();
+		long after = context.getContentLength();
+		long before = after + planner.getExcludedLength();
+
+		LOG.info("Context shrunk from {} KB to {} KB, {} directories pruned", new Object[] { before >> 10, after >> 10,
+				planner.getPrunedDirectories().size() });
+		assertThat(context.getEntries().size(), equalTo(12));
+	}
+
+	private void write(String name, String content) throws IOException {
+		FileUtils.writeStringToFile(new File(dockerFolder, name), content);
+	}
+
+	private static ArrayList<String> names(BuildContext context) {
+		return new ArrayList<String>(context.getEntries().keySet());
+	}
+
+}
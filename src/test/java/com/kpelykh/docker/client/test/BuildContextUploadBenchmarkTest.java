@@ -0,0 +1,120 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+
+/**
+ * Uploads a large build context (256 MB by default, see {@code docker.benchmark.contextSize}) to
+ * a {@link StandInDockerDaemon} and reports throughput and heap use, with {@link Benchmarks}
+ * enabled.
+ */
+public class BuildContextUploadBenchmarkTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(BuildContextUploadBenchmarkTest.class);
+
+	private static final long CONTEXT_SIZE = Long.getLong("docker.benchmark.contextSize", 256L * 1024 * 1024);
+
+	private final AtomicLong uploadedBytes = new AtomicLong();
+
+	private volatile String transferEncoding;
+
+	private volatile String contentLength;
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private File dockerFolder;
+
+	@Before
+	public void setUp() throws Exception {
+		Benchmarks.assumeEnabled();
+		daemon = StandInDockerDaemon.tcp().on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				transferEncoding = request.getHeader("Transfer-Encoding");
+				contentLength = request.getHeader("Content-Length");
+				InputStream body = request.getBody();
+				byte[] buffer = new byte[64 * 1024];
+				long total = 0;
+				int read;
+				while ((read = body.read(buffer)) != -1) {
+					total += read;
+				}
+				uploadedBytes.set(total);
+				response.send(200, "application/json",
+						"{\"stream\":\"Successfully built 4fa6e0f0c678\\n\"}".getBytes("UTF-8"));
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+
+		dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-benchmark-" + System.nanoTime());
+		dockerFolder.mkdirs();
+		FileUtils.writeStringToFile(new File(dockerFolder, "Dockerfile"), "FROM busybox\nADD huge.bin /huge.bin\n");
+		// sparse, so the benchmark neither needs the disk space nor measures disk reads
+		RandomAccessFile huge = new RandomAccessFile(new File(dockerFolder, "huge.bin"), "rw");
+		huge.setLength(CONTEXT_SIZE);
+		huge.close();
+	}
+
+	@After
+	public void tearDown() {
+		// null if skipped
+		if (dockerClient != null) {
+			dockerClient.close();
+		}
+		if (daemon != null) {
+			daemon.stop();
+		}
+		FileUtils.deleteQuietly(dockerFolder);
+	}
+
+	@Test
+	public void shouldStreamLargeContextWithoutStaging() throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+		long start = System.nanoTime();
+		InputStream output = dockerClient.build(dockerFolder, "benchmark");
+		String log;
+		try {
+			log = IOUtils.toString(output);
+		} finally {
+			output.close();
+		}
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+		LOG.info("Uploaded {} MB context in {} ms ({} MB/s), heap grew by {} MB", new Object[] {
+				uploadedBytes.get() >> 20, millis, (uploadedBytes.get() >> 20) * 1000 / millis,
+				(heapAfter - heapBefore) >> 20 });
+
+		assertThat(log, containsString("Successfully built"));
+		assertThat(uploadedBytes.get(), greaterThan(CONTEXT_SIZE));
+		// streamed as it is archived, not staged first to learn its length
+		assertThat(transferEncoding, equalTo("chunked"));
+		assertThat(contentLength, nullValue());
+	}
+
+}
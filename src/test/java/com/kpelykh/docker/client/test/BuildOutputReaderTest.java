@@ -0,0 +1,175 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.build.BuildEvent;
+import com.kpelykh.docker.client.build.BuildListener;
+import com.kpelykh.docker.client.build.BuildOutputReader;
+
+/**
+ * Parsing of {@code /build} output into {@link BuildEvent}s.
+ */
+public class BuildOutputReaderTest {
+
+	@Test
+	public void shouldParseJsonMessagesSplitAcrossLines() throws Exception {
+		String output = "{\"stream\":\"Step 1 : FROM busybox\\n\"}"
+				+ "{\"stream\":\" ---> 769b9341d937\\n\"}\n"
+				+ "{\"stream\":\"Step 2 : RUN echo hel\"}{\"stream\":\"lo\\nhello\\n\"}"
+				+ "{\"stream\":\"Successfully built 4fa6e0f0c678\\n\"}";
+
+		List<BuildEvent> events = readAll(output);
+
+		assertThat(events.size(), equalTo(5));
+		assertThat(events.get(0).getType(), equalTo(BuildEvent.Type.STEP));
+		assertThat(events.get(0).getStep(), equalTo(1));
+		assertThat(events.get(1).getMessage(), equalTo(" ---> 769b9341d937"));
+		assertThat(events.get(2).getMessage(), equalTo("Step 2 : RUN echo hello"));
+		assertThat(events.get(2).getStep(), equalTo(2));
+		assertThat(events.get(3).getType(), equalTo(BuildEvent.Type.STREAM));
+		assertThat(events.get(4).getType(), equalTo(BuildEvent.Type.IMAGE_ID));
+		assertThat(events.get(4).getImageId(), equalTo("4fa6e0f0c678"));
+	}
+
+	@Test
+	public void shouldReportErrors() throws Exception {
+		String output = "{\"stream\":\"Step 1 : FROM nosuchimage\\n\"}"
+				+ "{\"errorDetail\":{\"message\":\"Error: image nosuchimage not found\"},\"error\":\"image not found\"}";
+
+		BuildOutputReader reader = new BuildOutputReader(new ByteArrayInputStream(output.getBytes("UTF-8")));
+		assertThat(reader.readAll(null), nullValue());
+		assertThat(reader.getError(), equalTo("Error: image nosuchimage not found"));
+	}
+
+	@Test
+	public void shouldNotTakeStreamedOutputForErrors() throws Exception {
+		String output = "{\"stream\":\"Step 2/3 : RUN echo Error: none\\n\"}{\"stream\":\"Error: none\\n\"}"
+				+ "{\"stream\":\"Successfully built 4fa6e0f0c678\\n\"}";
+
+		BuildOutputReader reader = new BuildOutputReader(new ByteArrayInputStream(output.getBytes("UTF-8")));
+		List<BuildEvent> events = new ArrayList<BuildEvent>();
+		BuildEvent event;
+		while ((event = reader.next()) != null) {
+			events.add(event);
+		}
+
+		assertThat(events.get(0).getType(), equalTo(BuildEvent.Type.STEP));
+		assertThat(events.get(0).getStep(), equalTo(2));
+		assertThat(events.get(1).getType(), equalTo(BuildEvent.Type.STREAM));
+		assertThat(reader.getError(), nullValue());
+		assertThat(reader.getImageId(), equalTo("4fa6e0f0c678"));
+	}
+
+	@Test
+	public void shouldReportPlainTextErrors() throws Exception {
+		BuildOutputReader reader = new BuildOutputReader(new ByteArrayInputStream(
+				"Step 1/1 : FROM nosuchimage\nError build: image nosuchimage not found\n".getBytes("UTF-8")));
+
+		assertThat(reader.readAll(null), nullValue());
+		assertThat(reader.getError(), equalTo("Error build: image nosuchimage not found"));
+	}
+
+	@Test
+	public void shouldParsePlainTextOutput() throws Exception {
+		List<BuildEvent> events = readAll("Step 1 : FROM busybox\n ---> 769b9341d937\nSuccessfully built 4fa6e0f0c678\n");
+
+		assertThat(events.size(), equalTo(3));
+		assertThat(events.get(0).getType(), equalTo(BuildEvent.Type.STEP));
+		assertThat(events.get(2).getImageId(), equalTo("4fa6e0f0c678"));
+	}
+
+	@Test
+	public void shouldDeliverEventsWhileTheBuildRuns() throws Exception {
+		final CountDownLatch stepSeen = new CountDownLatch(1);
+		StandInDockerDaemon daemon = StandInDockerDaemon.tcp().on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				request.readBody();
+				OutputStream body = response.stream(200, "application/json");
+				body.write("{\"stream\":\"Step 1 : FROM busybox\\n\"}".getBytes("UTF-8"));
+				body.flush();
+				try {
+					// the build only finishes once the client saw its first step
+					if (!stepSeen.await(10, TimeUnit.SECONDS)) {
+						body.write("{\"error\":\"step was not delivered\"}".getBytes("UTF-8"));
+						return;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				body.write("{\"stream\":\"Successfully built 4fa6e0f0c678\\n\"}".getBytes("UTF-8"));
+			}
+		}).start();
+		DockerClient dockerClient = new DockerClient(daemon.getUrl());
+		File dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-build-output-" + System.nanoTime());
+		try {
+			FileUtils.writeStringToFile(new File(dockerFolder, "Dockerfile"), "FROM busybox\n");
+
+			String imageId = dockerClient.build(dockerFolder, "streaming", new BuildListener() {
+				@Override
+				public void onEvent(BuildEvent event) {
+					if (event.getType() == BuildEvent.Type.STEP) {
+						stepSeen.countDown();
+					}
+				}
+			});
+
+			assertThat(imageId, equalTo("4fa6e0f0c678"));
+		} finally {
+			dockerClient.close();
+			daemon.stop();
+			FileUtils.deleteQuietly(dockerFolder);
+		}
+	}
+
+	@Test(expected = DockerException.class)
+	public void shouldFailBuildOnError() throws Exception {
+		StandInDockerDaemon daemon = StandInDockerDaemon.tcp().on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				request.readBody();
+				response.send(200, "application/json", "{\"error\":\"build failed\"}".getBytes("UTF-8"));
+			}
+		}).start();
+		DockerClient dockerClient = new DockerClient(daemon.getUrl());
+		File dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-build-output-" + System.nanoTime());
+		try {
+			FileUtils.writeStringToFile(new File(dockerFolder, "Dockerfile"), "FROM busybox\n");
+			dockerClient.build(dockerFolder, "failing", null);
+		} finally {
+			dockerClient.close();
+			daemon.stop();
+			FileUtils.deleteQuietly(dockerFolder);
+		}
+	}
+
+	private List<BuildEvent> readAll(String output) throws IOException {
+		final List<BuildEvent> events = new ArrayList<BuildEvent>();
+		new BuildOutputReader(new ByteArrayInputStream(output.getBytes("UTF-8"))).readAll(new BuildListener() {
+			@Override
+			public void onEvent(BuildEvent event) {
+				events.add(event);
+			}
+		});
+		return events;
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.build.BuildEvent;
+import com.kpelykh.docker.client.build.BuildListener;
+import com.kpelykh.docker.client.build.BuildResultCache;
+
+/**
+ * Skipping builds of unchanged contexts with a {@link BuildResultCache}, against a
+ * {@link StandInDockerDaemon} where every build takes {@link #BUILD_MILLIS}.
+ */
+public class BuildResultCacheTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(BuildResultCacheTest.class);
+
+	private static final long BUILD_MILLIS = 300;
+
+	/** Full image ids by image id and tag, as the daemon resolves them. */
+	private final Map<String, String> images = new ConcurrentHashMap<String, String>();
+
+	private final AtomicInteger builds = new AtomicInteger();
+
+	private final List<String> taggings = new ArrayList<String>();
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private File dockerFolder;
+
+	private File cacheDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				request.readBody();
+				try {
+					Thread.sleep(BUILD_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				String shortId = String.format("%012x", 0xa00000000000L + builds.incrementAndGet());
+				String id = shortId + shortId + shortId + shortId + "0000000000000000";
+				images.put(shortId, id);
+				images.put(withDefaultTag(decode(request.getParameter("t"))), id);
+				String output = "{\"stream\":\"Successfully built " + shortId + "\\n\"}";
+				response.send(200, "application/json", output.getBytes("UTF-8"));
+			}
+		}).on("GET", "/images/(.+)/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String name = decode(request.group(1));
+				String id = images.get(images.containsKey(name) ? name : withDefaultTag(name));
+				if (id == null) {
+					response.send(404, "text/plain", ("No such image: " + name).getBytes("UTF-8"));
+				} else {
+					response.send(200, "application/json", ("{\"id\":\"" + id + "\"}").getBytes("UTF-8"));
+				}
+			}
+		}).on("POST", "/images/(.+)/tag", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String name = decode(request.group(1));
+				String tag = decode(request.getParameter("repo")) + ":" + decode(request.getParameter("tag"));
+				synchronized (taggings) {
+					taggings.add(tag);
+				}
+				images.put(tag, images.get(name));
+				response.sendStatus(201);
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+		dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-results-" + System.nanoTime());
+		cacheDirectory = new File(dockerFolder.getPath() + "-cache");
+		dockerClient.setBuildResultCache(new BuildResultCache(cacheDirectory));
+		write("Dockerfile", "FROM busybox\nADD . /app/\n");
+		write("app.sh", "echo hello");
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+		FileUtils.deleteQuietly(dockerFolder);
+		FileUtils.deleteQuietly(cacheDirectory);
+	}
+
+	@Test
+	public void shouldSkipBuildOfUnchangedContext() throws Exception {
+		long start = System.nanoTime();
+		String built = dockerClient.build(dockerFolder, "acme/app", null);
+		long buildMillis = (System.nanoTime() - start) / 1000000;
+
+		// a new client, as on the next CI run
+		dockerClient.setBuildResultCache(new BuildResultCache(cacheDirectory));
+		final List<BuildEvent> events = new ArrayList<BuildEvent>();
+		start = System.nanoTime();
+		String cached = dockerClient.build(dockerFolder, "acme/app", new BuildListener() {
+			@Override
+			public void onEvent(BuildEvent event) {
+				events.add(event);
+			}
+		});
+		long cachedMillis = (System.nanoTime() - start) / 1000000;
+
+		LOG.info("Build took {} ms, unchanged rebuild {} ms", buildMillis, cachedMillis);
+		assertThat(cached, equalTo(built));
+		assertThat(builds.get(), equalTo(1));
+		assertThat(events.size(), equalTo(1));
+		assertThat(events.get(0).getType(), equalTo(BuildEvent.Type.IMAGE_ID));
+		assertThat(events.get(0).getImageId(), equalTo(built));
+		assertThat(taggings.isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void shouldBuildChangedContext() throws Exception {
+		String built = dockerClient.build(dockerFolder, "acme/app", null);
+		write("app.sh", "echo changed");
+		String rebuilt = dockerClient.build(dockerFolder, "acme/app", null);
+		write("Dockerfile", "FROM busybox\nADD . /opt/app/\n");
+		String rebuiltDockerfile = dockerClient.build(dockerFolder, "acme/app", null);
+
+		assertThat(builds.get(), equalTo(3));
+		assertThat(rebuilt, not(equalTo(built)));
+		assertThat(rebuiltDockerfile, not(equalTo(rebuilt)));
+	}
+
+	@Test
+	public void shouldBuildAgainWhenImageWasRemoved() throws Exception {
+		dockerClient.build(dockerFolder, "acme/app", null);
+		images.clear();
+
+		dockerClient.build(dockerFolder, "acme/app", null);
+
+		assertThat(builds.get(), equalTo(2));
+	}
+
+	@Test
+	public void shouldTagCachedImage() throws Exception {
+		String built = dockerClient.build(dockerFolder, "acme/app", null);
+
+		String cached = dockerClient.build(dockerFolder, "acme/app:release", null);
+
+		assertThat(cached, equalTo(built));
+		assertThat(builds.get(), equalTo(1));
+		assertThat(taggings, contains("acme/app:release"));
+		assertThat(images.get("acme/app:release"), equalTo(images.get(built)));
+	}
+
+	private void write(String name, String content) throws IOException {
+		FileUtils.writeStringToFile(new File(dockerFolder, name), content);
+	}
+
+	private static String decode(String value) throws IOException {
+		return URLDecoder.decode(value, "UTF-8");
+	}
+
+	private static String withDefaultTag(String image) {
+		return image.lastIndexOf(':') > image.lastIndexOf('/') ? image : image + ":latest";
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.build.BuildReport;
+import com.kpelykh.docker.client.build.BuildScheduler;
+
+/**
+ * Concurrent builds along {@code FROM} dependencies with the {@link BuildScheduler}, against a
+ * {@link StandInDockerDaemon} where every build takes {@link #BUILD_MILLIS}.
+ */
+public class BuildSchedulerTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(BuildSchedulerTest.class);
+
+	private static final long BUILD_MILLIS = 300;
+
+	private final AtomicInteger runningBuilds = new AtomicInteger();
+
+	private final AtomicInteger maxRunningBuilds = new AtomicInteger();
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private File folders;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				request.readBody();
+				String tag = request.getParameter("t");
+				int running = runningBuilds.incrementAndGet();
+				synchronized (maxRunningBuilds) {
+					maxRunningBuilds.set(Math.max(maxRunningBuilds.get(), running));
+				}
+				try {
+					Thread.sleep(BUILD_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					runningBuilds.decrementAndGet();
+				}
+				String output = tag.startsWith("broken") ? "{\"error\":\"The command returned a non-zero code: 1\"}"
+						: "{\"stream\":\"Successfully built " + Integer.toHexString(tag.hashCode()) + "\\n\"}";
+				response.send(200, "application/json", output.getBytes("UTF-8"));
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+		folders = new File(System.getProperty("java.io.tmpdir"), "docker-scheduler-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+		FileUtils.deleteQuietly(folders);
+	}
+
+	@Test
+	public void shouldBuildIndependentImagesConcurrently() throws Exception {
+		// base -> app -> app-debug, base -> worker, tools
+		BuildScheduler scheduler = new BuildScheduler(dockerClient, 3)
+				.addImage("acme/app-debug", folder("app-debug", "acme/app:latest"))
+				.addImage("acme/app", folder("app", "acme/base"))
+				.addImage("acme/worker", folder("worker", "acme/base"))
+				.addImage("acme/base", folder("base", "ubuntu"))
+				.addImage("acme/tools", folder("tools", "busybox"));
+
+		BuildReport report = scheduler.run();
+		LOG.info("{}", report);
+
+		assertThat(report.isSuccessful(), equalTo(true));
+		assertThat(tags(report.getCriticalPath()), contains("acme/base", "acme/app", "acme/app-debug"));
+		assertThat(maxRunningBuilds.get(), lessThanOrEqualTo(3));
+		assertThat(report.getEntry("acme/app").getStartedMillis(),
+				greaterThanOrEqualTo(report.getEntry("acme/base").getFinishedMillis()));
+		// three levels deep, so three build times instead of five
+		assertThat(report.getElapsedMillis(), lessThan(5 * BUILD_MILLIS));
+		assertThat(report.getEntry("acme/app").getImageId(), equalTo(Integer.toHexString("acme/app".hashCode())));
+	}
+
+	@Test
+	public void shouldRespectTheConcurrencyLimit() throws Exception {
+		BuildScheduler scheduler = new BuildScheduler(dockerClient, 2);
+		for (int i = 0; i < 6; i++) {
+			scheduler.addImage("acme/independent" + i, folder("independent" + i, "busybox"));
+		}
+
+		BuildReport report = scheduler.run();
+
+		assertThat(report.isSuccessful(), equalTo(true));
+		assertThat(maxRunningBuilds.get(), equalTo(2));
+		assertThat(report.getElapsedMillis(), greaterThanOrEqualTo(3 * BUILD_MILLIS));
+	}
+
+	@Test
+	public void shouldSkipImagesBasedOnFailedBuilds() throws Exception {
+		BuildReport report = new BuildScheduler(dockerClient, 4)
+				.addImage("broken/base", folder("base", "ubuntu"))
+				.addImage("acme/app", folder("app", "broken/base"))
+				.addImage("acme/app-debug", folder("app-debug", "acme/app"))
+				.addImage("acme/tools", folder("tools", "busybox"))
+				.run();
+
+		assertThat(report.isSuccessful(), equalTo(false));
+		assertThat(report.getEntry("broken/base").getStatus(), equalTo(BuildReport.Status.FAILED));
+		assertThat(report.getEntry("acme/app").getStatus(), equalTo(BuildReport.Status.SKIPPED));
+		assertThat(report.getEntry("acme/app-debug").getStatus(), equalTo(BuildReport.Status.SKIPPED));
+		assertThat(report.getEntry("acme/tools").getStatus(), equalTo(BuildReport.Status.SUCCEEDED));
+	}
+
+	@Test(expected = DockerException.class)
+	public void shouldRejectCycles() throws Exception {
+		new BuildScheduler(dockerClient, 2)
+				.addImage("acme/a", folder("a", "acme/b"))
+				.addImage("acme/b", folder("b", "acme/a"))
+				.run();
+	}
+
+	private File folder(String name, String from) throws IOException {
+		File folder = new File(folders, name);
+		FileUtils.writeStringToFile(new File(folder, "Dockerfile"), "FROM " + from + "\nRUN true\n");
+		return folder;
+	}
+
+	private static List<String> tags(List<BuildReport.Entry> entries) {
+		List<String> tags = new ArrayList<String>();
+		for (BuildReport.Entry entry : entries) {
+			tags.add(entry.getTag());
+		}
+		return tags;
+	}
+
+}
@@ -0,0 +1,215 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpServerErrorException;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.build.BuildContext;
+import com.kpelykh.docker.client.build.BuildWorkspace;
+import com.kpelykh.docker.client.utils.CompressArchiveUtil;
+
+/**
+ * Staging of build contexts on the heap or on disk within the quota of a {@link BuildWorkspace}.
+ */
+public class BuildWorkspaceTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(BuildWorkspaceTest.class);
+
+	private static final long MEMORY_THRESHOLD = 64 * 1024;
+
+	private static final long DISK_QUOTA = 1024 * 1024;
+
+	private File dockerFolder;
+
+	private File root;
+
+	private BuildWorkspace workspace;
+
+	@Before
+	public void setUp() throws Exception {
+		dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-workspace-" + System.nanoTime());
+		root = new File(dockerFolder.getPath() + "-root");
+		workspace = new BuildWorkspace(root, MEMORY_THRESHOLD, DISK_QUOTA);
+		FileUtils.writeStringToFile(new File(dockerFolder, "Dockerfile"), "FROM busybox\nADD . /app/\n");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		workspace.close();
+		FileUtils.deleteQuietly(dockerFolder);
+		FileUtils.deleteQuietly(root);
+	}
+
+	@Test
+	public void shouldStageSmallContextInMemory() throws Exception {
+		write("app.sh", 1000);
+		write("a/very/long/path/which/does/not/fit/into/the/name/field/of/a/tar/header/and/needs/a/gnu/long/name/entry.txt", 10);
+		BuildContext context = context();
+
+		BuildWorkspace.StagedBuildContext staged = workspace.stage(context, null, null);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, expected);
+		assertThat(staged.isInMemory(), equalTo(true));
+		assertThat(staged.getLength(), equalTo((long) expected.size()));
+		assertThat(CompressArchiveUtil.getArchiveLength(context), equalTo((long) expected.size()));
+		assertThat(staged(), equalTo(0));
+		staged.close();
+	}
+
+	@Test
+	public void shouldSpillLargeContextToDisk() throws Exception {
+		write("app.jar", 300 * 1024);
+		BuildContext context = context();
+
+		BuildWorkspace.StagedBuildContext staged = workspace.stage(context, null, null);
+
+		assertThat(staged.isInMemory(), equalTo(false));
+		assertThat(staged.getLength(), equalTo(CompressArchiveUtil.getArchiveLength(context)));
+		assertThat(staged(), equalTo(1));
+		assertThat(workspace.getDiskUsage(), equalTo(staged.getLength()));
+		staged.close();
+		staged.close();
+		assertThat(staged(), equalTo(0));
+		assertThat(workspace.getDiskUsage(), equalTo(0L));
+	}
+
+	@Test
+	public void shouldWaitForDiskQuota() throws Exception {
+		write("app.jar", 600 * 1024);
+		final BuildContext context = context();
+		final BuildWorkspace.StagedBuildContext first = workspace.stage(context, null, null);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			long start = System.currentTimeMillis();
+			Future<BuildWorkspace.StagedBuildContext> second = executor.submit(new Callable<BuildWorkspace.StagedBuildContext>() {
+				@Override
+				public BuildWorkspace.StagedBuildContext call() throws IOException {
+					return workspace.stage(context, null, null);
+				}
+			});
+			Thread.sleep(200);
+			assertThat(second.isDone(), equalTo(false));
+			first.close();
+			second.get().close();
+			assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(200L));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertThat(workspace.getDiskUsage(), equalTo(0L));
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRejectContextLargerThanQuota() throws Exception {
+		write("app.jar", DISK_QUOTA);
+
+		workspace.stage(context(), null, null);
+	}
+
+	@Test
+	public void shouldDeleteLeftOversOfPreviousProcess() throws Exception {
+		File lock = new File(root, "workspace-123.lock");
+		File leftOver = new File(root, "workspace-123/context-456.tar");
+		FileUtils.writeStringToFile(lock, "");
+		FileUtils.writeStringToFile(leftOver, "crashed");
+
+		new BuildWorkspace(root, MEMORY_THRESHOLD, DISK_QUOTA).close();
+
+		assertThat(leftOver.getParentFile().exists(), equalTo(false));
+		assertThat(lock.exists(), equalTo(false));
+	}
+
+	@Test
+	public void shouldKeepContextsOfOtherWorkspaces() throws Exception {
+		write("app.jar", 300 * 1024);
+		BuildWorkspace.StagedBuildContext staged = workspace.stage(context(), null, null);
+
+		BuildWorkspace other = new BuildWorkspace(root, MEMORY_THRESHOLD, DISK_QUOTA);
+		try {
+			assertThat(other.getDirectory(), not(equalTo(workspace.getDirectory())));
+			assertThat(staged(), equalTo(1));
+		} finally {
+			other.close();
+		}
+		assertThat(other.getDirectory().exists(), equalTo(false));
+		assertThat(staged(), equalTo(1));
+		staged.close();
+	}
+
+	@Test
+	public void shouldUploadStagedContextWithContentLength() throws Exception {
+		write("app.jar", 300 * 1024);
+		final String[] received = new String[2];
+		StandInDockerDaemon daemon = StandInDockerDaemon.tcp().on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				received[0] = request.getHeader("Content-Length");
+				received[1] = request.getHeader("Transfer-Encoding");
+				request.readBody();
+				if ("broken".equals(request.getParameter("t"))) {
+					response.send(500, "text/plain", "no space left on device".getBytes("UTF-8"));
+				} else {
+					response.send(200, "application/json", "{\"stream\":\"Successfully built 0123456789ab\\n\"}".getBytes("UTF-8"));
+				}
+			}
+		}).start();
+		DockerClient dockerClient = new DockerClient(daemon.getUrl());
+		dockerClient.setBuildWorkspace(workspace);
+		try {
+			InputStream output = dockerClient.build(dockerFolder, "acme/app");
+			IOUtils.toString(output);
+			output.close();
+			assertThat(received[0], equalTo(String.valueOf(CompressArchiveUtil.getArchiveLength(context()))));
+			assertThat(received[1], nullValue());
+			assertThat(staged(), equalTo(0));
+
+			try {
+				dockerClient.build(dockerFolder, "broken");
+			} catch (HttpServerErrorException e) {
+				// expected
+			}
+			assertThat(staged(), equalTo(0));
+			assertThat(workspace.getDiskUsage(), equalTo(0L));
+		} finally {
+			dockerClient.close();
+			daemon.stop();
+		}
+	}
+
+	private int staged() {
+		return workspace.getDirectory().list().length;
+	}
+
+	private void write(String name, long length) throws IOException {
+		FileUtils.writeByteArrayToFile(new File(dockerFolder, name), new byte[(int) length]);
+	}
+
+	private BuildContext context() throws IOException {
+		BuildContext context = new BuildContext();
+		context.addDirectory("", dockerFolder);
+		return context;
+	}
+
+}
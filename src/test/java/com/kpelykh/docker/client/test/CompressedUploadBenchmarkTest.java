@@ -0,0 +1,269 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.build.BuildContext;
+import com.kpelykh.docker.client.build.BuildContextEntity;
+import com.kpelykh.docker.client.utils.ParallelGzipOutputStream;
+
+/**
+ * Uploads a build context of source-like text and incompressible binaries (8 MB by default, see
+ * {@code docker.benchmark.compressedContextSize}) over a link throttled to
+ * {@code docker.benchmark.uploadBandwidth} bytes per second (10 MB/s by default), at several
+ * compression levels, with {@link Benchmarks} enabled.
+ */
+public class CompressedUploadBenchmarkTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(CompressedUploadBenchmarkTest.class);
+
+	private static final long CONTEXT_SIZE = Long.getLong("docker.benchmark.compressedContextSize", 8L * 1024 * 1024);
+
+	private static final long UPLOAD_BANDWIDTH = Long.getLong("docker.benchmark.uploadBandwidth", 10L * 1024 * 1024);
+
+	private static final String[] WORDS = { "public", "private", "static", "final", "class", "return", "new", "if",
+			"else", "for", "while", "String", "int", "long", "void", "import", "package", "throws", "IOException",
+			"context", "build", "image", "container", "docker", "{", "}", "(", ")", ";", "=", "\n\t", "\n\t\t" };
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private ExecutorService executor;
+
+	private File dockerFolder;
+
+	private long uploadedBytes;
+
+	private List<String> uploadedEntries;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("POST", "/build", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				byte[] body = readThrottled(request.getBody());
+				InputStream tar = new ByteArrayInputStream(body);
+				if (body.length > 2 && body[0] == (byte) 0x1f && body[1] == (byte) 0x8b) {
+					tar = new GZIPInputStream(tar);
+				}
+				uploadedBytes = body.length;
+				uploadedEntries = entryNames(tar);
+				response.send(200, "application/json",
+						"{\"stream\":\"Successfully built 4fa6e0f0c678\\n\"}".getBytes("UTF-8"));
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		dockerClient.setArchiveExecutor(executor);
+
+		dockerFolder = new File(System.getProperty("java.io.tmpdir"), "docker-compressed-" + System.nanoTime());
+		FileUtils.writeStringToFile(new File(dockerFolder, "Dockerfile"), "FROM busybox\nADD . /app/\n");
+		Random random = new Random(42);
+		long written = 0;
+		for (int i = 0; written < CONTEXT_SIZE; i++) {
+			if (i % 4 == 3) {
+				byte[] binary = new byte[512 * 1024];
+				random.nextBytes(binary);
+				FileUtils.writeByteArrayToFile(new File(dockerFolder, "lib/lib" + i + ".jar"), binary);
+				written += binary.length;
+			} else {
+				StringBuilder source = new StringBuilder();
+				while (source.length() < 256 * 1024) {
+					source.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+				}
+				FileUtils.writeStringToFile(new File(dockerFolder, "src/Source" + i + ".java"), source.toString());
+				written += source.length();
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+		executor.shutdownNow();
+		FileUtils.deleteQuietly(dockerFolder);
+	}
+
+	@Test
+	public void compareUploadTimeByCompressionLevel() throws Exception {
+		Benchmarks.assumeEnabled();
+		List<String> expectedEntries = null;
+		long uncompressedBytes = 0;
+		long uncompressedMillis = 0;
+		for (int level : new int[] { 0, 1, 3, 6, 9 }) {
+			dockerClient.setBuildContextCompressionLevel(level);
+			long start = System.nanoTime();
+			InputStream output = dockerClient.build(dockerFolder, "acme/compressed");
+			IOUtils.toString(output);
+			output.close();
+			long millis = (System.nanoTime() - start) / 1000000;
+
+			LOG.info("Level {}: {} KB uploaded in {} ms", new Object[] { level, uploadedBytes >> 10, millis });
+			if (level == 0) {
+				expectedEntries = uploadedEntries;
+				uncompressedBytes = uploadedBytes;
+				uncompressedMillis = millis;
+			} else {
+				assertThat(uploadedEntries, equalTo(expectedEntries));
+				assertThat(uploadedBytes, lessThan(uncompressedBytes));
+			}
+			if (level == 1) {
+				assertThat(millis, lessThan(uncompressedMillis));
+			}
+		}
+	}
+
+	@Test
+	public void shouldWriteSameMembersWithAndWithoutExecutor() throws Exception {
+		byte[] data = new byte[1000 * 1000];
+		new Random(7).nextBytes(data);
+		Arrays.fill(data, 0, data.length / 2, (byte) 'x');
+
+		byte[] parallel = gzip(data, executor);
+		byte[] serial = gzip(data, null);
+
+		assertThat(parallel, equalTo(serial));
+		assertThat(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(parallel))), equalTo(data));
+	}
+
+	@Test
+	public void shouldCompressSerialArchiveInFullBlocks() throws Exception {
+		BuildContext context = new BuildContext();
+		for (int i : new int[] { 0, 1, 2, 4, 5, 6 }) {
+			String name = "src/Source" + i + ".java";
+			context.addFile(name, new File(dockerFolder, name));
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+		new BuildContextEntity(context, null, null, 1).writeTo(compressed);
+
+		byte[] archive = compressed.toByteArray();
+		List<String> entries = entryNames(new GZIPInputStream(new ByteArrayInputStream(archive)));
+		assertThat(entries.size(), equalTo(6));
+		// not one member per 10k tar record
+		long blocks = context.getContentLength() / ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE + 1;
+		assertThat(countMembers(archive), lessThan((int) blocks + 2));
+	}
+
+	@Test
+	public void shouldReadArchiveAsContent() throws Exception {
+		BuildContext context = new BuildContext();
+		context.addFile("src/Source0.java", new File(dockerFolder, "src/Source0.java"));
+		context.addFile("lib/lib3.jar", new File(dockerFolder, "lib/lib3.jar"));
+		BuildContextEntity entity = new BuildContextEntity(context);
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		entity.writeTo(written);
+
+		InputStream content = entity.getContent();
+		byte[] read;
+		try {
+			read = IOUtils.toByteArray(content);
+		} finally {
+			content.close();
+		}
+
+		assertThat(read, equalTo(written.toByteArray()));
+		assertThat(entryNames(new ByteArrayInputStream(read)).size(), equalTo(2));
+	}
+
+	@Test
+	public void shouldWriteValidGzipForEmptyInput() throws Exception {
+		byte[] empty = gzip(new byte[0], executor);
+
+		assertThat(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(empty))).length, equalTo(0));
+	}
+
+	private static byte[] gzip(byte[] data, ExecutorService executor) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, executor, 6, 64 * 1024, 4);
+		// odd writes, crossing block boundaries
+		for (int off = 0; off < data.length; off += 10007) {
+			gzip.write(data, off, Math.min(10007, data.length - off));
+		}
+		gzip.close();
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * @return the number of concatenated gzip members, each with the 10 byte header
+	 *         {@link ParallelGzipOutputStream} writes.
+	 */
+	private static int countMembers(byte[] gzip) throws Exception {
+		int members = 0;
+		int offset = 0;
+		byte[] buffer = new byte[64 * 1024];
+		while (offset < gzip.length) {
+			Inflater inflater = new Inflater(true);
+			inflater.setInput(gzip, offset + 10, gzip.length - offset - 10);
+			while (!inflater.finished()) {
+				inflater.inflate(buffer);
+			}
+			// trailer with CRC and size follows the deflated data
+			offset = gzip.length - inflater.getRemaining() + 8;
+			inflater.end();
+			members++;
+		}
+		return members;
+	}
+
+	private static byte[] readThrottled(InputStream body) throws IOException {
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		long start = System.nanoTime();
+		int read;
+		while ((read = body.read(buffer)) != -1) {
+			received.write(buffer, 0, read);
+			long dueNanos = received.size() * 1000000000L / UPLOAD_BANDWIDTH;
+			long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1000000;
+			if (aheadMillis > 0) {
+				try {
+					Thread.sleep(aheadMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted");
+				}
+			}
+		}
+		return received.toByteArray();
+	}
+
+	private static List<String> entryNames(InputStream tar) throws IOException {
+		TarArchiveInputStream entries = new TarArchiveInputStream(tar);
+		List<String> names = new ArrayList<String>();
+		TarArchiveEntry entry;
+		while ((entry = entries.getNextTarEntry()) != null) {
+			names.add(entry.getName() + ":" + entry.getSize());
+		}
+		return names;
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+
+/**
+ * Streams container logs from a {@link StandInDockerDaemon} which serves a large finite log and
+ * an endless followed log.
+ */
+public class ContainerLogStreamingTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ContainerLogStreamingTest.class);
+
+	private static final long LOG_SIZE = 512L * 1024 * 1024;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("POST", "/containers/([^/]+)/attach", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				boolean follow = "1".equals(request.getParameter("stream"));
+				byte[] chunk = new byte[CHUNK_SIZE];
+				Arrays.fill(chunk, (byte) 'x');
+				OutputStream body = response.stream(200, "application/vnd.docker.raw-stream");
+				for (long written = 0; follow || written < LOG_SIZE; written += CHUNK_SIZE) {
+					body.write(chunk);
+					body.flush();
+				}
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldStreamLargeLogWithoutBufferingIt() throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		long start = System.nanoTime();
+		InputStream log = dockerClient.logContainer("4fa6e0f0c678");
+		long total = 0;
+		long maxUsedHeap = 0;
+		try {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int read;
+			while ((read = log.read(buffer)) != -1) {
+				total += read;
+				maxUsedHeap = Math.max(maxUsedHeap, runtime.totalMemory() - runtime.freeMemory());
+			}
+		} finally {
+			log.close();
+		}
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		LOG.info("Streamed {} MB log in {} ms ({} MB/s), max used heap {} MB", new Object[] { total >> 20, millis,
+				(total >> 20) * 1000 / millis, maxUsedHeap >> 20 });
+
+		assertThat(total, equalTo(LOG_SIZE));
+	}
+
+	@Test(timeout = 10000)
+	public void shouldReturnFollowedLogImmediatelyAndStopOnClose() throws Exception {
+		InputStream log = dockerClient.logContainerStream("4fa6e0f0c678");
+		byte[] buffer = new byte[CHUNK_SIZE];
+		assertThat(log.read(buffer) > 0, is(true));
+		log.close();
+
+		// the aborted connection must not be handed out again
+		InputStream again = dockerClient.logContainerStream("4fa6e0f0c678");
+		assertThat(again.read(buffer) > 0, is(true));
+		again.close();
+	}
+
+}
@@ -0,0 +1,303 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerTemplate;
+import com.kpelykh.docker.client.container.ContainerRegistry;
+
+/**
+ * Following the events of a {@link StandInDockerDaemon} with a {@link ContainerRegistry}. The
+ * stand-in sends the events queued by the tests and ends the stream on {@link #DROP}.
+ */
+public class ContainerRegistryTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ContainerRegistryTest.class);
+
+	private static final String DROP = "drop";
+
+	private static final String WEB_ID = "4fa6e0f0c6786287e131c3852c58a2e01cc697a68231826813597e4994f1d6e2";
+
+	private static final String DB_ID = "9cd87474be90c5c0b1d30a5b1e2c1e3c6ae1b5c3e6d2bd7a4f0e51a0b7d8c3e1";
+
+	private static final String WORKER_ID = "7a1c3e2b9f5d4e6a8b0c2d4f6e8a0b2c4d6e8f0a2b4c6d8e0f2a4b6c8d0e2f4a";
+
+	private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+	private final AtomicInteger listings = new AtomicInteger();
+
+	private final AtomicInteger inspections = new AtomicInteger();
+
+	private volatile String listing;
+
+	private volatile boolean stopping;
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private ContainerRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		listing = "[" + container(WEB_ID, "web", "Up 3 minutes") + "," + container(DB_ID, "db", "Exit 0") + "]";
+		daemon = StandInDockerDaemon.tcp().on("GET", "/containers/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				listings.incrementAndGet();
+				response.send(200, "application/json", listing.getBytes("UTF-8"));
+			}
+		}).on("GET", "/containers/([^/]+)/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				inspections.incrementAndGet();
+				String id = request.group(1);
+				if (id.equals("web") || id.equals("db") || id.equals("worker")) {
+					id = id.equals("web") ? WEB_ID : id.equals("db") ? DB_ID : WORKER_ID;
+				}
+				if (WORKER_ID.startsWith(id)) {
+					response.send(200, "application/json", ("{\"ID\":\"" + WORKER_ID + "\",\"Name\":\"/worker\","
+							+ "\"Image\":\"busybox\",\"State\":{\"Running\":false}}").getBytes("UTF-8"));
+				} else if (WEB_ID.startsWith(id) || DB_ID.startsWith(id)) {
+					boolean web = WEB_ID.startsWith(id);
+					response.send(200, "application/json", ("{\"ID\":\"" + (web ? WEB_ID : DB_ID) + "\",\"Name\":\"/"
+							+ (web ? "web" : "db") + "\",\"State\":{\"Running\":" + web + "}}").getBytes("UTF-8"));
+				} else {
+					response.send(404, "text/plain", ("No such container: " + id).getBytes("UTF-8"));
+				}
+			}
+		}).onJson("POST", "/containers/create", "{\"Id\":\"" + WORKER_ID + "\"}").on("POST",
+				"/containers/([^/]+)/start", new StandInDockerDaemon.Handler() {
+					@Override
+					public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+							throws IOException {
+						request.readBody();
+						response.sendStatus(204);
+					}
+				}).on("GET", "/events", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				OutputStream out = response.stream(200, "application/json");
+				try {
+					while (!stopping) {
+						String event = events.poll(50, TimeUnit.MILLISECONDS);
+						if (DROP.equals(event)) {
+							return;
+						}
+						if (event != null) {
+							out.write(event.getBytes("UTF-8"));
+							out.flush();
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+		registry = new ContainerRegistry(dockerClient, 50);
+	}
+
+	@After
+	public void tearDown() {
+		registry.close();
+		stopping = true;
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldListContainersOnStart() throws Exception {
+		registry.start();
+
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+		assertThat(registry.size(), equalTo(2));
+		assertThat(registry.isRunning("web"), equalTo(true));
+		assertThat(registry.isRunning("/web"), equalTo(true));
+		assertThat(registry.isRunning(WEB_ID), equalTo(true));
+		assertThat(registry.isRunning(WEB_ID.substring(0, 12)), equalTo(true));
+		assertThat(registry.containerExists("db"), equalTo(true));
+		assertThat(registry.isRunning("db"), equalTo(false));
+		assertThat(registry.containerExists("worker"), equalTo(false));
+		assertThat(inspections.get(), equalTo(0));
+	}
+
+	@Test
+	public void shouldFollowEvents() throws Exception {
+		registry.start();
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+
+		events.add(event("die", WEB_ID));
+		events.add(event("start", DB_ID));
+		events.add(event("create", WORKER_ID));
+		events.add(event("start", WORKER_ID));
+		awaitAppliedEvents(4);
+
+		assertThat(registry.isRunning("web"), equalTo(false));
+		assertThat(registry.isRunning("db"), equalTo(true));
+		assertThat(registry.isRunning("worker"), equalTo(true));
+		assertThat(registry.get("worker").getImage(), equalTo("busybox:latest"));
+		assertThat(inspections.get(), equalTo(1));
+
+		events.add(event("destroy", WORKER_ID));
+		events.add(event("untag", "busybox:latest"));
+		awaitAppliedEvents(5);
+
+		assertThat(registry.containerExists("worker"), equalTo(false));
+		assertThat(registry.containerExists(WORKER_ID), equalTo(false));
+		assertThat(registry.size(), equalTo(2));
+	}
+
+	@Test
+	public void shouldResynchronizeWhenStreamDrops() throws Exception {
+		registry.start();
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+
+		// changes the stream doesn't report
+		listing = "[" + container(DB_ID, "db", "Up 1 second") + "]";
+		events.add(DROP);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (registry.getResyncs() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+
+		assertThat(listings.get(), equalTo(2));
+		assertThat(registry.containerExists("web"), equalTo(false));
+		assertThat(registry.isRunning("db"), equalTo(true));
+
+		events.add(event("stop", DB_ID));
+		awaitAppliedEvents(1);
+		assertThat(registry.isRunning("db"), equalTo(false));
+	}
+
+	@Test
+	public void shouldAskDaemonWhileOutOfSync() throws Exception {
+		DockerTemplate template = new DockerTemplate(dockerClient);
+		template.setContainerRegistry(registry);
+
+		assertThat(template.isRunning("web"), equalTo(true));
+		assertThat(template.containerExists("nope"), equalTo(false));
+		assertThat(inspections.get(), equalTo(2));
+
+		registry.start();
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+		assertThat(template.isRunning("web"), equalTo(true));
+		assertThat(inspections.get(), equalTo(2));
+		// unknown to the registry, so the daemon is asked
+		assertThat(template.containerExists("nope"), equalTo(false));
+		try {
+			template.isRunning("nope");
+			throw new AssertionError("Missing container is running");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertThat(inspections.get(), equalTo(4));
+	}
+
+	@Test
+	public void shouldKnowOwnContainersBeforeTheirEvents() throws Exception {
+		DockerTemplate template = new DockerTemplate(dockerClient);
+		template.setContainerRegistry(registry);
+		registry.start();
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+
+		String id = template.create("busybox", "worker", 8080);
+
+		assertThat(id, equalTo(WORKER_ID));
+		assertThat(template.containerExists("worker"), equalTo(true));
+		assertThat(template.isRunning(id), equalTo(false));
+
+		template.start("worker", 8080, 8080);
+
+		assertThat(template.isRunning("worker"), equalTo(true));
+		assertThat(inspections.get(), equalTo(0));
+
+		// late events don't take it back
+		events.add(event("create", WORKER_ID));
+		events.add(event("start", WORKER_ID));
+		awaitAppliedEvents(2);
+		assertThat(template.isRunning("worker"), equalTo(true));
+		assertThat(inspections.get(), equalTo(0));
+	}
+
+	@Test
+	public void shouldAskDaemonAboutContainersNotSeenYet() throws Exception {
+		DockerTemplate template = new DockerTemplate(dockerClient);
+		template.setContainerRegistry(registry);
+		registry.start();
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+
+		// created by another client, its event still on the way
+		assertThat(template.containerExists("worker"), equalTo(true));
+		assertThat(template.isRunning("worker"), equalTo(false));
+		assertThat(inspections.get(), equalTo(2));
+	}
+
+	@Test
+	public void compareHealthChecksWithAndWithoutRegistry() throws Exception {
+		DockerTemplate template = new DockerTemplate(dockerClient);
+		long inspectingMillis = runHealthChecks(template);
+		int inspected = inspections.getAndSet(0);
+		template.setContainerRegistry(registry);
+		registry.start();
+		assertThat(registry.awaitInSync(5000), equalTo(true));
+		long registryMillis = runHealthChecks(template);
+
+		LOG.info("Health checks: {} inspections in {} ms without registry, {} inspections in {} ms with registry",
+				new Object[] { inspected, inspectingMillis, inspections.get(), registryMillis });
+		assertThat(inspected, equalTo(2000));
+		assertThat(inspections.get(), equalTo(0));
+	}
+
+	/**
+	 * 500 rounds over both containers, asking whether each exists and is running.
+	 */
+	private long runHealthChecks(DockerTemplate template) {
+		long start = System.currentTimeMillis();
+		for (int round = 0; round < 500; round++) {
+			for (String container : new String[] { "web", "db" }) {
+				if (template.containerExists(container)) {
+					template.isRunning(container);
+				}
+			}
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private void awaitAppliedEvents(long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (registry.getAppliedEvents() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(registry.getAppliedEvents(), equalTo(count));
+	}
+
+	private static String container(String id, String name, String status) {
+		return "{\"Id\":\"" + id + "\",\"Names\":[\"/" + name + "\"],\"Image\":\"busybox:latest\",\"Status\":\"" + status
+				+ "\"}";
+	}
+
+	private static String event(String status, String id) {
+		return "{\"status\":\"" + status + "\",\"id\":\"" + id + "\",\"from\":\"busybox:latest\",\"time\":"
+				+ System.currentTimeMillis() / 1000 + "}";
+	}
+
+}
@@ -0,0 +1,249 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.container.ContainerWaiter;
+import com.kpelykh.docker.client.model.ContainerWaitResponse;
+
+/**
+ * Waiting for containers with a {@link ContainerWaiter}, against a {@link StandInDockerDaemon}
+ * which sends the events queued by the tests, with short ids like older daemons, and ends the
+ * stream on {@link #DROP}.
+ */
+public class ContainerWaiterTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ContainerWaiterTest.class);
+
+	private static final String DROP = "drop";
+
+	private static final int NO_STATE = -2;
+
+	/** Exit codes by id, -1 while running, {@link #NO_STATE} if inspecting doesn't tell. */
+	private final ConcurrentMap<String, Integer> containers = new ConcurrentHashMap<String, Integer>();
+
+	private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+	private final AtomicInteger subscriptions = new AtomicInteger();
+
+	private volatile boolean stopping;
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private ContainerWaiter waiter;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("GET", "/containers/([^/]+)/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String id = request.group(1);
+				for (String candidate : containers.keySet()) {
+					if (candidate.startsWith(id)) {
+						int exitCode = containers.get(candidate);
+						if (exitCode == NO_STATE) {
+							response.send(200, "application/json", ("{\"ID\":\"" + candidate + "\"}").getBytes("UTF-8"));
+							return;
+						}
+						response.send(200, "application/json", ("{\"ID\":\"" + candidate + "\",\"State\":{\"Running\":"
+								+ (exitCode < 0) + ",\"ExitCode\":" + Math.max(exitCode, 0) + "}}").getBytes("UTF-8"));
+						return;
+					}
+				}
+				response.send(404, "text/plain", ("No such container: " + id).getBytes("UTF-8"));
+			}
+		}).on("GET", "/events", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				subscriptions.incrementAndGet();
+				OutputStream out = response.stream(200, "application/json");
+				try {
+					while (!stopping) {
+						String event = events.poll(50, TimeUnit.MILLISECONDS);
+						if (DROP.equals(event)) {
+							return;
+						}
+						if (event != null) {
+							out.write(event.getBytes("UTF-8"));
+							out.flush();
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+		waiter = new ContainerWaiter(dockerClient, 50).start();
+	}
+
+	@After
+	public void tearDown() {
+		waiter.close();
+		stopping = true;
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldCompleteWithExitCodeWhenContainerDies() throws Exception {
+		List<Future<ContainerWaitResponse>> waits = new ArrayList<Future<ContainerWaitResponse>>();
+		for (int i = 0; i < 3; i++) {
+			waits.add(waiter.waitFor(run(i).substring(0, 12)));
+		}
+		assertThat(waiter.getWaiting(), equalTo(3));
+
+		for (int i = 0; i < 3; i++) {
+			die(id(i), i + 1);
+		}
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(waits.get(i).get(5, TimeUnit.SECONDS).getStatusCode(), equalTo(i + 1));
+		}
+		assertThat(waiter.getWaiting(), equalTo(0));
+	}
+
+	@Test
+	public void shouldCompleteRightAwayIfStopped() throws Exception {
+		containers.put(id(0), 137);
+
+		Future<ContainerWaitResponse> wait = waiter.waitFor(id(0));
+
+		assertThat(wait.isDone(), equalTo(true));
+		assertThat(wait.get().getStatusCode(), equalTo(137));
+		assertThat(waiter.getWaiting(), equalTo(0));
+	}
+
+	@Test
+	public void shouldReportUnknownExitCode() throws Exception {
+		containers.put(id(0), NO_STATE);
+
+		Future<ContainerWaitResponse> wait = waiter.waitFor(id(0));
+
+		assertThat(wait.get().getStatusCode(), equalTo(ContainerWaiter.UNKNOWN_EXIT_CODE));
+	}
+
+	@Test
+	public void shouldStopWaitingWhenCancelled() throws Exception {
+		Future<ContainerWaitResponse> wait = waiter.waitFor(run(0));
+		assertThat(waiter.getWaiting(), equalTo(1));
+
+		assertThat(wait.cancel(true), equalTo(true));
+
+		assertThat(waiter.getWaiting(), equalTo(0));
+		assertThat(waiter.waitFor(id(0)), not(sameInstance(wait)));
+	}
+
+	@Test
+	public void shouldNotMissExitsWhileStreamIsDown() throws Exception {
+		Future<ContainerWaitResponse> wait = waiter.waitFor(run(0));
+		awaitSubscriptions(1);
+
+		events.add(DROP);
+		containers.put(id(0), 2);
+		awaitSubscriptions(2);
+
+		assertThat(wait.get(5, TimeUnit.SECONDS).getStatusCode(), equalTo(2));
+	}
+
+	@Test
+	public void shouldFailIfRemovedBeforeExitCodeIsRead() throws Exception {
+		Future<ContainerWaitResponse> wait = waiter.waitFor(run(0));
+
+		containers.remove(id(0));
+		events.add(event("destroy", id(0)));
+
+		try {
+			wait.get(5, TimeUnit.SECONDS);
+			throw new AssertionError("Removed container has an exit code");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), instanceOf(DockerException.class));
+		}
+	}
+
+	@Test
+	public void measureWaitingForManyContainers() throws Exception {
+		int count = 3000;
+		awaitSubscriptions(1);
+		int threadsBefore = Thread.activeCount();
+		long start = System.nanoTime();
+		List<Future<ContainerWaitResponse>> waits = new ArrayList<Future<ContainerWaitResponse>>();
+		for (int i = 0; i < count; i++) {
+			waits.add(waiter.waitFor(run(i)));
+		}
+		long registerMillis = (System.nanoTime() - start) / 1000000;
+		int threadsWaiting = Thread.activeCount();
+
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			die(id(i), i % 256);
+		}
+		for (int i = 0; i < count; i++) {
+			assertThat(waits.get(i).get(30, TimeUnit.SECONDS).getStatusCode(), equalTo(i % 256));
+		}
+		long completeMillis = (System.nanoTime() - start) / 1000000;
+
+		LOG.info("{} containers: waited for in {} ms on {} events stream(s) with {} more threads, "
+				+ "all exits seen {} ms after they died", new Object[] { count, registerMillis, subscriptions.get(),
+				threadsWaiting - threadsBefore, completeMillis });
+		assertThat(subscriptions.get(), equalTo(1));
+		assertThat(threadsWaiting - threadsBefore, lessThan(10));
+	}
+
+	private void awaitSubscriptions(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (subscriptions.get() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(subscriptions.get(), equalTo(count));
+	}
+
+	private String run(int i) {
+		containers.put(id(i), -1);
+		return id(i);
+	}
+
+	private void die(String id, int exitCode) {
+		containers.put(id, exitCode);
+		events.add(event("die", id));
+	}
+
+	private static String id(int i) {
+		return String.format("%012x", 0xc0ffee000000L + i * 7919L) + "0123456789abcdef0123456789abcdef0123456789abcdef0123";
+	}
+
+	private static String event(String status, String id) {
+		return "{\"status\":\"" + status + "\",\"id\":\"" + id.substring(0, 12) + "\",\"from\":\"busybox:latest\",\"time\":"
+				+ System.currentTimeMillis() / 1000 + "}";
+	}
+
+}
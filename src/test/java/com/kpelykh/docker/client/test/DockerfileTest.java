@@ -0,0 +1,79 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.kpelykh.docker.client.build.Dockerfile;
+
+/**
+ * Parsing of Dockerfiles into {@link Dockerfile.Instruction}s.
+ */
+public class DockerfileTest {
+
+	@Test
+	public void shouldParseInstructions() throws Exception {
+		Dockerfile dockerfile = Dockerfile.parse(new StringReader("# comment\n"
+				+ "FROM      ubuntu\n"
+				+ "\n"
+				+ "add\t./testrun.sh       /tmp/\n"
+				+ "COPY a.txt b.txt \\\n"
+				+ "   # comments between continuation lines are dropped\n"
+				+ "     /dest/\n"
+				+ "COPY [\"with space.txt\", \"/dest/\"]\n"
+				+ "CMD [\"testrun.sh\"]\n"));
+
+		List<Dockerfile.Instruction> instructions = dockerfile.getInstructions();
+		assertThat(instructions.size(), equalTo(5));
+		assertThat(instructions.get(0).getKeyword(), equalTo("FROM"));
+		assertThat(instructions.get(0).getArguments(), contains("ubuntu"));
+		assertThat(instructions.get(1).getKeyword(), equalTo("ADD"));
+		assertThat(instructions.get(1).getArguments(), contains("./testrun.sh", "/tmp/"));
+		assertThat(instructions.get(2).getArguments(), contains("a.txt", "b.txt", "/dest/"));
+		assertThat(instructions.get(2).getLine(), equalTo(5));
+		assertThat(instructions.get(3).isJsonForm(), equalTo(true));
+		assertThat(instructions.get(3).getArguments(), contains("with space.txt", "/dest/"));
+		assertThat(dockerfile.getInstructions("cmd").get(0).getArguments(), contains("testrun.sh"));
+	}
+
+	@Test
+	public void shouldFallBackToShellFormForInvalidJson() throws Exception {
+		Dockerfile dockerfile = Dockerfile.parse(new StringReader("RUN [ -f /etc/hosts ] && echo ok\n"));
+
+		Dockerfile.Instruction run = dockerfile.getInstructions().get(0);
+		assertThat(run.isJsonForm(), equalTo(false));
+		assertThat(run.getValue(), equalTo("[ -f /etc/hosts ] && echo ok"));
+	}
+
+	@Test
+	public void shouldSplitOffOptionsBeforeJsonArguments() throws Exception {
+		Dockerfile dockerfile = Dockerfile.parse(new StringReader("COPY --chown=a:b --from=builder [\"src\", \"dst\"]\n"));
+
+		Dockerfile.Instruction copy = dockerfile.getInstructions().get(0);
+		assertThat(copy.isJsonForm(), equalTo(true));
+		assertThat(copy.getOptions(), contains("--chown=a:b", "--from=builder"));
+		assertThat(copy.getArguments(), contains("src", "dst"));
+		assertThat(copy.getOption("chown"), equalTo("a:b"));
+		assertThat(copy.getOption("FROM"), equalTo("builder"));
+		assertThat(copy.getOption("platform"), nullValue());
+	}
+
+	@Test
+	public void shouldParseTestDockerfiles() throws Exception {
+		File nginx = new File(Thread.currentThread().getContextClassLoader().getResource("nginx/Dockerfile").getFile());
+
+		Dockerfile dockerfile = Dockerfile.parse(nginx);
+
+		assertThat(dockerfile.getInstructions("RUN").size(), equalTo(3));
+		assertThat(dockerfile.getInstructions("MAINTAINER").get(0).getValue(),
+				equalTo("Guillaume J. Charmes \"guillaume@dotcloud.com\""));
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.transport.PooledHttpTransport;
+
+/**
+ * Compares connection setup of the pooled transport with the former one-connection-per-call
+ * transport against a {@link StandInDockerDaemon}.
+ */
+public class HttpTransportBenchmarkTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(HttpTransportBenchmarkTest.class);
+
+	private static final int CALLS = 2000;
+
+	private static final int WARMUP_CALLS = 1000;
+
+	private static final int THREADS = 8;
+
+	private static final String INSPECT_RESPONSE = "{\"ID\":\"4fa6e0f0c678\",\"Created\":\"2013-12-01T00:00:00Z\","
+			+ "\"Path\":\"/bin/sh\",\"Args\":[],\"State\":{\"Running\":true,\"Pid\":42,\"ExitCode\":0},"
+			+ "\"Image\":\"b750fe79269d\"}";
+
+	private StandInDockerDaemon daemon;
+
+	@Before
+	public void startDaemon() throws Exception {
+		daemon = StandInDockerDaemon.tcp().onJson("GET", "/containers/([^/]+)/json", INSPECT_RESPONSE).start();
+	}
+
+	@After
+	public void stopDaemon() {
+		daemon.stop();
+	}
+
+	@Test
+	public void pooledTransportShouldReuseConnections() throws Exception {
+		PooledHttpTransport transport = new PooledHttpTransport();
+		transport.setMaxPerRoute(THREADS);
+		DockerClient dockerClient = new DockerClient(daemon.getUrl(), transport);
+		try {
+			long pooled = inspectConcurrently(dockerClient);
+			int pooledConnections = daemon.getAcceptedConnections();
+			LOG.info("Pooled transport: {} calls in {} ms over {} connections",
+					new Object[] { CALLS, pooled, pooledConnections });
+
+			assertThat(pooledConnections, lessThanOrEqualTo(THREADS));
+			assertThat(daemon.getHandledRequests(), equalTo(CALLS));
+		} finally {
+			dockerClient.close();
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void unpooledTransportOpensConnectionPerCall() throws Exception {
+		DockerClient dockerClient = new DockerClient(daemon.getUrl());
+		dockerClient.getRestTemplate().setRequestFactory(new SimpleClientHttpRequestFactory());
+		try {
+			long unpooled = inspectConcurrently(dockerClient);
+			LOG.info("Unpooled transport: {} calls in {} ms over {} connections",
+					new Object[] { CALLS, unpooled, daemon.getAcceptedConnections() });
+
+			assertThat(daemon.getHandledRequests(), equalTo(CALLS));
+		} finally {
+			dockerClient.close();
+		}
+	}
+
+	private long inspectConcurrently(final DockerClient dockerClient) throws Exception {
+		// warm up class loading and JIT outside of the measurement
+		for (int i = 0; i < WARMUP_CALLS; i++) {
+			dockerClient.inspectContainer("warmup");
+		}
+		daemon.resetCounters();
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			final String containerId = "container" + i;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						dockerClient.inspectContainer(containerId);
+					} catch (DockerException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+}
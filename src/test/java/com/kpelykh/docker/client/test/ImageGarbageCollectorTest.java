@@ -0,0 +1,229 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.image.ImageGarbageCollector;
+import com.kpelykh.docker.client.model.ContainerConfig;
+
+/**
+ * Evicting least recently used images with an {@link ImageGarbageCollector}, against a
+ * {@link StandInDockerDaemon} holding images of 100 bytes each.
+ */
+public class ImageGarbageCollectorTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ImageGarbageCollectorTest.class);
+
+	private static final long IMAGE_SIZE = 100;
+
+	/** Parent ids by id, with at most one tag each in {@link #tags}. */
+	private final Map<String, String> parents = new LinkedHashMap<String, String>();
+
+	private final Map<String, String> tags = new LinkedHashMap<String, String>();
+
+	private final Map<String, Long> created = new LinkedHashMap<String, Long>();
+
+	/** Images of the containers. */
+	private final List<String> containers = new ArrayList<String>();
+
+	private final AtomicInteger containerListings = new AtomicInteger();
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("GET", "/images/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				StringBuilder json = new StringBuilder("[");
+				synchronized (parents) {
+					for (Map.Entry<String, String> image : parents.entrySet()) {
+						String tag = tags.containsKey(image.getKey()) ? tags.get(image.getKey()) : "<none>:<none>";
+						json.append(json.length() > 1 ? "," : "").append("{\"Id\":\"").append(image.getKey())
+								.append("\",\"ParentId\":\"").append(image.getValue() != null ? image.getValue() : "")
+								.append("\",\"Created\":").append(created.get(image.getKey())).append(",\"Size\":")
+								.append(IMAGE_SIZE).append(",\"RepoTags\":[\"").append(tag).append("\"]}");
+					}
+				}
+				response.send(200, "application/json", json.append("]").toString().getBytes("UTF-8"));
+			}
+		}).on("GET", "/containers/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				containerListings.incrementAndGet();
+				StringBuilder json = new StringBuilder("[");
+				synchronized (parents) {
+					for (String image : containers) {
+						json.append(json.length() > 1 ? "," : "").append("{\"Id\":\"c-").append(json.length())
+								.append("\",\"Image\":\"").append(image).append("\"}");
+					}
+				}
+				response.send(200, "application/json", json.append("]").toString().getBytes("UTF-8"));
+			}
+		}).on("POST", "/containers/create", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				request.readBody();
+				response.send(201, "application/json", "{\"Id\":\"c-new\"}".getBytes("UTF-8"));
+			}
+		}).on("DELETE", "/images/(.+)", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				response.sendStatus(remove(URLDecoder.decode(request.group(1), "UTF-8")));
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldOnlyRefreshWithinBudget() throws Exception {
+		image("base", null, "acme/base:ci", 1);
+		image("app", "base", "acme/app:ci", 2);
+		ImageGarbageCollector collector = new ImageGarbageCollector(dockerClient, 2 * IMAGE_SIZE);
+
+		ImageGarbageCollector.Result result = collector.collect();
+
+		assertThat(result.isWithinBudget(), equalTo(true));
+		assertThat(result.getDiskUsage(), equalTo(2 * IMAGE_SIZE));
+		assertThat(result.getEvicted(), empty());
+		assertThat(containerListings.get(), equalTo(0));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedImages() throws Exception {
+		// base <- app, base <- worker, base <- tools, created in that order
+		image("base", null, "acme/base:ci", 1);
+		image("app", "base", "acme/app:ci", 2);
+		image("worker", "base", "acme/worker:ci", 3);
+		image("tools", "base", "acme/tools:ci", 4);
+		ImageGarbageCollector collector = new ImageGarbageCollector(dockerClient, 2 * IMAGE_SIZE);
+		dockerClient.setImageGarbageCollector(collector);
+		ContainerConfig config = new ContainerConfig();
+		config.setImage("acme/app:ci");
+		dockerClient.createContainer(config);
+
+		ImageGarbageCollector.Result result = collector.collect();
+
+		assertThat(result.getEvicted(), contains("worker", "tools"));
+		assertThat(result.getFreedBytes(), equalTo(2 * IMAGE_SIZE));
+		assertThat(result.isWithinBudget(), equalTo(true));
+		assertThat(parents.keySet(), contains("base", "app"));
+	}
+
+	@Test
+	public void shouldKeepImagesOfContainers() throws Exception {
+		image("base", null, "acme/base:ci", 1);
+		image("app", "base", "acme/app:ci", 2);
+		image("tools", null, "busybox:latest", 3);
+		containers.add("acme/app:ci");
+
+		ImageGarbageCollector.Result result = new ImageGarbageCollector(dockerClient, 0).collect();
+
+		assertThat(result.getEvicted(), contains("tools"));
+		assertThat(result.isWithinBudget(), equalTo(false));
+		assertThat(parents.keySet(), contains("base", "app"));
+	}
+
+	@Test
+	public void shouldEvictParentsOnceTheirChildrenAreGone() throws Exception {
+		// base <- (untagged layer) <- app, other is used more recently than base
+		image("base", null, "acme/base:ci", 1);
+		image("layer", "base", null, 2);
+		image("app", "layer", "acme/app:ci", 3);
+		image("other", null, "acme/other:ci", 4);
+
+		ImageGarbageCollector.Result result = new ImageGarbageCollector(dockerClient, IMAGE_SIZE).collect();
+
+		assertThat(result.getEvicted(), contains("app", "base"));
+		assertThat(result.getFreedBytes(), equalTo(3 * IMAGE_SIZE));
+		assertThat(parents.keySet(), contains("other"));
+	}
+
+	@Test
+	public void measurePassWithinBudget() throws Exception {
+		for (int base = 0; base < 50; base++) {
+			image("base-" + base, null, "acme/base-" + base + ":ci", base);
+			for (int app = 0; app < 99; app++) {
+				image("app-" + base + "-" + app, "base-" + base, null, base);
+			}
+		}
+		ImageGarbageCollector collector = new ImageGarbageCollector(dockerClient, parents.size() * IMAGE_SIZE);
+
+		long start = System.nanoTime();
+		collector.collect();
+		long firstMillis = (System.nanoTime() - start) / 1000000;
+		start = System.nanoTime();
+		ImageGarbageCollector.Result result = collector.collect();
+		long nextMillis = (System.nanoTime() - start) / 1000000;
+
+		LOG.info("{} images: first pass {} ms, next pass {} ms", new Object[] { parents.size(), firstMillis, nextMillis });
+		assertThat(result.getEvicted(), empty());
+		assertThat(containerListings.get(), equalTo(0));
+	}
+
+	private void image(String id, String parent, String tag, long createdSeconds) {
+		synchronized (parents) {
+			parents.put(id, parent);
+			created.put(id, createdSeconds);
+			if (tag != null) {
+				tags.put(id, tag);
+			}
+		}
+	}
+
+	/**
+	 * Removes the image and the untagged parents nothing else is built on, like the daemon.
+	 */
+	private int remove(String name) {
+		synchronized (parents) {
+			String id = parents.containsKey(name) ? name : null;
+			for (Map.Entry<String, String> tag : tags.entrySet()) {
+				if (tag.getValue().equals(name)) {
+					id = tag.getKey();
+				}
+			}
+			if (id == null) {
+				return 404;
+			}
+			if (parents.containsValue(id) || containers.contains(tags.get(id))) {
+				return 409;
+			}
+			while (id != null && !parents.containsValue(id)) {
+				String parent = parents.remove(id);
+				tags.remove(id);
+				id = parent != null && !tags.containsKey(parent) ? parent : null;
+			}
+			return 200;
+		}
+	}
+
+}
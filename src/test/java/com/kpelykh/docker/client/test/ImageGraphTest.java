@@ -0,0 +1,160 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.image.ImageGraph;
+import com.kpelykh.docker.client.model.Image;
+
+/**
+ * Lookups, subtree sizes and incremental updates of the {@link ImageGraph}.
+ */
+public class ImageGraphTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ImageGraphTest.class);
+
+	// base <- app <- app-debug, base <- worker, tools
+	private final Image base = image("base", null, 100, "ubuntu:12.04");
+
+	private final Image app = image("app", "base", 10, "acme/app:latest");
+
+	private final Image appDebug = image("app-debug", "app", 1, "acme/app:debug");
+
+	private final Image worker = image("worker", "base", 20, "acme/worker:latest");
+
+	private final Image tools = image("tools", null, 5, "busybox:latest");
+
+	@Test
+	public void shouldLookUpParentsAndChildren() {
+		ImageGraph graph = new ImageGraph();
+		graph.update(Arrays.asList(appDebug, app, base, worker, tools));
+
+		assertThat(graph.getParent("app"), equalTo(base));
+		assertThat(graph.getParent("base"), nullValue());
+		assertThat(graph.getChildren("base"), containsInAnyOrder(app, worker));
+		assertThat(graph.getDescendants("base"), containsInAnyOrder(app, worker, appDebug));
+		assertThat(graph.getAncestors("app-debug"), contains(app, base));
+		assertThat(graph.getRoots(), containsInAnyOrder(base, tools));
+		assertThat(graph.getLeaves(), containsInAnyOrder(appDebug, worker, tools));
+	}
+
+	@Test
+	public void shouldSumUpSubtreeSizes() {
+		ImageGraph graph = new ImageGraph();
+		graph.update(Arrays.asList(appDebug, app, base, worker, tools));
+
+		assertThat(graph.getSubtreeSize("base"), equalTo(131L));
+		assertThat(graph.getSubtreeSize("app"), equalTo(11L));
+		assertThat(graph.getSubtreeSize("tools"), equalTo(5L));
+		assertThat(graph.getVirtualSize("app-debug"), equalTo(111L));
+	}
+
+	@Test
+	public void shouldApplyOnlyDifferences() {
+		ImageGraph graph = new ImageGraph();
+		graph.update(Arrays.asList(base, app, appDebug, worker, tools));
+
+		Image appDebug2 = image("app-debug2", "app", 2, "acme/app:debug");
+		Image retaggedWorker = image("worker", "base", 20, "acme/worker:1.0");
+		ImageGraph.Changes changes = graph.update(Arrays.asList(base, app, appDebug2, retaggedWorker, tools));
+
+		assertThat(changes.getAdded(), contains("app-debug2"));
+		assertThat(changes.getRemoved(), contains("app-debug"));
+		assertThat(changes.getUpdated(), contains("worker"));
+		assertThat(graph.getChildren("app"), contains(appDebug2));
+		assertThat(graph.getImage("worker").repoTags, equalTo(new String[] { "acme/worker:1.0" }));
+		assertThat(graph.getSubtreeSize("base"), equalTo(132L));
+
+		assertThat(graph.update(Arrays.asList(base, app, appDebug2, retaggedWorker, tools)).isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void shouldLinkParentsAddedAfterTheirChildren() {
+		ImageGraph graph = new ImageGraph();
+		graph.update(Arrays.asList(app, appDebug));
+		assertThat(graph.getRoots(), contains(app));
+
+		graph.update(Arrays.asList(app, appDebug, base));
+
+		assertThat(graph.getRoots(), contains(base));
+		assertThat(graph.getSubtreeSize("base"), equalTo(111L));
+
+		graph.update(Arrays.asList(app, appDebug));
+		assertThat(graph.getParent("app"), nullValue());
+		assertThat(graph.getSubtreeSize("app"), equalTo(11L));
+	}
+
+	@Test
+	public void shouldRefreshFromDaemon() throws Exception {
+		StandInDockerDaemon daemon = StandInDockerDaemon.tcp().onJson("GET", "/images/json",
+				"[{\"Id\":\"base\",\"ParentId\":\"\",\"Size\":100,\"VirtualSize\":100,\"RepoTags\":[\"ubuntu:12.04\"]},"
+						+ "{\"Id\":\"app\",\"ParentId\":\"base\",\"Size\":10,\"VirtualSize\":110,\"RepoTags\":[\"<none>:<none>\"]}]")
+				.start();
+		DockerClient dockerClient = new DockerClient(daemon.getUrl());
+		try {
+			ImageGraph graph = new ImageGraph(dockerClient);
+
+			assertThat(graph.refresh().getAdded(), containsInAnyOrder("base", "app"));
+			assertThat(graph.getVirtualSize("app"), equalTo(110L));
+			assertThat(graph.refresh().isEmpty(), equalTo(true));
+		} finally {
+			dockerClient.close();
+			daemon.stop();
+		}
+	}
+
+	@Test
+	public void compareIncrementalUpdateWithRebuild() {
+		List<Image> images = new ArrayList<Image>();
+		for (int base = 0; base < 100; base++) {
+			String parent = null;
+			for (int layer = 0; layer < 200; layer++) {
+				String id = "image-" + base + "-" + layer;
+				images.add(image(id, parent, 1000, null));
+				parent = id;
+			}
+		}
+		ImageGraph graph = new ImageGraph();
+		graph.update(images);
+		List<Image> next = new ArrayList<Image>(images);
+		next.add(image("new-leaf", "image-0-199", 1000, "acme/new:latest"));
+		Collections.shuffle(next);
+
+		long start = System.nanoTime();
+		ImageGraph.Changes changes = graph.update(next);
+		long incrementalMicros = (System.nanoTime() - start) / 1000;
+		start = System.nanoTime();
+		new ImageGraph().update(next);
+		long rebuildMicros = (System.nanoTime() - start) / 1000;
+
+		LOG.info("{} images: incremental update {} us, rebuild {} us", new Object[] { next.size(), incrementalMicros,
+				rebuildMicros });
+		assertThat(changes.getAdded(), contains("new-leaf"));
+		assertThat(changes.getRemoved(), empty());
+		assertThat(graph.getSubtreeSize("image-0-0"), equalTo(201 * 1000L));
+	}
+
+	private static Image image(String id, String parentId, long size, String repoTag) {
+		Image image = new Image();
+		image.id = id;
+		image.parentId = parentId;
+		image.size = size;
+		image.repoTags = repoTag != null ? new String[] { repoTag } : new String[] { "<none>:<none>" };
+		return image;
+	}
+
+}
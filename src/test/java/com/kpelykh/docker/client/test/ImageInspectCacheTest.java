@@ -0,0 +1,236 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.image.ImageInspectCache;
+import com.kpelykh.docker.client.model.ImageInspectResponse;
+
+/**
+ * Inspecting images through an {@link ImageInspectCache}, against a {@link StandInDockerDaemon}
+ * which counts the inspections it answers.
+ */
+public class ImageInspectCacheTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ImageInspectCacheTest.class);
+
+	private static final long TAG_TTL_MILLIS = 200;
+
+	private static final String UBUNTU = id('a');
+
+	private static final String BUSYBOX = id('b');
+
+	private static final String REDIS = id('c');
+
+	private static final String PARENT = id('d');
+
+	/** Full ids by full id and tag. */
+	private final Map<String, String> images = new ConcurrentHashMap<String, String>();
+
+	private final AtomicInteger inspections = new AtomicInteger();
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private ImageInspectCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		for (String id : new String[] { UBUNTU, BUSYBOX, REDIS, PARENT }) {
+			images.put(id, id);
+		}
+		images.put("ubuntu:latest", UBUNTU);
+		daemon = StandInDockerDaemon.tcp().on("GET", "/images/(.+)/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				inspections.incrementAndGet();
+				String name = URLDecoder.decode(request.group(1), "UTF-8");
+				String id = images.get(name.indexOf(':') < 0 && name.length() < 64 ? name + ":latest" : name);
+				if (id == null) {
+					response.send(404, "text/plain", ("No such image: " + name).getBytes("UTF-8"));
+				} else {
+					response.send(200, "application/json", ("{\"id\":\"" + id + "\"}").getBytes("UTF-8"));
+				}
+			}
+		}).on("DELETE", "/images/(.+)", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String name = URLDecoder.decode(request.group(1), "UTF-8");
+				String tag = name.indexOf(':') < 0 && name.length() < 64 ? name + ":latest" : name;
+				String id = images.get(tag);
+				if (id == null) {
+					response.send(404, "text/plain", ("No such image: " + name).getBytes("UTF-8"));
+					return;
+				}
+				images.values().removeAll(Collections.singleton(id));
+				StringBuilder removed = new StringBuilder("[");
+				if (!tag.equals(id)) {
+					removed.append("{\"Untagged\":\"").append(tag).append("\"},");
+				}
+				removed.append("{\"Deleted\":\"").append(id).append("\"}");
+				if (id.equals(UBUNTU)) {
+					// its untagged parent
+					images.remove(PARENT);
+					removed.append(",{\"Deleted\":\"").append(PARENT.substring(0, 12)).append("\"}");
+				}
+				response.send(200, "application/json", removed.append("]").toString().getBytes("UTF-8"));
+			}
+		}).on("POST", "/images/load", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				request.readBody();
+				// the tarball tags busybox as ubuntu
+				images.put("ubuntu:latest", BUSYBOX);
+				response.sendStatus(200);
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+		cache = new ImageInspectCache(2, TAG_TTL_MILLIS);
+		dockerClient.setImageInspectCache(cache);
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldInspectFullIdsOnce() throws Exception {
+		ImageInspectResponse first = dockerClient.inspectImage(UBUNTU);
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			assertThat(dockerClient.inspectImage(UBUNTU), sameInstance(first));
+		}
+		LOG.info("1000 cached inspections took {} us", (System.nanoTime() - start) / 1000);
+
+		assertThat(inspections.get(), equalTo(1));
+		assertThat(cache.getHits(), equalTo(1000L));
+		assertThat(cache.getMisses(), equalTo(1L));
+	}
+
+	@Test
+	public void shouldResolveTagsAgainAfterTtl() throws Exception {
+		dockerClient.inspectImage("ubuntu");
+		dockerClient.inspectImage("ubuntu");
+		assertThat(inspections.get(), equalTo(1));
+
+		// the tag moves
+		images.put("ubuntu:latest", BUSYBOX);
+		Thread.sleep(TAG_TTL_MILLIS + 50);
+
+		assertThat(dockerClient.inspectImage("ubuntu").id, equalTo(BUSYBOX));
+		assertThat(inspections.get(), equalTo(2));
+		// the image itself is still cached
+		dockerClient.inspectImage(UBUNTU);
+		assertThat(inspections.get(), equalTo(2));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedImages() throws Exception {
+		dockerClient.inspectImage(UBUNTU);
+		dockerClient.inspectImage(BUSYBOX);
+		dockerClient.inspectImage(UBUNTU);
+		dockerClient.inspectImage(REDIS);
+		assertThat(inspections.get(), equalTo(3));
+		assertThat(cache.size(), equalTo(2));
+
+		dockerClient.inspectImage(UBUNTU);
+		assertThat(inspections.get(), equalTo(3));
+		dockerClient.inspectImage(BUSYBOX);
+		assertThat(inspections.get(), equalTo(4));
+	}
+
+	@Test
+	public void shouldInvalidateRemovedImages() throws Exception {
+		dockerClient.inspectImage("ubuntu");
+		dockerClient.inspectImage(UBUNTU);
+		assertThat(inspections.get(), equalTo(1));
+
+		dockerClient.removeImage(UBUNTU);
+
+		try {
+			dockerClient.inspectImage("ubuntu");
+		} catch (HttpClientErrorException e) {
+			// expected
+		}
+		assertThat(inspections.get(), equalTo(2));
+		assertThat(cache.size(), equalTo(0));
+	}
+
+	@Test
+	public void shouldInvalidateImagesRemovedAlongWithTag() throws Exception {
+		dockerClient.inspectImage(PARENT);
+		dockerClient.inspectImage("ubuntu");
+		assertThat(inspections.get(), equalTo(2));
+
+		dockerClient.removeImage("ubuntu:latest");
+
+		assertThat(cache.size(), equalTo(0));
+		try {
+			dockerClient.inspectImage(PARENT);
+			throw new AssertionError("Removed parent still cached");
+		} catch (HttpClientErrorException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shouldAskDaemonWhetherCachedImageStillExists() throws Exception {
+		dockerClient.inspectImage(BUSYBOX);
+		// removed by another client
+		images.remove(BUSYBOX);
+
+		assertThat(dockerClient.inspectImage(BUSYBOX).id, equalTo(BUSYBOX));
+		try {
+			dockerClient.inspectImage(BUSYBOX, false);
+			throw new AssertionError("Removed image exists");
+		} catch (HttpClientErrorException e) {
+			// expected
+		}
+		assertThat(cache.size(), equalTo(0));
+	}
+
+	@Test
+	public void shouldResolveTagsAgainAfterLoad() throws Exception {
+		assertThat(dockerClient.inspectImage("ubuntu").id, equalTo(UBUNTU));
+		File tarball = File.createTempFile("images", ".tar");
+		try {
+			dockerClient.loadImage(tarball);
+		} finally {
+			tarball.delete();
+		}
+
+		assertThat(dockerClient.inspectImage("ubuntu").id, equalTo(BUSYBOX));
+	}
+
+	private static String id(char c) {
+		StringBuilder id = new StringBuilder();
+		while (id.length() < 64) {
+			id.append(c);
+		}
+		return id.toString();
+	}
+
+}
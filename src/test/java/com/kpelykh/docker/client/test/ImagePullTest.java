@@ -0,0 +1,174 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.DockerException;
+import com.kpelykh.docker.client.pull.PullEvent;
+import com.kpelykh.docker.client.pull.PullListener;
+
+/**
+ * Streaming pulls with layer progress and concurrent pulls of many images, against a
+ * {@link StandInDockerDaemon} which takes {@link #STEP_MILLIS} per progress message.
+ */
+public class ImagePullTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ImagePullTest.class);
+
+	private static final long STEP_MILLIS = 50;
+
+	private static final int LAYER_SIZE = 3000;
+
+	private final AtomicInteger runningPulls = new AtomicInteger();
+
+	private final AtomicInteger maxRunningPulls = new AtomicInteger();
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("POST", "/images/create", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String image = request.getParameter("fromImage");
+				int running = runningPulls.incrementAndGet();
+				synchronized (maxRunningPulls) {
+					maxRunningPulls.set(Math.max(maxRunningPulls.get(), running));
+				}
+				try {
+					OutputStream out = response.stream(200, "application/json");
+					send(out, "{\"status\":\"Pulling repository " + image + "\"}");
+					if (image.startsWith("missing")) {
+						send(out, "{\"errorDetail\":{\"message\":\"Error: image " + image + " not found\"},"
+								+ "\"error\":\"Error: image " + image + " not found\"}");
+						return;
+					}
+					for (String layer : new String[] { "8dbd9e392a96", "b750fe79269d" }) {
+						send(out, "{\"status\":\"Pulling fs layer\",\"progressDetail\":{},\"id\":\"" + layer + "\"}");
+						for (int current = 1000; current <= LAYER_SIZE; current += 1000) {
+							send(out, "{\"status\":\"Downloading\",\"progressDetail\":{\"current\":" + current
+									+ ",\"total\":" + LAYER_SIZE + "},\"progress\":\"[==>  ] " + current + " B/"
+									+ LAYER_SIZE + " B\",\"id\":\"" + layer + "\"}");
+						}
+						// older daemons only send the formatted progress
+						send(out, "{\"status\":\"Extracting\",\"progress\":\"1 kB\",\"id\":\"" + layer + "\"}");
+						send(out, "{\"status\":\"Download complete\",\"progressDetail\":{},\"id\":\"" + layer + "\"}");
+					}
+				} finally {
+					runningPulls.decrementAndGet();
+				}
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldStreamLayerProgress() throws Exception {
+		final List<PullEvent> events = new ArrayList<PullEvent>();
+		final long[] firstEventMillis = new long[1];
+		final long start = System.currentTimeMillis();
+
+		dockerClient.pull("ubuntu", "12.04", null, new PullListener() {
+			@Override
+			public void onEvent(PullEvent event) {
+				if (events.isEmpty()) {
+					firstEventMillis[0] = System.currentTimeMillis() - start;
+				}
+				events.add(event);
+			}
+		});
+		long pullMillis = System.currentTimeMillis() - start;
+
+		LOG.info("First progress after {} ms, pull took {} ms", firstEventMillis[0], pullMillis);
+		assertThat(firstEventMillis[0], lessThan(pullMillis - 5 * STEP_MILLIS));
+		assertThat(events.size(), equalTo(13));
+		assertThat(events.get(0).getLayerId(), nullValue());
+		assertThat(events.get(0).getImage(), equalTo("ubuntu:12.04"));
+		PullEvent downloading = events.get(3);
+		assertThat(downloading.getLayerId(), equalTo("8dbd9e392a96"));
+		assertThat(downloading.getStatus(), equalTo("Downloading"));
+		assertThat(downloading.getCurrent(), equalTo(2000L));
+		assertThat(downloading.getTotal(), equalTo((long) LAYER_SIZE));
+		PullEvent extracting = events.get(5);
+		assertThat(extracting.getProgress(), equalTo("1 kB"));
+		assertThat(extracting.getCurrent(), equalTo(-1L));
+	}
+
+	@Test(expected = DockerException.class)
+	public void shouldFailOnReportedError() throws Exception {
+		dockerClient.pull("missing/image");
+	}
+
+	@Test
+	public void shouldPullManyImagesConcurrently() throws Exception {
+		List<String> images = new ArrayList<String>();
+		for (int i = 0; i < 6; i++) {
+			images.add("acme/image" + i + ":latest");
+		}
+		images.add("missing/image");
+		images.add("acme/image0:latest");
+		final AtomicInteger events = new AtomicInteger();
+		dockerClient.setMaxConcurrentPulls(3);
+
+		long start = System.currentTimeMillis();
+		Map<String, Exception> failures = dockerClient.pullAll(images, new PullListener() {
+			@Override
+			public void onEvent(PullEvent event) {
+				events.incrementAndGet();
+			}
+		});
+		long elapsed = System.currentTimeMillis() - start;
+
+		LOG.info("Pulled {} images in {} ms, {} events", new Object[] { images.size(), elapsed, events.get() });
+		assertThat(maxRunningPulls.get(), equalTo(3));
+		assertThat(failures.keySet(), equalTo(Collections.singleton("missing/image")));
+		assertThat(failures.get("missing/image"), instanceOf(DockerException.class));
+		assertThat(events.get(), equalTo(6 * 13 + 2));
+		// 6 pulls of 13 steps each, 3 at a time
+		assertThat(elapsed, lessThan(4 * 13 * STEP_MILLIS));
+	}
+
+	@Test
+	public void shouldReturnNoFailuresForNoImages() throws Exception {
+		assertThat(dockerClient.pullAll(Arrays.<String> asList()).isEmpty(), equalTo(true));
+	}
+
+	private static void send(OutputStream out, String message) throws IOException {
+		out.write((message + "\r\n").getBytes("UTF-8"));
+		out.flush();
+		try {
+			Thread.sleep(STEP_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.image.ImageRemover;
+import com.kpelykh.docker.client.image.RemovalReport;
+
+/**
+ * Ordered, concurrent removal of many images, against a {@link StandInDockerDaemon} which
+ * refuses to remove images with children like the real one and takes {@link #REMOVE_MILLIS}
+ * per removal.
+ */
+public class ImageRemoverTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ImageRemoverTest.class);
+
+	private static final long REMOVE_MILLIS = 20;
+
+	/** Parent ids by id, with one tag each in {@link #tags}. */
+	private final Map<String, String> parents = new LinkedHashMap<String, String>();
+
+	private final Map<String, String> tags = new LinkedHashMap<String, String>();
+
+	private final List<String> removed = Collections.synchronizedList(new ArrayList<String>());
+
+	/** Removals refused because of children. */
+	private final AtomicInteger conflicts = new AtomicInteger();
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("GET", "/images/json", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				StringBuilder json = new StringBuilder("[");
+				synchronized (parents) {
+					for (Map.Entry<String, String> image : parents.entrySet()) {
+						String tag = tags.containsKey(image.getKey()) ? tags.get(image.getKey()) : "<none>:<none>";
+						json.append(json.length() > 1 ? "," : "").append("{\"Id\":\"").append(image.getKey())
+								.append("\",\"ParentId\":\"").append(image.getValue() != null ? image.getValue() : "")
+								.append("\",\"Size\":1000,\"RepoTags\":[\"").append(tag).append("\"]}");
+					}
+				}
+				response.send(200, "application/json", json.append("]").toString().getBytes("UTF-8"));
+			}
+		}).on("DELETE", "/images/(.+)", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String name = URLDecoder.decode(request.group(1), "UTF-8");
+				try {
+					Thread.sleep(REMOVE_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				int status = remove(name);
+				response.send(status, "text/plain", ("Removing " + name + ": " + status).getBytes("UTF-8"));
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldRemoveChildrenBeforeParents() throws Exception {
+		// base <- app <- app-debug, base <- worker
+		image("base", null, "acme/base:ci");
+		image("app", "base", "acme/app:ci");
+		image("app-debug", "app", "acme/app:debug");
+		image("worker", "base", "acme/worker:ci");
+
+		RemovalReport report = dockerClient.removeImages(Arrays.asList("acme/base:ci", "app", "worker", "acme/app:debug"));
+
+		assertThat(report.isSuccessful(), equalTo(true));
+		assertThat(conflicts.get(), equalTo(0));
+		assertThat(parents.keySet(), empty());
+		assertThat(removed.indexOf("app") < removed.indexOf("acme/base:ci"), equalTo(true));
+		assertThat(removed.indexOf("acme/app:debug") < removed.indexOf("app"), equalTo(true));
+	}
+
+	@Test
+	public void shouldReportEveryImage() throws Exception {
+		image("base", null, "acme/base:ci");
+		image("app", "base", "acme/app:ci");
+		image("app-debug", "app", "acme/app:debug");
+		image("tools", null, "busybox:latest");
+		image("in-use", null, "acme/in-use:ci");
+
+		RemovalReport report = dockerClient.removeImages(Arrays.asList("acme/base:ci", "busybox", "in-use", "missing"));
+
+		assertThat(report.isSuccessful(), equalTo(false));
+		assertThat(report.getEntry("acme/base:ci").getStatus(), equalTo(RemovalReport.Status.SKIPPED));
+		assertThat(report.getEntry("busybox").getStatus(), equalTo(RemovalReport.Status.REMOVED));
+		assertThat(report.getEntry("busybox").getImageId(), equalTo("tools"));
+		assertThat(report.getEntry("in-use").getStatus(), equalTo(RemovalReport.Status.FAILED));
+		assertThat(report.getEntry("missing").getStatus(), equalTo(RemovalReport.Status.NOT_FOUND));
+		// the daemon wasn't asked to remove the skipped image
+		assertThat(removed, equalTo(Arrays.asList("busybox")));
+	}
+
+	@Test
+	public void shouldSkipAncestorsOfFailedRemovals() throws Exception {
+		image("base", null, "acme/base:ci");
+		image("in-use", "base", "acme/in-use:ci");
+		image("worker", "base", "acme/worker:ci");
+
+		RemovalReport report = dockerClient.removeImages(Arrays.asList("acme/base:ci", "acme/in-use:ci", "acme/worker:ci"));
+
+		assertThat(report.getEntry("acme/in-use:ci").getStatus(), equalTo(RemovalReport.Status.FAILED));
+		assertThat(report.getEntry("acme/worker:ci").getStatus(), equalTo(RemovalReport.Status.REMOVED));
+		assertThat(report.getEntry("acme/base:ci").getStatus(), equalTo(RemovalReport.Status.SKIPPED));
+		assertThat(conflicts.get(), equalTo(0));
+	}
+
+	@Test
+	public void shouldNotWaitForUntaggedLayersRemovedWithTheirChild() throws Exception {
+		// base <- (untagged layer) <- app
+		image("base", null, "acme/base:ci");
+		image("layer", "base", null);
+		image("app", "layer", "acme/app:ci");
+
+		RemovalReport report = dockerClient.removeImages(Arrays.asList("acme/app:ci", "acme/base:ci"));
+
+		assertThat(report.isSuccessful(), equalTo(true));
+		assertThat(parents.keySet(), empty());
+	}
+
+	@Test
+	public void compareSerialWithConcurrentRemoval() throws Exception {
+		List<String> ciImages = new ArrayList<String>();
+		for (int base = 0; base < 10; base++) {
+			image("base-" + base, null, "acme/base-" + base + ":ci");
+			ciImages.add("acme/base-" + base + ":ci");
+			for (int app = 0; app < 9; app++) {
+				image("app-" + base + "-" + app, "base-" + base, "acme/app-" + base + "-" + app + ":ci");
+				ciImages.add("acme/app-" + base + "-" + app + ":ci");
+			}
+		}
+		Collections.shuffle(ciImages);
+		Map<String, String> allParents = new LinkedHashMap<String, String>(parents);
+		Map<String, String> allTags = new LinkedHashMap<String, String>(tags);
+
+		RemovalReport serial = new ImageRemover(dockerClient, 1).remove(ciImages);
+		synchronized (parents) {
+			parents.putAll(allParents);
+			tags.putAll(allTags);
+		}
+		RemovalReport concurrent = new ImageRemover(dockerClient, 8).remove(ciImages);
+
+		LOG.info("Removed {} images: serially {} ms, 8 at a time {} ms", new Object[] { ciImages.size(),
+				serial.getElapsedMillis(), concurrent.getElapsedMillis() });
+		assertThat(serial.isSuccessful(), equalTo(true));
+		assertThat(concurrent.isSuccessful(), equalTo(true));
+		assertThat(conflicts.get(), equalTo(0));
+		assertThat(concurrent.getElapsedMillis(), lessThan(serial.getElapsedMillis()));
+	}
+
+	private void image(String id, String parent, String tag) {
+		synchronized (parents) {
+			parents.put(id, parent);
+			if (tag != null) {
+				tags.put(id, tag);
+			}
+		}
+	}
+
+	/**
+	 * Removes the image and the untagged parents nothing else is built on, like the daemon.
+	 */
+	private int remove(String name) {
+		synchronized (parents) {
+			String id = parents.containsKey(name) ? name : null;
+			for (Map.Entry<String, String> tag : tags.entrySet()) {
+				if (tag.getValue().equals(name) || tag.getValue().equals(name + ":latest")) {
+					id = tag.getKey();
+				}
+			}
+			if (id == null) {
+				return 404;
+			}
+			if (parents.containsValue(id)) {
+				conflicts.incrementAndGet();
+				return 409;
+			}
+			if (id.equals("in-use")) {
+				// used by a container
+				return 409;
+			}
+			removed.add(name);
+			while (id != null && !parents.containsValue(id)) {
+				String parent = parents.remove(id);
+				tags.remove(id);
+				id = parent != null && !tags.containsKey(parent) ? parent : null;
+			}
+			return 200;
+		}
+	}
+
+}
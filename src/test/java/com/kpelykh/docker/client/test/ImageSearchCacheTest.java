@@ -0,0 +1,201 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpServerErrorException;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.image.ImageSearchCache;
+import com.kpelykh.docker.client.model.SearchItem;
+
+/**
+ * Searching through an {@link ImageSearchCache}, against a {@link StandInDockerDaemon} which
+ * takes {@link #SEARCH_MILLIS} per search and counts them.
+ */
+public class ImageSearchCacheTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ImageSearchCacheTest.class);
+
+	private static final long SEARCH_MILLIS = 100;
+
+	private static final long TTL_MILLIS = 300;
+
+	private final AtomicInteger searches = new AtomicInteger();
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("GET", "/images/search", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				searches.incrementAndGet();
+				try {
+					Thread.sleep(SEARCH_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				String term = request.getParameter("term");
+				if (term.equals("broken")) {
+					response.send(500, "text/plain", "Index unavailable".getBytes("UTF-8"));
+				} else {
+					response.send(200, "application/json", ("[{\"name\":\"" + term + "\",\"description\":\"\"},"
+							+ "{\"name\":\"acme/" + term + "\",\"description\":\"\"}]").getBytes("UTF-8"));
+				}
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+	}
+
+	@After
+	public void tearDown() {
+		dockerClient.close();
+		daemon.stop();
+	}
+
+	@Test
+	public void shouldSearchAgainAfterTtl() throws Exception {
+		ImageSearchCache cache = new ImageSearchCache(10, TTL_MILLIS);
+		dockerClient.setImageSearchCache(cache);
+
+		List<SearchItem> first = dockerClient.search("busybox");
+		assertThat(dockerClient.search("busybox"), sameInstance(first));
+		assertThat(first.size(), equalTo(2));
+		assertThat(searches.get(), equalTo(1));
+
+		Thread.sleep(TTL_MILLIS + 50);
+		dockerClient.search("busybox");
+
+		assertThat(searches.get(), equalTo(2));
+		assertThat(cache.getHits(), equalTo(1L));
+		assertThat(cache.getMisses(), equalTo(2L));
+		assertThat(cache.getAverageUpstreamMillis(), greaterThan((double) SEARCH_MILLIS / 2));
+	}
+
+	@Test
+	public void shouldCoalesceConcurrentSearches() throws Exception {
+		ImageSearchCache cache = new ImageSearchCache(10, TTL_MILLIS);
+		dockerClient.setImageSearchCache(cache);
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<List<SearchItem>>> results = new ArrayList<Future<List<SearchItem>>>();
+			for (int i = 0; i < 10; i++) {
+				results.add(executor.submit(new Callable<List<SearchItem>>() {
+					@Override
+					public List<SearchItem> call() throws Exception {
+						start.await();
+						return dockerClient.search("redis");
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<List<SearchItem>> result : results) {
+				assertThat(result.get(), sameInstance(results.get(0).get()));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(searches.get(), equalTo(1));
+		assertThat(cache.getMisses(), equalTo(1L));
+		assertThat(cache.getHits() + cache.getCoalesced(), equalTo(9L));
+	}
+
+	@Test
+	public void shouldNotCacheFailedSearches() throws Exception {
+		dockerClient.setImageSearchCache(new ImageSearchCache(10, TTL_MILLIS));
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				dockerClient.search("broken");
+			} catch (HttpServerErrorException e) {
+				// expected
+			}
+		}
+
+		assertThat(searches.get(), equalTo(2));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedTerms() throws Exception {
+		ImageSearchCache cache = new ImageSearchCache(2, TTL_MILLIS);
+		dockerClient.setImageSearchCache(cache);
+
+		dockerClient.search("busybox");
+		dockerClient.search("redis");
+		dockerClient.search("busybox");
+		dockerClient.search("ubuntu");
+		assertThat(cache.size(), equalTo(2));
+		dockerClient.search("busybox");
+		assertThat(searches.get(), equalTo(3));
+		dockerClient.search("redis");
+		assertThat(searches.get(), equalTo(4));
+	}
+
+	@Test
+	public void compareDashboardLoadWithAndWithoutCache() throws Exception {
+		long uncachedMillis = runDashboards();
+		int uncachedSearches = searches.getAndSet(0);
+		ImageSearchCache cache = new ImageSearchCache(100, 5000);
+		dockerClient.setImageSearchCache(cache);
+		long cachedMillis = runDashboards();
+
+		LOG.info("Dashboards: {} searches in {} ms without cache, {} searches in {} ms with cache, hit ratio {}, "
+				+ "upstream {} ms on average", new Object[] { uncachedSearches, uncachedMillis, searches.get(),
+				cachedMillis, cache.getHitRatio(), cache.getAverageUpstreamMillis() });
+		assertThat(searches.get(), equalTo(5));
+	}
+
+	/**
+	 * 10 dashboards searching 5 terms 4 times each.
+	 */
+	private long runDashboards() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		long start = System.currentTimeMillis();
+		try {
+			List<Future<?>> dashboards = new ArrayList<Future<?>>();
+			for (int i = 0; i < 10; i++) {
+				dashboards.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int round = 0; round < 4; round++) {
+							for (String term : new String[] { "busybox", "redis", "ubuntu", "nginx", "postgres" }) {
+								dockerClient.search(term);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> dashboard : dashboards) {
+				dashboard.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+}
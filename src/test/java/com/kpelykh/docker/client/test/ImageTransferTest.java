@@ -0,0 +1,233 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.transport.TransferListener;
+
+/**
+ * Saving and loading image tarballs, against a {@link StandInDockerDaemon} which serves and
+ * checks tarballs of {@link #TARBALL_SIZE} bytes.
+ */
+public class ImageTransferTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ImageTransferTest.class);
+
+	private static final int TARBALL_SIZE = 256 * 1024 * 1024;
+
+	private static final int SMALL_TARBALL_SIZE = 4 * 1024 * 1024;
+
+	private static final byte[] BLOCK = new byte[64 * 1024];
+
+	static {
+		for (int i = 0; i < BLOCK.length; i++) {
+			BLOCK[i] = (byte) (i * 31);
+		}
+	}
+
+	private volatile long loadedBytes;
+
+	private volatile long loadedChecksum;
+
+	private StandInDockerDaemon daemon;
+
+	private DockerClient dockerClient;
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = StandInDockerDaemon.tcp().on("GET", "/images/(.+)/get", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				String image = request.group(1);
+				if (image.equals("missing")) {
+					response.send(404, "text/plain", "No such image: missing".getBytes("UTF-8"));
+				} else if (image.equals("small")) {
+					byte[] tarball = new byte[SMALL_TARBALL_SIZE];
+					for (int i = 0; i < tarball.length; i += BLOCK.length) {
+						System.arraycopy(BLOCK, 0, tarball, i, BLOCK.length);
+					}
+					response.send(200, "application/x-tar", tarball);
+				} else {
+					OutputStream out = response.stream(200, "application/x-tar");
+					for (int written = 0; written < TARBALL_SIZE; written += BLOCK.length) {
+						out.write(BLOCK);
+					}
+					out.flush();
+				}
+			}
+		}).on("POST", "/images/load", new StandInDockerDaemon.Handler() {
+			@Override
+			public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+					throws IOException {
+				CRC32 checksum = new CRC32();
+				InputStream body = request.getBody();
+				byte[] buffer = new byte[64 * 1024];
+				long length = 0;
+				int read;
+				while ((read = body.read(buffer)) != -1) {
+					checksum.update(buffer, 0, read);
+					length += read;
+				}
+				loadedBytes = length;
+				loadedChecksum = checksum.getValue();
+				response.sendStatus(200);
+			}
+		}).start();
+		dockerClient = new DockerClient(daemon.getUrl());
+		tempDir = new File(System.getProperty("java.io.tmpdir"), "image-transfer-" + System.nanoTime());
+		tempDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		dockerClient.close();
+		daemon.stop();
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void shouldReportProgressOfKnownSize() throws Exception {
+		File tarball = new File(tempDir, "small.tar");
+		RecordingListener listener = new RecordingListener();
+
+		long size = dockerClient.saveImage("small", tarball, listener);
+
+		assertThat(size, equalTo((long) SMALL_TARBALL_SIZE));
+		assertThat(tarball.length(), equalTo((long) SMALL_TARBALL_SIZE));
+		assertThat(listener.last, equalTo((long) SMALL_TARBALL_SIZE));
+		assertThat(listener.total, equalTo((long) SMALL_TARBALL_SIZE));
+		assertThat(listener.calls, greaterThan(1));
+	}
+
+	@Test
+	public void shouldNotLeaveFileOfMissingImage() throws Exception {
+		File tarball = new File(tempDir, "missing.tar");
+		try {
+			dockerClient.saveImage("missing", tarball);
+		} catch (HttpClientErrorException e) {
+			// expected
+		}
+
+		assertThat(tarball.exists(), equalTo(false));
+		assertThat(tempDir.list().length, equalTo(0));
+	}
+
+	@Test
+	public void shouldKeepExistingFileIfSavingFails() throws Exception {
+		File tarball = new File(tempDir, "existing.tar");
+		FileUtils.writeStringToFile(tarball, "saved before");
+		try {
+			dockerClient.saveImage("missing", tarball);
+			throw new AssertionError("Saved a missing image");
+		} catch (HttpClientErrorException e) {
+			// expected
+		}
+
+		assertThat(FileUtils.readFileToString(tarball), equalTo("saved before"));
+		assertThat(tempDir.list().length, equalTo(1));
+
+		dockerClient.saveImage("small", tarball);
+		assertThat(tarball.length(), equalTo((long) SMALL_TARBALL_SIZE));
+		assertThat(tempDir.list().length, equalTo(1));
+	}
+
+	@Test
+	public void shouldLoadWhatWasSaved() throws Exception {
+		File tarball = new File(tempDir, "small.tar");
+		dockerClient.saveImage("small", tarball);
+		RecordingListener listener = new RecordingListener();
+
+		dockerClient.loadImage(tarball, listener);
+
+		assertThat(loadedBytes, equalTo((long) SMALL_TARBALL_SIZE));
+		assertThat(loadedChecksum, equalTo(checksum(tarball)));
+		assertThat(listener.last, equalTo((long) SMALL_TARBALL_SIZE));
+		assertThat(listener.total, equalTo((long) SMALL_TARBALL_SIZE));
+	}
+
+	@Test
+	public void measureThroughput() throws Exception {
+		File tarball = new File(tempDir, "large.tar");
+		RecordingListener saveListener = new RecordingListener();
+		System.gc();
+		long heapBefore = usedHeap();
+
+		long start = System.nanoTime();
+		long size = dockerClient.saveImage("large", tarball, saveListener);
+		long saveNanos = System.nanoTime() - start;
+		long saveHeap = usedHeap() - heapBefore;
+		start = System.nanoTime();
+		dockerClient.loadImage(tarball);
+		long loadNanos = System.nanoTime() - start;
+
+		LOG.info("{} MB tarball: saved at {} MB/s (total unknown: {}), loaded at {} MB/s, heap grew by {} KB",
+				new Object[] { size >> 20, throughput(size, saveNanos), saveListener.total, throughput(size, loadNanos),
+						saveHeap >> 10 });
+		assertThat(size, equalTo((long) TARBALL_SIZE));
+		assertThat(saveListener.last, equalTo((long) TARBALL_SIZE));
+		assertThat(loadedBytes, equalTo((long) TARBALL_SIZE));
+	}
+
+	private static long throughput(long bytes, long nanos) {
+		return (bytes >> 20) * 1000000000L / Math.max(1, nanos);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long checksum(File file) throws IOException {
+		CRC32 checksum = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				checksum.update(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return checksum.getValue();
+	}
+
+	private static class RecordingListener implements TransferListener {
+
+		int calls;
+
+		long last;
+
+		long total;
+
+		@Override
+		public void onProgress(long transferredBytes, long totalBytes) {
+			assertThat(transferredBytes, greaterThan(last));
+			calls++;
+			last = transferredBytes;
+			total = totalBytes;
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.build.BuildContext;
+import com.kpelykh.docker.client.utils.CompressArchiveUtil;
+
+/**
+ * Compares the legacy {@code archiveTARFiles}, the serial and the parallel
+ * {@link CompressArchiveUtil#archiveTAR} on many small files and on a few huge ones. The
+ * comparisons only run with {@link Benchmarks} enabled.
+ */
+public class ParallelArchiveBenchmarkTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ParallelArchiveBenchmarkTest.class);
+
+	private static final int SMALL_FILES = 4000;
+
+	private static final int SMALL_FILE_SIZE = 4 * 1024;
+
+	private static final int HUGE_FILES = 4;
+
+	private static final long HUGE_FILE_SIZE = 256L * 1024 * 1024;
+
+	private static final int ITERATIONS = 3;
+
+	private static File smallFiles;
+
+	private static File hugeFiles;
+
+	private static ExecutorService executor;
+
+	@BeforeClass
+	public static void createContexts() throws IOException {
+		File tmp = new File(System.getProperty("java.io.tmpdir"));
+		smallFiles = new File(tmp, "docker-small-files-" + System.nanoTime());
+		hugeFiles = new File(tmp, "docker-huge-files-" + System.nanoTime());
+		Random random = new Random(42);
+		byte[] content = new byte[SMALL_FILE_SIZE];
+		for (int i = 0; i < SMALL_FILES; i++) {
+			random.nextBytes(content);
+			FileUtils.writeByteArrayToFile(new File(smallFiles, "dir" + i % 40 + "/file" + i), content);
+		}
+		hugeFiles.mkdirs();
+		for (int i = 0; i < HUGE_FILES; i++) {
+			RandomAccessFile huge = new RandomAccessFile(new File(hugeFiles, "huge" + i + ".bin"), "rw");
+			huge.setLength(HUGE_FILE_SIZE);
+			huge.close();
+		}
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@AfterClass
+	public static void deleteContexts() {
+		executor.shutdownNow();
+		FileUtils.deleteQuietly(smallFiles);
+		FileUtils.deleteQuietly(hugeFiles);
+	}
+
+	@Test
+	public void parallelArchiveShouldMatchSerialArchive() throws Exception {
+		BuildContext context = context(smallFiles);
+
+		MessageDigest serial = MessageDigest.getInstance("SHA-1");
+		CompressArchiveUtil.archiveTAR(context, new DigestOutputStream(new NullOutputStream(), serial));
+		MessageDigest parallel = MessageDigest.getInstance("SHA-1");
+		CompressArchiveUtil.archiveTAR(context, new DigestOutputStream(new NullOutputStream(), parallel), executor);
+
+		assertThat(Arrays.equals(parallel.digest(), serial.digest()), equalTo(true));
+	}
+
+	@Test
+	public void parallelArchiveShouldMatchSerialArchiveWithLongNames() throws Exception {
+		BuildContext context = new BuildContext();
+		File file = new File(smallFiles, "dir0/file0");
+		// unlike the time of archiving
+		file.setLastModified(System.currentTimeMillis() - 3600000);
+		String longName = StringUtils.repeat("long/", 30) + "name.txt";
+		context.addFile(longName, file);
+		context.addFile("short.txt", file);
+
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, serial);
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		CompressArchiveUtil.archiveTAR(context, parallel, executor);
+
+		assertThat(Arrays.equals(parallel.toByteArray(), serial.toByteArray()), equalTo(true));
+		TarArchiveInputStream entries = new TarArchiveInputStream(new ByteArrayInputStream(serial.toByteArray()));
+		TarArchiveEntry entry = entries.getNextTarEntry();
+		assertThat(entry.getName(), equalTo(longName));
+		assertThat(entry.getModTime().getTime() / 1000, equalTo(file.lastModified() / 1000));
+		assertThat(entries.getNextTarEntry().getName(), equalTo("short.txt"));
+	}
+
+	@Test
+	public void compareSmallFiles() throws Exception {
+		Benchmarks.assumeEnabled();
+		compare("small files", smallFiles);
+	}
+
+	@Test
+	public void compareHugeFiles() throws Exception {
+		Benchmarks.assumeEnabled();
+		compare("huge files", hugeFiles);
+	}
+
+	private void compare(String name, final File folder) throws Exception {
+		final BuildContext context = context(folder);
+		long legacy = best(new Archiver() {
+			@Override
+			public void archive() throws IOException {
+				FileUtils.forceDelete(CompressArchiveUtil.archiveTARFiles(folder, "docker-benchmark-" + System.nanoTime()));
+			}
+		});
+		long serial = best(new Archiver() {
+			@Override
+			public void archive() throws IOException {
+				CompressArchiveUtil.archiveTAR(context, new NullOutputStream());
+			}
+		});
+		long parallel = best(new Archiver() {
+			@Override
+			public void archive() throws IOException {
+				CompressArchiveUtil.archiveTAR(context, new NullOutputStream(), executor);
+			}
+		});
+		long megabytes = Math.max(1, context.getContentLength() >> 20);
+		LOG.info("{}, {} MB: legacy {} ms, serial {} ms ({} MB/s), parallel {} ms ({} MB/s)", new Object[] { name,
+				megabytes, legacy, serial, megabytes * 1000 / Math.max(1, serial), parallel,
+				megabytes * 1000 / Math.max(1, parallel) });
+	}
+
+	private long best(Archiver archiver) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			archiver.archive();
+			best = Math.min(best, (System.nanoTime() - start) / 1000000);
+		}
+		return best;
+	}
+
+	private static BuildContext context(File folder) {
+		BuildContext context = new BuildContext();
+		context.addDirectory("", folder);
+		return context;
+	}
+
+	private interface Archiver {
+		void archive() throws IOException;
+	}
+
+}
@@ -0,0 +1,482 @@
+package com.kpelykh.docker.client.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.newsclub.net.unix.AFUNIXServerSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal HTTP/1.1 server standing in for the Docker daemon in benchmarks and tests which
+ * must not depend on a running daemon. Supports keep-alive, chunked requests and chunked
+ * (streaming) responses and counts the accepted connections.
+ */
+public class StandInDockerDaemon {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StandInDockerDaemon.class);
+
+	public interface Handler {
+		void handle(Request request, Response response) throws IOException;
+	}
+
+	private final ServerSocket serverSocket;
+
+	private final String url;
+
+	private final List<Route> routes = new ArrayList<Route>();
+
+	private final AtomicInteger acceptedConnections = new AtomicInteger();
+
+	private final AtomicInteger handledRequests = new AtomicInteger();
+
+	private final ExecutorService workers = Executors.newCachedThreadPool();
+
+	private volatile boolean running;
+
+	public StandInDockerDaemon(ServerSocket serverSocket, String url) {
+		this.serverSocket = serverSocket;
+		this.url = url;
+	}
+
+	public static StandInDockerDaemon tcp() throws IOException {
+		ServerSocket serverSocket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+		return new StandInDockerDaemon(serverSocket, "http://127.0.0.1:" + serverSocket.getLocalPort());
+	}
+
+	public static StandInDockerDaemon unixSocket(File socketFile) throws IOException {
+		ServerSocket serverSocket = AFUNIXServerSocket.bindOn(new AFUNIXSocketAddress(socketFile));
+		return new StandInDockerDaemon(serverSocket, "unix://" + socketFile.getAbsolutePath());
+	}
+
+	public StandInDockerDaemon on(String method, String pathPattern, Handler handler) {
+		routes.add(new Route(method, Pattern.compile(pathPattern), handler));
+		return this;
+	}
+
+	public StandInDockerDaemon onJson(String method, String pathPattern, final String json) {
+		return on(method, pathPattern, new Handler() {
+			@Override
+			public void handle(Request request, Response response) throws IOException {
+				response.send(200, "application/json", json.getBytes("UTF-8"));
+			}
+		});
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public int getAcceptedConnections() {
+		return acceptedConnections.get();
+	}
+
+	public int getHandledRequests() {
+		return handledRequests.get();
+	}
+
+	public void resetCounters() {
+		acceptedConnections.set(0);
+		handledRequests.set(0);
+	}
+
+	public StandInDockerDaemon start() {
+		running = true;
+		Thread acceptor = new Thread("stand-in-docker-daemon") {
+			@Override
+			public void run() {
+				while (running) {
+					try {
+						final Socket socket = serverSocket.accept();
+						acceptedConnections.incrementAndGet();
+						workers.execute(new Runnable() {
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						});
+					} catch (IOException e) {
+						if (running) {
+							LOG.warn("Accept failed", e);
+						}
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return this;
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException ignore) {
+		}
+		workers.shutdownNow();
+	}
+
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+			boolean keepAlive = true;
+			while (keepAlive) {
+				Request request = Request.read(in);
+				if (request == null) {
+					break;
+				}
+				keepAlive = !"close".equalsIgnoreCase(request.getHeader("Connection"));
+				Response response = new Response(out, keepAlive);
+				handledRequests.incrementAndGet();
+				dispatch(request, response);
+				response.finish();
+				request.drain();
+			}
+		} catch (IOException e) {
+			LOG.debug("Connection closed: {}", e.getMessage());
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	private void dispatch(Request request, Response response) throws IOException {
+		for (Route route : routes) {
+			if (route.method.equals(request.method)) {
+				Matcher matcher = route.pathPattern.matcher(request.path);
+				if (matcher.matches()) {
+					request.matcher = matcher;
+					route.handler.handle(request, response);
+					return;
+				}
+			}
+		}
+		response.send(404, "text/plain", ("No such route " + request.method + " " + request.path).getBytes("UTF-8"));
+	}
+
+	private static class Route {
+		final String method;
+		final Pattern pathPattern;
+		final Handler handler;
+
+		Route(String method, Pattern pathPattern, Handler handler) {
+			this.method = method;
+			this.pathPattern = pathPattern;
+			this.handler = handler;
+		}
+	}
+
+	public static class Request {
+
+		private final String method;
+		private final String path;
+		private final String query;
+		private final Map<String, String> headers;
+		private final InputStream body;
+		private Matcher matcher;
+
+		private Request(String method, String path, String query, Map<String, String> headers, InputStream body) {
+			this.method = method;
+			this.path = path;
+			this.query = query;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		static Request read(InputStream in) throws IOException {
+			String requestLine = readLine(in);
+			while (requestLine != null && requestLine.length() == 0) {
+				requestLine = readLine(in);
+			}
+			if (requestLine == null) {
+				return null;
+			}
+			String[] parts = requestLine.split(" ");
+			String target = parts[1];
+			int queryStart = target.indexOf('?');
+			String path = queryStart < 0 ? target : target.substring(0, queryStart);
+			String query = queryStart < 0 ? "" : target.substring(queryStart + 1);
+
+			Map<String, String> headers = new HashMap<String, String>();
+			String line;
+			while ((line = readLine(in)) != null && line.length() > 0) {
+				int colon = line.indexOf(':');
+				headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line.substring(colon + 1).trim());
+			}
+
+			InputStream body;
+			if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+				body = new ChunkedInputStream(in);
+			} else {
+				String contentLength = headers.get("content-length");
+				body = new BoundedInputStream(in, contentLength == null ? 0 : Long.parseLong(contentLength));
+			}
+			return new Request(parts[0], path, query, headers, body);
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getQuery() {
+			return query;
+		}
+
+		public String getHeader(String name) {
+			return headers.get(name.toLowerCase(Locale.ENGLISH));
+		}
+
+		public String getParameter(String name) {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0 && pair.substring(0, eq).equals(name)) {
+					return pair.substring(eq + 1);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return capturing group of the route's path pattern.
+		 */
+		public String group(int group) {
+			return matcher.group(group);
+		}
+
+		public InputStream getBody() {
+			return body;
+		}
+
+		public byte[] readBody() throws IOException {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = body.read(chunk)) != -1) {
+				buffer.write(chunk, 0, read);
+			}
+			return buffer.toByteArray();
+		}
+
+		void drain() throws IOException {
+			byte[] chunk = new byte[8192];
+			while (body.read(chunk) != -1) {
+				// skip unread request body to keep the connection usable
+			}
+		}
+	}
+
+	public static class Response {
+
+		private final OutputStream out;
+		private final boolean keepAlive;
+		private boolean committed;
+		private ChunkedOutputStream chunked;
+
+		Response(OutputStream out, boolean keepAlive) {
+			this.out = out;
+			this.keepAlive = keepAlive;
+		}
+
+		public void send(int status, String contentType, byte[] body) throws IOException {
+			writeHead(status, contentType, "Content-Length: " + body.length);
+			out.write(body);
+			out.flush();
+		}
+
+		public void sendStatus(int status) throws IOException {
+			send(status, "text/plain", new byte[0]);
+		}
+
+		/**
+		 * Starts a chunked response. Every {@code flush()} on the returned stream is sent
+		 * to the client immediately.
+		 */
+		public OutputStream stream(int status, String contentType) throws IOException {
+			writeHead(status, contentType, "Transfer-Encoding: chunked");
+			out.flush();
+			chunked = new ChunkedOutputStream(out);
+			return chunked;
+		}
+
+		private void writeHead(int status, String contentType, String lengthHeader) throws IOException {
+			if (committed) {
+				throw new IllegalStateException("Response already committed");
+			}
+			committed = true;
+			StringBuilder head = new StringBuilder();
+			head.append("HTTP/1.1 ").append(status).append(' ').append(status < 400 ? "OK" : "Error").append("\r\n");
+			head.append("Content-Type: ").append(contentType).append("\r\n");
+			head.append(lengthHeader).append("\r\n");
+			head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+			out.write(head.toString().getBytes("ISO-8859-1"));
+		}
+
+		void finish() throws IOException {
+			if (!committed) {
+				sendStatus(204);
+			}
+			if (chunked != null) {
+				chunked.close();
+			}
+			out.flush();
+		}
+	}
+
+	static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+				return line.toString();
+			}
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	private static class BoundedInputStream extends InputStream {
+
+		private final InputStream in;
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int read = in.read(b, off, (int) Math.min(len, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+	}
+
+	private static class ChunkedInputStream extends InputStream {
+
+		private final InputStream in;
+		private long chunkRemaining;
+		private boolean eof;
+
+		ChunkedInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (eof) {
+				return -1;
+			}
+			if (chunkRemaining == 0) {
+				String sizeLine = readLine(in);
+				int extension = sizeLine.indexOf(';');
+				chunkRemaining = Long.parseLong(extension < 0 ? sizeLine.trim() : sizeLine.substring(0, extension).trim(), 16);
+				if (chunkRemaining == 0) {
+					// trailers
+					String trailer;
+					while ((trailer = readLine(in)) != null && trailer.length() > 0) {
+					}
+					eof = true;
+					return -1;
+				}
+			}
+			int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+			if (read > 0) {
+				chunkRemaining -= read;
+				if (chunkRemaining == 0) {
+					readLine(in);
+				}
+			}
+			return read;
+		}
+	}
+
+	private static class ChunkedOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private boolean closed;
+
+		ChunkedOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			out.write((Integer.toHexString(len) + "\r\n").getBytes("ISO-8859-1"));
+			out.write(b, off, len);
+			out.write('\r');
+			out.write('\n');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+				out.flush();
+			}
+		}
+	}
+
+}
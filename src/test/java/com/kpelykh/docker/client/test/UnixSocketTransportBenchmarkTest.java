@@ -0,0 +1,160 @@
+package com.kpelykh.docker.client.test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kpelykh.docker.client.DockerClient;
+import com.kpelykh.docker.client.model.ContainerInspectResponse;
+import com.kpelykh.docker.client.transport.PooledHttpTransport;
+
+/**
+ * Compares request latency over the Unix domain socket transport with the TCP transport, both
+ * against a {@link StandInDockerDaemon}. The comparison only runs with {@link Benchmarks}
+ * enabled.
+ */
+public class UnixSocketTransportBenchmarkTest {
+
+	public static final Logger LOG = LoggerFactory.getLogger(UnixSocketTransportBenchmarkTest.class);
+
+	private static final int WARMUP_CALLS = 1000;
+
+	private static final int CALLS = 5000;
+
+	private static final String INSPECT_RESPONSE = "{\"ID\":\"4fa6e0f0c678\",\"Path\":\"/bin/sh\","
+			+ "\"State\":{\"Running\":true,\"Pid\":42,\"ExitCode\":0},\"Image\":\"b750fe79269d\"}";
+
+	private File socketFile;
+
+	private StandInDockerDaemon unixDaemon;
+
+	private StandInDockerDaemon tcpDaemon;
+
+	@Before
+	public void startDaemons() throws Exception {
+		socketFile = new File(System.getProperty("java.io.tmpdir"), "docker-" + UUID.randomUUID() + ".sock");
+		unixDaemon = configure(StandInDockerDaemon.unixSocket(socketFile)).start();
+		tcpDaemon = configure(StandInDockerDaemon.tcp()).start();
+	}
+
+	@After
+	public void stopDaemons() {
+		// null if starting them failed
+		if (unixDaemon != null) {
+			unixDaemon.stop();
+		}
+		if (tcpDaemon != null) {
+			tcpDaemon.stop();
+		}
+		socketFile.delete();
+	}
+
+	private StandInDockerDaemon configure(StandInDockerDaemon daemon) {
+		return daemon.onJson("GET", "/containers/([^/]+)/json", INSPECT_RESPONSE).on("POST",
+				"/containers/([^/]+)/attach", new StandInDockerDaemon.Handler() {
+					@Override
+					public void handle(StandInDockerDaemon.Request request, StandInDockerDaemon.Response response)
+							throws IOException {
+						OutputStream body = response.stream(200, "application/vnd.docker.raw-stream");
+						for (int i = 0; i < 100; i++) {
+							body.write(("line " + i + "\n").getBytes("UTF-8"));
+							body.flush();
+						}
+					}
+				});
+	}
+
+	@Test
+	public void shouldTalkToDaemonOverUnixSocket() throws Exception {
+		DockerClient dockerClient = new DockerClient(unixDaemon.getUrl());
+		try {
+			ContainerInspectResponse response = dockerClient.inspectContainer("4fa6e0f0c678");
+			assertThat(response.id, is("4fa6e0f0c678"));
+			assertThat(response.state.running, is(true));
+
+			String log = IOUtils.toString(dockerClient.logContainer("4fa6e0f0c678"));
+			assertThat(log.split("\n").length, equalTo(100));
+			assertThat(unixDaemon.getAcceptedConnections(), equalTo(1));
+		} finally {
+			dockerClient.close();
+		}
+	}
+
+	@Test
+	public void shouldKeepCallersTransport() throws Exception {
+		PooledHttpTransport transport = new PooledHttpTransport();
+		transport.setMaxTotal(7);
+		transport.setIdleTimeoutMillis(1234);
+		DockerClient dockerClient = new DockerClient(tcpDaemon.getUrl(), transport);
+		DockerClient other = new DockerClient(tcpDaemon.getUrl(), transport);
+		try {
+			dockerClient.setDockerDeamonUrl(unixDaemon.getUrl());
+
+			assertThat(dockerClient.getTransport(), not(sameInstance(transport)));
+			assertThat(dockerClient.getTransport().getMaxTotal(), equalTo(7));
+			assertThat(dockerClient.getTransport().getIdleTimeoutMillis(), equalTo(1234L));
+			assertThat(dockerClient.inspectContainer("4fa6e0f0c678").id, is("4fa6e0f0c678"));
+			assertThat(unixDaemon.getAcceptedConnections(), equalTo(1));
+			// still usable by everyone else sharing it, also once they closed
+			assertThat(other.inspectContainer("4fa6e0f0c678").id, is("4fa6e0f0c678"));
+			other.close();
+			assertThat(new DockerClient(tcpDaemon.getUrl(), transport).inspectContainer("4fa6e0f0c678").id,
+					is("4fa6e0f0c678"));
+		} finally {
+			dockerClient.close();
+			other.close();
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void compareUnixSocketWithTcpLatency() throws Exception {
+		Benchmarks.assumeEnabled();
+		DockerClient unixClient = new DockerClient(unixDaemon.getUrl());
+		DockerClient tcpClient = new DockerClient(tcpDaemon.getUrl());
+		try {
+			long[] unix = measureInspectLatency(unixClient);
+			long[] tcp = measureInspectLatency(tcpClient);
+			LOG.info("Unix socket inspect latency: {}", percentiles(unix));
+			LOG.info("TCP inspect latency: {}", percentiles(tcp));
+		} finally {
+			unixClient.close();
+			tcpClient.close();
+		}
+	}
+
+	private long[] measureInspectLatency(DockerClient dockerClient) throws Exception {
+		for (int i = 0; i < WARMUP_CALLS; i++) {
+			dockerClient.inspectContainer("warmup");
+		}
+		long[] latencies = new long[CALLS];
+		for (int i = 0; i < CALLS; i++) {
+			long start = System.nanoTime();
+			dockerClient.inspectContainer("4fa6e0f0c678");
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	private String percentiles(long[] sortedLatencies) {
+		return String.format("p50=%dus p90=%dus p99=%dus", sortedLatencies[CALLS / 2] / 1000,
+				sortedLatencies[CALLS * 9 / 10] / 1000, sortedLatencies[CALLS * 99 / 100] / 1000);
+	}
+
+}